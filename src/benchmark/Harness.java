@@ -0,0 +1,335 @@
+package benchmark;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Minimal stand-in for JMH, which needs a build tool this project does not have.
+ *
+ * <p>Each benchmark runs its operation in a loop on the requested number of threads,
+ * first for a warmup period whose results are discarded and then for a measurement
+ * period. Throughput counts every operation; latency is taken from a bounded sample
+ * of operations per thread. Results are appended to a list that can be written as JSON
+ * or CSV for comparison between runs.
+ */
+public class Harness {
+    private static final int SAMPLES_PER_THREAD = 200_000;
+    private static final PrintStream out = System.out;
+    private final long warmupMillis;
+    private final long measureMillis;
+    private final List<Result> results = new ArrayList<>();
+
+    public interface Operation {
+        void run(int thread, long iteration) throws Exception;
+    }
+
+    public static class Result {
+        private final String benchmark;
+        private final Map<String, String> params;
+        private final int threads;
+        private final long operations;
+        private final long bytesPerOperation;
+        private final double seconds;
+        private final long[] latencies;
+
+        private Result(String benchmark, Map<String, String> params, int threads, long operations, long bytesPerOperation, double seconds, long[] latencies) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.threads = threads;
+            this.operations = operations;
+            this.bytesPerOperation = bytesPerOperation;
+            this.seconds = seconds;
+            this.latencies = latencies;
+        }
+
+        public double opsPerSecond() {
+            return operations / seconds;
+        }
+
+        public double megabytesPerSecond() {
+            return operations * bytesPerOperation / seconds / (1024 * 1024);
+        }
+
+        /**
+         * Latency percentile in microseconds.
+         */
+        public double percentile(double percentile) {
+            if (latencies.length == 0) return 0;
+
+            final int index = (int) Math.min(latencies.length - 1, Math.ceil(percentile / 100 * latencies.length) - 1);
+
+            return latencies[Math.max(0, index)] / 1_000.0;
+        }
+    }
+
+    public Harness(long warmupMillis, long measureMillis) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    public static Harness fromArgs(List<String> args) {
+        return new Harness(longOption(args, "--warmup=", 1_000), longOption(args, "--time=", 3_000));
+    }
+
+    public Result measure(String benchmark, Map<String, String> params, int threads, Operation operation) throws Exception {
+        return measure(benchmark, params, threads, 0, operation);
+    }
+
+    /**
+     * Measures an operation that moves {@code bytesPerOperation} bytes, so the result
+     * also reports a transfer rate.
+     */
+    public Result measure(String benchmark, Map<String, String> params, int threads, long bytesPerOperation, Operation operation) throws Exception {
+        run(threads, warmupMillis, operation, false);
+
+        final Result measured = run(threads, measureMillis, operation, true);
+        final Result result = new Result(
+                benchmark,
+                new LinkedHashMap<>(params),
+                threads,
+                measured.operations,
+                bytesPerOperation,
+                measured.seconds,
+                measured.latencies
+        );
+
+        results.add(result);
+        out.printf(
+                Locale.ROOT,
+                "%-16s %-56s threads=%-3d %12.1f ops/s%s  p50=%.1fus p99=%.1fus p99.9=%.1fus%n",
+                benchmark,
+                params,
+                threads,
+                result.opsPerSecond(),
+                bytesPerOperation > 0 ? String.format(Locale.ROOT, " %9.1f MiB/s", result.megabytesPerSecond()) : "",
+                result.percentile(50),
+                result.percentile(99),
+                result.percentile(99.9)
+        );
+
+        return result;
+    }
+
+    /**
+     * Writes every result so far, as CSV if the file name ends in {@code .csv} and as
+     * JSON otherwise.
+     */
+    public void write(File file) throws IOException {
+        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            if (file.getName().endsWith(".csv")) {
+                writeCsv(writer);
+            } else {
+                writeJson(writer);
+            }
+        }
+
+        out.printf("Results written to %s%n", file.getPath());
+    }
+
+    /**
+     * Runs a task with standard output discarded, for code paths that print progress.
+     */
+    public static <T> T quietly(Callable<T> task) throws Exception {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        try {
+            return task.call();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public interface Callable<T> {
+        T call() throws Exception;
+    }
+
+    public static long longOption(List<String> args, String prefix, long defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return Long.parseLong(arg.substring(prefix.length()));
+        }
+
+        return defaultValue;
+    }
+
+    public static List<Integer> intsOption(List<String> args, String prefix, Integer... defaults) {
+        for (String arg : args) {
+            if (!arg.startsWith(prefix)) continue;
+
+            final List<Integer> values = new ArrayList<>();
+
+            for (String value : arg.substring(prefix.length()).split(",")) values.add(Integer.parseInt(value.trim()));
+
+            return values;
+        }
+
+        return Arrays.asList(defaults);
+    }
+
+    public static List<String> stringsOption(List<String> args, String prefix, String... defaults) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return Arrays.asList(arg.substring(prefix.length()).split(","));
+        }
+
+        return Arrays.asList(defaults);
+    }
+
+    public static String stringOption(List<String> args, String prefix, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return arg.substring(prefix.length());
+        }
+
+        return defaultValue;
+    }
+
+    private Result run(int threads, long millis, Operation operation, boolean sample) throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        final long[] counts = new long[threads];
+        final long[][] samples = new long[threads][];
+        final int[] sampled = new int[threads];
+        final Exception[] failure = new Exception[1];
+        final Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+
+            samples[t] = sample ? new long[SAMPLES_PER_THREAD] : new long[0];
+            workers[t] = new Thread(() -> {
+                long iteration = 0;
+
+                try {
+                    barrier.await();
+
+                    while (running.get()) {
+                        final long start = System.nanoTime();
+
+                        operation.run(thread, iteration++);
+
+                        final long elapsed = System.nanoTime() - start;
+
+                        if (sampled[thread] < samples[thread].length)
+                            samples[thread][sampled[thread]++] = elapsed;
+                    }
+                } catch (Exception e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+
+                    running.set(false);
+                } finally {
+                    counts[thread] = iteration;
+                }
+            }, "Harness-" + t);
+            workers[t].start();
+        }
+
+        barrier.await();
+
+        final long start = System.nanoTime();
+
+        Thread.sleep(millis);
+        running.set(false);
+
+        for (Thread worker : workers) worker.join();
+
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (failure[0] != null) throw failure[0];
+
+        long operations = 0;
+        int total = 0;
+
+        for (int t = 0; t < threads; t++) {
+            operations += counts[t];
+            total += sampled[t];
+        }
+
+        final long[] latencies = new long[total];
+        int position = 0;
+
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(samples[t], 0, latencies, position, sampled[t]);
+            position += sampled[t];
+        }
+
+        Arrays.sort(latencies);
+
+        return new Result(null, Collections.emptyMap(), threads, operations, 0, seconds, latencies);
+    }
+
+    private void writeJson(Writer writer) throws IOException {
+        writer.write("[\n");
+
+        for (int i = 0; i < results.size(); i++) {
+            final Result result = results.get(i);
+            final StringBuilder params = new StringBuilder();
+
+            for (Map.Entry<String, String> param : result.params.entrySet()) {
+                if (params.length() > 0) params.append(", ");
+
+                params.append(String.format("\"%s\": \"%s\"", escape(param.getKey()), escape(param.getValue())));
+            }
+
+            writer.write(String.format(
+                    Locale.ROOT,
+                    "  {\"benchmark\": \"%s\", \"params\": {%s}, \"threads\": %d, \"operations\": %d, \"seconds\": %.3f, "
+                            + "\"opsPerSecond\": %.3f, \"megabytesPerSecond\": %.3f, \"p50Micros\": %.3f, \"p99Micros\": %.3f, \"p999Micros\": %.3f, \"maxMicros\": %.3f}%s\n",
+                    escape(result.benchmark),
+                    params,
+                    result.threads,
+                    result.operations,
+                    result.seconds,
+                    result.opsPerSecond(),
+                    result.megabytesPerSecond(),
+                    result.percentile(50),
+                    result.percentile(99),
+                    result.percentile(99.9),
+                    result.percentile(100),
+                    i < results.size() - 1 ? "," : ""
+            ));
+        }
+
+        writer.write("]\n");
+    }
+
+    private void writeCsv(Writer writer) throws IOException {
+        writer.write("benchmark,params,threads,operations,seconds,opsPerSecond,megabytesPerSecond,p50Micros,p99Micros,p999Micros,maxMicros\n");
+
+        for (Result result : results) {
+            final StringBuilder params = new StringBuilder();
+
+            for (Map.Entry<String, String> param : result.params.entrySet()) {
+                if (params.length() > 0) params.append(';');
+
+                params.append(param.getKey()).append('=').append(param.getValue());
+            }
+
+            writer.write(String.format(
+                    Locale.ROOT,
+                    "%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+                    result.benchmark,
+                    params,
+                    result.threads,
+                    result.operations,
+                    result.seconds,
+                    result.opsPerSecond(),
+                    result.megabytesPerSecond(),
+                    result.percentile(50),
+                    result.percentile(99),
+                    result.percentile(99.9),
+                    result.percentile(100)
+            ));
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,91 @@
+package benchmark;
+
+import service.model.repository.CompactPeerRepository;
+import service.model.repository.PeerRepository;
+import service.model.repository.PeerRepositoryImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Loads a synthetic index into each repository implementation and reports the heap it
+ * retains per indexed (peer, file) pair. Every join builds fresh filename strings, as
+ * deserialized requests do, and each name is shared by {@code --copies} peers.
+ *
+ * <p>Run with a heap large enough for the biggest implementation, for example
+ * {@code java -Xmx8g -cp . benchmark.IndexMemoryBenchmark [--impl=map,compact]
+ * [--peers=N] [--files=N] [--copies=N]}
+ */
+public class IndexMemoryBenchmark {
+    /**
+     * Repository being measured, held here so it stays reachable until its heap is read.
+     */
+    private static PeerRepository measured;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final List<String> implementations = Harness.stringsOption(arguments, "--impl=", "map", "compact");
+        final int peers = (int) Harness.longOption(arguments, "--peers=", 10_000);
+        final int files = (int) Harness.longOption(arguments, "--files=", 200);
+        final int copies = (int) Harness.longOption(arguments, "--copies=", 4);
+        final int vocabulary = Math.max(1, (int) ((long) peers * files / copies));
+        final long pairs = (long) peers * files;
+
+        for (String implementation : implementations) {
+            final long before = usedHeap();
+            final PeerRepository repository = create(implementation);
+
+            measured = repository;
+
+            for (int p = 0; p < peers; p++) {
+                final List<String> names = new ArrayList<>(files);
+
+                for (int i = 0; i < files; i++) {
+                    names.add(String.format("track-%09d.mp3", (int) (((long) p * files + i) % vocabulary)));
+                }
+
+                repository.join(String.format("10.%d.%d.%d", (p >> 16) & 0xff, (p >> 8) & 0xff, p & 0xff), 1024, names);
+            }
+
+            final long after = usedHeap();
+
+            System.out.printf(
+                    Locale.ROOT,
+                    "%-8s %,d pairs (%,d peers x %,d files, %,d names): %,d MiB, %.1f bytes per pair%n",
+                    implementation,
+                    pairs,
+                    peers,
+                    files,
+                    vocabulary,
+                    (after - before) / (1024 * 1024),
+                    (double) (after - before) / pairs
+            );
+
+            measured = null;
+        }
+    }
+
+    private static PeerRepository create(String implementation) {
+        switch (implementation) {
+            case "map":
+                return new PeerRepositoryImpl();
+            case "compact":
+                return new CompactPeerRepository();
+            default:
+                throw new IllegalArgumentException("Unknown repository " + implementation);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,250 @@
+package benchmark;
+
+import peer.thread.DownloadThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures downloads over a simulated long link, comparing fixed download buffers with
+ * {@link DownloadThread#ADAPTIVE} sizing.
+ *
+ * <p>Loopback has no delay, so downloads go through a {@link LinkProxy} that holds every
+ * segment for half the round trip each way and, like a TCP sender, keeps no more bytes
+ * in flight than the receiving socket's window. The window is read from the download
+ * socket's receive buffer each time, halved as Linux keeps about half of it for its own
+ * bookkeeping, so growing the buffer opens the window as it would on a real link. Uploads
+ * use zero-copy {@code transferTo}, as with a channel server.
+ *
+ * <p>Usage: {@code benchmark.LatencyBenchmark [--sizes=BYTES,...] [--rtts=MS,...]
+ * [--buffers=BYTES|adaptive,...] [--warmup=MS] [--time=MS] [--out=FILE.json|FILE.csv]}
+ */
+public class LatencyBenchmark {
+    private static final int SEGMENT = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final Harness harness = Harness.fromArgs(arguments);
+        final List<Integer> sizes = Harness.intsOption(arguments, "--sizes=", 16 * 1024 * 1024);
+        final List<Integer> rtts = Harness.intsOption(arguments, "--rtts=", 10, 50);
+        final List<String> buffers = Harness.stringsOption(arguments, "--buffers=", "4096", "adaptive");
+        final File root = Files.createTempDirectory("napster-latency-bench").toFile();
+        final File source = new File(root, "source");
+        final File target = new File(root, "target");
+
+        if (!source.mkdirs() || !target.mkdirs()) throw new IOException("Failed to create " + root);
+
+        try (final TransferBenchmark.Uploader uploader = new TransferBenchmark.Uploader(source, 16 * 1024, true)) {
+            for (int size : sizes) {
+                final String filename = TransferBenchmark.createFile(source, size);
+
+                for (int rtt : rtts) {
+                    try (final LinkProxy proxy = new LinkProxy(uploader.address(), rtt)) {
+                        for (String buffer : buffers) {
+                            final Map<String, String> params = new LinkedHashMap<>();
+                            final int bufferSize = "adaptive".equals(buffer) ? DownloadThread.ADAPTIVE : Integer.parseInt(buffer);
+
+                            params.put("size", String.valueOf(size));
+                            params.put("rtt", String.valueOf(rtt));
+                            params.put("buffer", buffer);
+
+                            Harness.quietly(() -> harness.measure("latency", params, 1, size, (thread, iteration) -> {
+                                final Exception[] failure = new Exception[1];
+                                final File file = new File(target, filename);
+
+                                new DownloadThread(proxy.connect(), target, filename, new DownloadThread.Callback() {
+                                    @Override
+                                    public void onSuccess(String name) {
+                                    }
+
+                                    @Override
+                                    public void onError(Exception e) {
+                                        failure[0] = e;
+                                    }
+                                }, bufferSize).run();
+
+                                if (failure[0] != null) throw failure[0];
+                                if (!file.delete()) throw new IOException("Failed to delete " + file);
+                            }));
+                        }
+                    }
+                }
+            }
+        } finally {
+            TransferBenchmark.delete(root);
+        }
+
+        harness.write(new File(Harness.stringOption(arguments, "--out=", "latency-benchmark.json")));
+        System.exit(0);
+    }
+
+    /**
+     * Forwards connections to the uploader through a simulated link of the given round
+     * trip. Download sockets are opened by {@link #connect()}, so the proxy can read
+     * their receive buffer.
+     */
+    private static class LinkProxy implements AutoCloseable {
+        private final InetSocketAddress upstream;
+        private final long delayNanos;
+        private final ServerSocket serverSocket;
+        private final Map<Integer, Socket> downloads = new ConcurrentHashMap<>();
+        private final Thread acceptor;
+
+        LinkProxy(InetSocketAddress upstream, int rttMillis) throws IOException {
+            this.upstream = upstream;
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(rttMillis) / 2;
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+            this.acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        final Socket downstream = serverSocket.accept();
+                        final Socket uploader = new Socket(upstream.getAddress(), upstream.getPort());
+                        final int port = downstream.getPort();
+
+                        downstream.setTcpNoDelay(true);
+                        uploader.setTcpNoDelay(true);
+                        forward(downstream, uploader, () -> Integer.MAX_VALUE, "request");
+                        forward(uploader, downstream, () -> window(port), "response");
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }, "LinkProxy");
+            this.acceptor.setDaemon(true);
+            this.acceptor.start();
+        }
+
+        Socket connect() throws IOException {
+            final Socket socket = SocketChannel.open(new InetSocketAddress("localhost", serverSocket.getLocalPort())).socket();
+
+            downloads.put(socket.getLocalPort(), socket);
+
+            return socket;
+        }
+
+        private int window(int port) {
+            final Socket socket = downloads.get(port);
+
+            try {
+                return socket != null ? socket.getReceiveBufferSize() / 2 : SEGMENT;
+            } catch (IOException e) {
+                return SEGMENT;
+            }
+        }
+
+        /**
+         * Reads from {@code from} while fewer than a window of bytes are unacknowledged,
+         * delivers each segment to {@code to} after the one-way delay and counts it as
+         * acknowledged after another.
+         */
+        private void forward(Socket from, Socket to, IntSupplier window, String name) {
+            final BlockingQueue<Segment> link = new LinkedBlockingQueue<>();
+            final Queue<Segment> acknowledgements = new ConcurrentLinkedQueue<>();
+            final Thread sender = new Thread(() -> {
+                final byte[] buffer = new byte[SEGMENT];
+                long inFlight = 0;
+
+                try (final InputStream input = from.getInputStream()) {
+                    while (true) {
+                        Segment acknowledged;
+
+                        while ((acknowledged = acknowledgements.peek()) != null && acknowledged.due + delayNanos <= System.nanoTime()) {
+                            acknowledgements.poll();
+                            inFlight -= acknowledged.data.length;
+                        }
+
+                        final long room = window.getAsInt() - inFlight;
+
+                        if (room <= 0) {
+                            pause(acknowledged != null ? acknowledged.due + delayNanos : System.nanoTime() + Math.min(delayNanos, 1_000_000));
+                            continue;
+                        }
+
+                        final int count = input.read(buffer, 0, (int) Math.min(room, buffer.length));
+
+                        if (count < 0) break;
+
+                        inFlight += count;
+                        link.put(new Segment(Arrays.copyOf(buffer, count), System.nanoTime() + delayNanos));
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Connection closed
+                }
+
+                link.add(Segment.END);
+            }, "LinkProxy-" + name + "-in");
+            final Thread receiver = new Thread(() -> {
+                try (final OutputStream output = to.getOutputStream()) {
+                    Segment segment;
+
+                    while ((segment = link.take()) != Segment.END) {
+                        pause(segment.due);
+                        output.write(segment.data);
+                        acknowledgements.add(segment);
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Connection closed
+                } finally {
+                    close(from);
+                    close(to);
+                }
+            }, "LinkProxy-" + name + "-out");
+
+            sender.setDaemon(true);
+            receiver.setDaemon(true);
+            sender.start();
+            receiver.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+
+            try {
+                acceptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static void pause(long until) throws InterruptedException {
+            final long wait = until - System.nanoTime();
+
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+        }
+
+        private static void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore close errors
+            }
+        }
+    }
+
+    private static class Segment {
+        static final Segment END = new Segment(new byte[0], 0);
+        final byte[] data;
+        final long due;
+
+        Segment(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
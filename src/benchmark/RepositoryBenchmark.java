@@ -0,0 +1,157 @@
+package benchmark;
+
+import service.model.repository.CompactPeerRepository;
+import service.model.repository.PeerRepository;
+import service.model.repository.PeerRepositoryImpl;
+import service.model.repository.PersistentPeerRepository;
+import service.model.search.SearchMode;
+import service.model.search.SearchQuery;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures join, update, search and leave on the peer repositories under contention,
+ * for every combination of implementation, peer count, files per peer and thread count.
+ *
+ * <p>Every combination starts from a fresh repository preloaded with the given peers.
+ * Each file name is shared by about {@link #COPIES} peers so searches return several
+ * locations, as they do on a busy index.
+ *
+ * <p>Usage: {@code benchmark.RepositoryBenchmark [--impl=memory,compact,persistent] [--peers=N,...]
+ * [--files=N,...] [--threads=N,...] [--ops=join,update,search,prefix] [--warmup=MS] [--time=MS]
+ * [--out=FILE.json|FILE.csv]}
+ */
+public class RepositoryBenchmark {
+    private static final int COPIES = 4;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final Harness harness = Harness.fromArgs(arguments);
+        final List<String> implementations = Harness.stringsOption(arguments, "--impl=", "memory", "compact", "persistent");
+        final List<Integer> peerCounts = Harness.intsOption(arguments, "--peers=", 100, 10_000);
+        final List<Integer> fileCounts = Harness.intsOption(arguments, "--files=", 10, 200);
+        final List<Integer> threadCounts = Harness.intsOption(arguments, "--threads=", 1, 4, 16);
+        final List<String> operations = Harness.stringsOption(arguments, "--ops=", "join", "update", "search", "prefix");
+
+        for (String implementation : implementations) {
+            for (int peers : peerCounts) {
+                for (int files : fileCounts) {
+                    for (int threads : threadCounts) {
+                        for (String operation : operations) {
+                            run(harness, implementation, peers, files, threads, operation);
+                        }
+                    }
+                }
+            }
+        }
+
+        harness.write(new File(Harness.stringOption(arguments, "--out=", "repository-benchmark.json")));
+        System.exit(0);
+    }
+
+    private static void run(Harness harness, String implementation, int peers, int files, int threads, String operation) throws Exception {
+        final File folder = Files.createTempDirectory("napster-repository-bench").toFile();
+        final PeerRepository repository = create(implementation, folder);
+        final int vocabulary = Math.max(1, peers * files / COPIES);
+        final Map<String, String> params = new LinkedHashMap<>();
+
+        params.put("impl", implementation);
+        params.put("peers", String.valueOf(peers));
+        params.put("files", String.valueOf(files));
+
+        try {
+            for (int p = 0; p < peers; p++) {
+                repository.join(ip(p), port(p), files(p, files, vocabulary));
+            }
+
+            harness.measure(operation, params, threads, operation(repository, operation, peers, files, vocabulary));
+        } finally {
+            if (repository instanceof AutoCloseable) ((AutoCloseable) repository).close();
+
+            delete(folder);
+        }
+    }
+
+    private static Harness.Operation operation(PeerRepository repository, String operation, int peers, int files, int vocabulary) {
+        switch (operation) {
+            case "join":
+                // Each thread joins and leaves peers in its own address range
+                return (thread, iteration) -> {
+                    final String ip = String.format("10.%d.%d.%d", 128 + thread, (iteration >> 8) & 0xff, iteration & 0xff);
+                    final int port = 1024 + (int) (iteration % 60_000);
+
+                    repository.join(ip, port, files((int) iteration, files, vocabulary));
+                    repository.leave(ip, port);
+                };
+            case "update":
+                // Adds a file to a random peer and removes the one the same thread added before
+                return (thread, iteration) -> {
+                    final int peer = ThreadLocalRandom.current().nextInt(peers);
+                    final String added = String.format("extra-%d-%d.bin", thread, iteration);
+                    final String removed = String.format("extra-%d-%d.bin", thread, iteration - 1);
+
+                    repository.update(ip(peer), port(peer), Collections.singletonList(added), Collections.singletonList(removed));
+                };
+            case "search":
+                return (thread, iteration) -> repository.search(name(ThreadLocalRandom.current().nextInt(vocabulary)));
+            case "prefix":
+                // Prefixes cut at the last two digits, so each one matches up to a hundred names
+                return (thread, iteration) -> {
+                    final String name = name(ThreadLocalRandom.current().nextInt(vocabulary));
+
+                    repository.search(new SearchQuery(name.substring(0, name.length() - 6), SearchMode.PREFIX, false, null, 20));
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static PeerRepository create(String implementation, File folder) throws IOException {
+        switch (implementation) {
+            case "memory":
+                return new PeerRepositoryImpl();
+            case "compact":
+                return new CompactPeerRepository();
+            case "persistent":
+                return new PersistentPeerRepository(new PeerRepositoryImpl(), folder);
+            default:
+                throw new IllegalArgumentException("Unknown repository " + implementation);
+        }
+    }
+
+    private static List<String> files(int peer, int files, int vocabulary) {
+        final List<String> names = new ArrayList<>(files);
+
+        for (int i = 0; i < files; i++) {
+            names.add(name((int) (((long) peer * files + i) % vocabulary)));
+        }
+
+        return names;
+    }
+
+    private static String name(int index) {
+        return String.format("track-%07d.mp3", index);
+    }
+
+    private static String ip(int peer) {
+        return String.format("10.%d.%d.%d", (peer >> 16) & 0x7f, (peer >> 8) & 0xff, peer & 0xff);
+    }
+
+    private static int port(int peer) {
+        return 1024 + peer % 60_000;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+
+        if (!file.delete()) file.deleteOnExit();
+    }
+}
@@ -0,0 +1,134 @@
+package benchmark;
+
+import service.model.repository.PeerRepositoryImpl;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that the filename index of {@link PeerRepositoryImpl} stays consistent with its
+ * peers' file sets while many threads join, update and leave the same few peers.
+ *
+ * <p>After every round of concurrent operations the index is rebuilt from the peers, as
+ * {@link PeerRepositoryImpl#forEach} reports them, and compared with what searches,
+ * {@code fileCount} and {@code entryCount} return. Exits with status 1 on the first
+ * mismatch.
+ *
+ * <p>Usage: {@code benchmark.RepositoryConsistencyCheck [--threads=N] [--rounds=N]
+ * [--ops=N] [--peers=N] [--files=N]}
+ */
+public class RepositoryConsistencyCheck {
+    private static final String IP = "10.0.0.1";
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final int threads = (int) Harness.longOption(arguments, "--threads=", 16);
+        final int rounds = (int) Harness.longOption(arguments, "--rounds=", 20);
+        final int operations = (int) Harness.longOption(arguments, "--ops=", 20_000);
+        final int peers = (int) Harness.longOption(arguments, "--peers=", 32);
+        final int files = (int) Harness.longOption(arguments, "--files=", 200);
+        final PeerRepositoryImpl repository = new PeerRepositoryImpl();
+
+        for (int round = 1; round <= rounds; round++) {
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final List<Thread> workers = new ArrayList<>();
+
+            for (int t = 0; t < threads; t++) {
+                final Thread worker = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < operations; i++) {
+                            operate(repository, peers, files);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "Worker-" + t);
+
+                worker.start();
+                workers.add(worker);
+            }
+
+            for (Thread worker : workers) worker.join();
+
+            if (failure.get() != null) {
+                failure.get().printStackTrace();
+                System.exit(1);
+            }
+
+            final String mismatch = compare(repository, files);
+
+            if (mismatch != null) {
+                System.out.printf("Round %d: %s%n", round, mismatch);
+                System.exit(1);
+            }
+
+            System.out.printf(Locale.ROOT, "Round %d: %d peers, %d files, %d entries consistent%n",
+                    round, repository.peerCount(), repository.fileCount(), repository.entryCount());
+        }
+
+        System.exit(0);
+    }
+
+    private static void operate(PeerRepositoryImpl repository, int peers, int files) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int port = 1 + random.nextInt(peers);
+        final int operation = random.nextInt(10);
+
+        if (operation < 3) {
+            repository.join(IP, port, randomFiles(random, files));
+        } else if (operation < 9) {
+            repository.update(IP, port, randomFiles(random, files), randomFiles(random, files));
+        } else {
+            repository.leave(IP, port);
+        }
+    }
+
+    private static List<String> randomFiles(ThreadLocalRandom random, int files) {
+        final int count = random.nextInt(8);
+        final List<String> names = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            names.add(name(random.nextInt(files)));
+        }
+
+        return names;
+    }
+
+    /**
+     * @return a description of the first difference between the index and the peers, or
+     *         null if there is none
+     */
+    private static String compare(PeerRepositoryImpl repository, int files) {
+        final Map<String, Set<String>> expected = new HashMap<>();
+        final long[] entries = {0};
+
+        repository.forEach((key, peerFiles, hashes) -> {
+            for (String file : peerFiles) {
+                expected.computeIfAbsent(file, name -> new HashSet<>()).add(key);
+                entries[0]++;
+            }
+        });
+
+        for (int i = 0; i < files; i++) {
+            final String file = name(i);
+            final Set<String> found = new HashSet<>(repository.search(file));
+            final Set<String> wanted = expected.getOrDefault(file, Collections.emptySet());
+
+            if (!found.equals(wanted))
+                return String.format("index lists %s on %s, peers hold it on %s", file, found, wanted);
+        }
+
+        if (repository.fileCount() != expected.size())
+            return String.format("index has %d files, peers hold %d", repository.fileCount(), expected.size());
+
+        if (repository.entryCount() != entries[0])
+            return String.format("index has %d entries, peers hold %d", repository.entryCount(), entries[0]);
+
+        return null;
+    }
+
+    private static String name(int file) {
+        return String.format("file-%04d.txt", file);
+    }
+}
@@ -0,0 +1,213 @@
+package benchmark;
+
+import peer.download.BatchDownload;
+import peer.executor.PlatformTransferExecutor;
+import peer.pool.ConnectionPool;
+import peer.pool.PeerConnection;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
+import peer.thread.DownloadThread;
+import peer.thread.NioServerThread;
+import peer.thread.PeerServer;
+import peer.thread.ServerThread;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static peer.config.Config.EVENT_LOOP_COUNT;
+
+/**
+ * Fetches thousands of small files from a local peer server three ways: a new socket
+ * per file (the one-shot protocol), one pooled connection with one request at a time,
+ * and one pooled connection with pipelined requests.
+ *
+ * <p>Usage: {@code benchmark.SmallFilesBenchmark [--files=N] [--size=BYTES] [--blocking]}
+ */
+public class SmallFilesBenchmark {
+    private static final PrintStream out = System.out;
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final int files = intOption(arguments, "--files=", 5_000);
+        final int size = intOption(arguments, "--size=", 2_048);
+        final boolean blocking = arguments.contains("--blocking");
+        final File root = Files.createTempDirectory("napster-bench").toFile();
+        final File source = new File(root, "source");
+        final List<String> names = createFiles(source, files, size);
+        final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+
+        final String address = "localhost:" + serverChannel.socket().getLocalPort();
+        final PeerServer server = blocking
+                ? new ServerThread(serverChannel.socket(), source, new PlatformTransferExecutor())
+                : new NioServerThread(serverChannel, source, EVENT_LOOP_COUNT);
+
+        server.start();
+        out.printf("%d files of %d bytes, %s server%n", files, size, blocking ? "blocking" : "NIO");
+
+        try {
+            // Warm up every path once so the JIT does not favor the last one
+            run("warmup", () -> perFileSocket(address, target(root, "warmup-1"), names.subList(0, Math.min(200, files))), false);
+            run("warmup", () -> pooled(address, target(root, "warmup-2"), names.subList(0, Math.min(200, files))), false);
+            run("warmup", () -> pipelined(address, target(root, "warmup-3"), names.subList(0, Math.min(200, files))), false);
+
+            run("socket per file", () -> perFileSocket(address, target(root, "socket"), names), true);
+            run("pooled connection", () -> pooled(address, target(root, "pooled"), names), true);
+            run("pipelined connection", () -> pipelined(address, target(root, "pipelined"), names), true);
+        } finally {
+            server.close();
+            delete(root);
+        }
+
+        System.exit(0);
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void run(String label, Task task, boolean report) throws Exception {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+
+        final long start = System.nanoTime();
+
+        try {
+            task.run();
+        } finally {
+            System.setOut(out);
+        }
+
+        final long elapsed = System.nanoTime() - start;
+
+        if (report)
+            out.printf("%-22s %8d ms%n", label, elapsed / 1_000_000);
+    }
+
+    private static void perFileSocket(String address, File target, List<String> names) throws IOException {
+        final int separator = address.lastIndexOf(':');
+
+        for (String name : names) {
+            try (final Socket socket = new Socket(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1)))) {
+                final PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
+
+                writer.println(new TransferRequest(name).toLine());
+
+                final DataInputStream reader = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+                copy(reader, reader.readLong(), new File(target, name));
+            }
+        }
+    }
+
+    private static void pooled(String address, File target, List<String> names) throws IOException {
+        try (final ConnectionPool pool = new ConnectionPool()) {
+            for (String name : names) {
+                final PeerConnection connection = pool.acquire(address);
+
+                try {
+                    connection.send(new TransferRequest(name));
+
+                    final TransferResponse response = connection.receive();
+
+                    copy(connection.body(), response.getLength(), new File(target, name));
+                } catch (IOException e) {
+                    connection.invalidate();
+
+                    throw e;
+                } finally {
+                    pool.release(connection);
+                }
+            }
+        }
+    }
+
+    private static void pipelined(String address, File target, List<String> names) throws Exception {
+        final Exception[] failure = new Exception[1];
+
+        try (final ConnectionPool pool = new ConnectionPool()) {
+            new BatchDownload(address, target, names, pool, new DownloadThread.Callback() {
+                @Override
+                public void onSuccess(String filename) {
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    failure[0] = e;
+                }
+            }).run();
+        }
+
+        if (failure[0] != null) throw failure[0];
+    }
+
+    private static void copy(DataInputStream input, long length, File file) throws IOException {
+        final byte[] buffer = new byte[8192];
+
+        try (final OutputStream output = new FileOutputStream(file)) {
+            while (length > 0) {
+                final int count = input.read(buffer, 0, (int) Math.min(buffer.length, length));
+
+                if (count < 0) throw new EOFException(file.getName());
+
+                output.write(buffer, 0, count);
+                length -= count;
+            }
+        }
+    }
+
+    private static List<String> createFiles(File folder, int files, int size) throws IOException {
+        final List<String> names = new ArrayList<>(files);
+        final Random random = new Random(42);
+        final byte[] data = new byte[size];
+
+        if (!folder.mkdirs()) throw new IOException("Failed to create " + folder);
+
+        for (int i = 0; i < files; i++) {
+            final String name = String.format("file-%06d.bin", i);
+
+            random.nextBytes(data);
+            Files.write(new File(folder, name).toPath(), data);
+            names.add(name);
+        }
+
+        return names;
+    }
+
+    private static File target(File root, String name) throws IOException {
+        final File folder = new File(root, name);
+
+        if (!folder.mkdirs()) throw new IOException("Failed to create " + folder);
+
+        return folder;
+    }
+
+    private static int intOption(List<String> args, String prefix, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) return Integer.parseInt(arg.substring(prefix.length()));
+        }
+
+        return defaultValue;
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+
+        if (!file.delete()) file.deleteOnExit();
+    }
+}
@@ -0,0 +1,179 @@
+package benchmark;
+
+import peer.thread.DownloadThread;
+import peer.thread.UploadThread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Measures loopback transfers between an {@link UploadThread} and a
+ * {@link DownloadThread} for every combination of file size, buffer size, upload path
+ * and concurrent downloads.
+ *
+ * <p>The stream path copies through the upload buffer; the channel path accepts on a
+ * {@link ServerSocketChannel} so uploads use zero-copy {@code transferTo} and only the
+ * download buffer varies. Downloads connect through a {@link SocketChannel}, as peers do,
+ * so the body is read straight into the download sink.
+ *
+ * <p>Usage: {@code benchmark.TransferBenchmark [--sizes=BYTES,...] [--buffers=BYTES,...]
+ * [--modes=stream,channel] [--threads=N,...] [--warmup=MS] [--time=MS] [--out=FILE.json|FILE.csv]}
+ */
+public class TransferBenchmark {
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final Harness harness = Harness.fromArgs(arguments);
+        final List<Integer> sizes = Harness.intsOption(arguments, "--sizes=", 4 * 1024, 256 * 1024, 16 * 1024 * 1024);
+        final List<Integer> buffers = Harness.intsOption(arguments, "--buffers=", 4 * 1024, 64 * 1024, 1024 * 1024);
+        final List<String> modes = Harness.stringsOption(arguments, "--modes=", "stream", "channel");
+        final List<Integer> threadCounts = Harness.intsOption(arguments, "--threads=", 1, 4);
+        final File root = Files.createTempDirectory("napster-transfer-bench").toFile();
+        final File source = new File(root, "source");
+
+        if (!source.mkdirs()) throw new IOException("Failed to create " + source);
+
+        try {
+            for (int size : sizes) {
+                final String filename = createFile(source, size);
+
+                for (int buffer : buffers) {
+                    for (String mode : modes) {
+                        for (int threads : threadCounts) {
+                            run(harness, root, source, filename, size, buffer, mode, threads);
+                        }
+                    }
+                }
+            }
+        } finally {
+            delete(root);
+        }
+
+        harness.write(new File(Harness.stringOption(arguments, "--out=", "transfer-benchmark.json")));
+        System.exit(0);
+    }
+
+    private static void run(Harness harness, File root, File source, String filename, int size, int buffer, String mode, int threads) throws Exception {
+        final File[] targets = new File[threads];
+        final Map<String, String> params = new LinkedHashMap<>();
+
+        for (int t = 0; t < threads; t++) {
+            targets[t] = new File(root, "target-" + t);
+
+            if (!targets[t].isDirectory() && !targets[t].mkdirs()) throw new IOException("Failed to create " + targets[t]);
+        }
+
+        params.put("size", String.valueOf(size));
+        params.put("buffer", String.valueOf(buffer));
+        params.put("mode", mode);
+
+        try (final Uploader uploader = new Uploader(source, buffer, "channel".equals(mode))) {
+            Harness.quietly(() -> harness.measure("transfer", params, threads, size, (thread, iteration) -> {
+                final Exception[] failure = new Exception[1];
+                final File target = new File(targets[thread], filename);
+
+                new DownloadThread(uploader.connect(), targets[thread], filename, new DownloadThread.Callback() {
+                    @Override
+                    public void onSuccess(String name) {
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        failure[0] = e;
+                    }
+                }, buffer).run();
+
+                if (failure[0] != null) throw failure[0];
+                if (!target.delete()) throw new IOException("Failed to delete " + target);
+            }));
+        }
+    }
+
+    /**
+     * Accepts connections and serves each one on its own {@link UploadThread}.
+     */
+    static class Uploader implements AutoCloseable {
+        private final ServerSocket serverSocket;
+        private final Thread acceptor;
+
+        Uploader(File folder, int buffer, boolean channel) throws IOException {
+            if (channel) {
+                final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+                serverChannel.bind(new InetSocketAddress("localhost", 0));
+                this.serverSocket = serverChannel.socket();
+            } else {
+                this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+            }
+
+            this.acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        final SocketChannel socketChannel = channel ? serverSocket.getChannel().accept() : null;
+                        final Socket socket = channel ? socketChannel.socket() : serverSocket.accept();
+                        final Thread upload = new Thread(new UploadThread(socket, folder, buffer));
+
+                        upload.setDaemon(true);
+                        upload.start();
+                    }
+                } catch (IOException e) {
+                    // Closed
+                }
+            }, "Uploader");
+            this.acceptor.setDaemon(true);
+            this.acceptor.start();
+        }
+
+        Socket connect() throws IOException {
+            return SocketChannel.open(new InetSocketAddress("localhost", serverSocket.getLocalPort())).socket();
+        }
+
+        InetSocketAddress address() {
+            return new InetSocketAddress("localhost", serverSocket.getLocalPort());
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+
+            try {
+                acceptor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static String createFile(File folder, int size) throws IOException {
+        final String name = String.format("payload-%d.bin", size);
+        final Random random = new Random(42);
+        final byte[] block = new byte[64 * 1024];
+
+        try (final RandomAccessFile file = new RandomAccessFile(new File(folder, name), "rw")) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                file.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+
+        return name;
+    }
+
+    static void delete(File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+
+        if (!file.delete()) file.deleteOnExit();
+    }
+}
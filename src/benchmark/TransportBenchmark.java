@@ -0,0 +1,126 @@
+package benchmark;
+
+import service.Napster;
+import service.NapsterImpl;
+import service.model.repository.PeerRepositoryImpl;
+import service.model.search.SearchMode;
+import service.model.search.SearchQuery;
+import service.transport.BinaryNapster;
+import service.transport.BinaryNapsterServer;
+import service.transport.RemoteNapster;
+import service.transport.RmiNapster;
+import service.transport.RmiNapsterServer;
+
+import java.io.File;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares calls per second to a local index over RMI and over the binary transport.
+ * Both serve the same preloaded in-memory index, and every client thread shares one
+ * client, as the threads of a peer do.
+ *
+ * <p>Usage: {@code benchmark.TransportBenchmark [--transports=rmi,binary] [--peers=N]
+ * [--files=N] [--threads=N,...] [--ops=heartbeat,search,prefix,update] [--warmup=MS]
+ * [--time=MS] [--out=FILE.json|FILE.csv]}
+ */
+public class TransportBenchmark {
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = Arrays.asList(args);
+        final Harness harness = Harness.fromArgs(arguments);
+        final List<String> transports = Harness.stringsOption(arguments, "--transports=", "rmi", "binary");
+        final int peers = (int) Harness.longOption(arguments, "--peers=", 1_000);
+        final int files = (int) Harness.longOption(arguments, "--files=", 20);
+        final List<Integer> threadCounts = Harness.intsOption(arguments, "--threads=", 1, 4, 16);
+        final List<String> operations = Harness.stringsOption(arguments, "--ops=", "heartbeat", "search", "prefix", "update");
+        final Napster service = new NapsterImpl(false, new PeerRepositoryImpl());
+        final RmiNapsterServer rmi = new RmiNapsterServer(service);
+        final BinaryNapsterServer server = new BinaryNapsterServer(service, 0, false);
+
+        server.start();
+
+        Harness.quietly(() -> {
+            for (int p = 0; p < peers; p++) {
+                final List<String> names = new ArrayList<>(files);
+
+                for (int i = 0; i < files; i++) names.add(name(p * files + i));
+
+                service.join(ip(p), 1024 + p, names);
+            }
+
+            return null;
+        });
+
+        try {
+            for (String transport : transports) {
+                final Napster client = "rmi".equals(transport)
+                        ? new RmiNapster((RemoteNapster) RemoteObject.toStub(rmi))
+                        : new BinaryNapster("localhost", server.getPort());
+
+                try {
+                    for (int threads : threadCounts) {
+                        for (String operation : operations) {
+                            final Map<String, String> params = new LinkedHashMap<>();
+
+                            params.put("transport", transport);
+                            params.put("peers", String.valueOf(peers));
+                            params.put("files", String.valueOf(files));
+
+                            Harness.quietly(() -> harness.measure(operation, params, threads, operation(client, operation, peers, files)));
+                        }
+                    }
+                } finally {
+                    if (client instanceof AutoCloseable) ((AutoCloseable) client).close();
+                }
+            }
+        } finally {
+            server.close();
+            UnicastRemoteObject.unexportObject(rmi, true);
+        }
+
+        harness.write(new File(Harness.stringOption(arguments, "--out=", "transport-benchmark.json")));
+        System.exit(0);
+    }
+
+    private static Harness.Operation operation(Napster client, String operation, int peers, int files) {
+        switch (operation) {
+            case "heartbeat":
+                return (thread, iteration) -> {
+                    final int peer = ThreadLocalRandom.current().nextInt(peers);
+
+                    client.heartbeat(ip(peer), 1024 + peer);
+                };
+            case "search":
+                return (thread, iteration) -> client.search("127.0.0.1", 1, name(ThreadLocalRandom.current().nextInt(peers * files)));
+            case "prefix":
+                return (thread, iteration) -> {
+                    final String name = name(ThreadLocalRandom.current().nextInt(peers * files));
+
+                    client.search("127.0.0.1", 1, new SearchQuery(name.substring(0, name.length() - 6), SearchMode.PREFIX, false, null, 20));
+                };
+            case "update":
+                return (thread, iteration) -> {
+                    final int peer = ThreadLocalRandom.current().nextInt(peers);
+
+                    client.update(
+                            ip(peer),
+                            1024 + peer,
+                            Collections.singletonList(String.format("extra-%d-%d.bin", thread, iteration)),
+                            Collections.singletonList(String.format("extra-%d-%d.bin", thread, iteration - 1))
+                    );
+                };
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private static String name(int index) {
+        return String.format("track-%07d.mp3", index);
+    }
+
+    private static String ip(int peer) {
+        return String.format("10.%d.%d.%d", (peer >> 16) & 0xff, (peer >> 8) & 0xff, peer & 0xff);
+    }
+}
@@ -16,6 +16,11 @@ public class ConsoleLog implements Log {
         debug = enable;
     }
 
+    @Override
+    public boolean isDebug() {
+        return debug;
+    }
+
     @Override
     public void e(String msg) {
         logger.log(Level.SEVERE, msg);
@@ -31,6 +36,26 @@ public class ConsoleLog implements Log {
         if(debug) logger.log(Level.INFO, msg);
     }
 
+    @Override
+    public void d(String format, Object arg) {
+        if(debug) logger.log(Level.INFO, String.format(format, arg));
+    }
+
+    @Override
+    public void d(String format, Object arg1, Object arg2) {
+        if(debug) logger.log(Level.INFO, String.format(format, arg1, arg2));
+    }
+
+    @Override
+    public void d(String format, Object arg1, Object arg2, Object arg3) {
+        if(debug) logger.log(Level.INFO, String.format(format, arg1, arg2, arg3));
+    }
+
+    @Override
+    public void d(String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if(debug) logger.log(Level.INFO, String.format(format, arg1, arg2, arg3, arg4));
+    }
+
     @Override
     public void w(String msg) {
         logger.log(Level.WARNING, msg);
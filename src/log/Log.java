@@ -1,10 +1,22 @@
 package log;
 
+/**
+ * Logger used across the project.
+ *
+ * <p>The {@code d} overloads that take a format and arguments only format the message
+ * when debug logging is on, so callers pass the arguments instead of a built message.
+ * Arguments that are costly to compute belong behind {@link #isDebug()}.
+ */
 public interface Log {
     void setDebug(boolean enable);
+    boolean isDebug();
     void e(String msg);
     void e(String msg, Throwable e);
     void d(String msg);
+    void d(String format, Object arg);
+    void d(String format, Object arg1, Object arg2);
+    void d(String format, Object arg1, Object arg2, Object arg3);
+    void d(String format, Object arg1, Object arg2, Object arg3, Object arg4);
     void w(String msg);
     void v(String msg);
 }
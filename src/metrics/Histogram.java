@@ -0,0 +1,99 @@
+package metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative longs with HDR-style log-linear buckets.
+ *
+ * <p>Values below {@link #SUB_BUCKETS} get a bucket each. Above that, every power of two
+ * is split into {@link #SUB_BUCKETS} equal buckets, so any recorded value is reported
+ * within about 3% across the whole range of longs, in a fixed array of counts. Recording
+ * is one atomic increment plus the totals, with no allocation.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the nanoseconds elapsed since a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a transfer rate in bytes per second, ignoring empty or instant transfers.
+     */
+    public void recordRate(long bytes, long elapsedNanos) {
+        if (bytes > 0 && elapsedNanos > 0)
+            record((long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos));
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Value below which the given percentage of recordings fall, as the midpoint of its
+     * bucket. Recordings made while this runs may or may not be counted.
+     */
+    public long percentile(double percentile) {
+        final long total = count();
+
+        if (total == 0) return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += counts.get(index);
+
+            if (seen >= rank) return Math.min(max(), midpoint(index));
+        }
+
+        return max();
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long midpoint(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+        return lower + ((1L << shift) >>> 1);
+    }
+}
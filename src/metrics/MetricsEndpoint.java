@@ -0,0 +1,64 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import log.ConsoleLog;
+import log.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Serves a registry as text on {@code http://localhost:<port>/metrics}. It only binds to
+ * the loopback address.
+ */
+public class MetricsEndpoint implements AutoCloseable {
+    private static final String TAG = "MetricsEndpoint";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final String METRICS = "--metrics=";
+    private final HttpServer server;
+
+    public MetricsEndpoint(MetricsRegistry registry, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/metrics", exchange -> {
+            final byte[] body = registry.render().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (final OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+    }
+
+    /**
+     * Creates an endpoint on the port given by a {@code --metrics=<port>} argument, or
+     * returns {@code null} when there is none.
+     */
+    public static MetricsEndpoint from(MetricsRegistry registry, List<String> args) throws IOException {
+        for (String arg : args) {
+            if (arg.startsWith(METRICS))
+                return new MetricsEndpoint(registry, Integer.parseInt(arg.substring(METRICS.length())));
+        }
+
+        return null;
+    }
+
+    public void start() {
+        server.start();
+        log.d("Serving metrics on port %d", server.getAddress().getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
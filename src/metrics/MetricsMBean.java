@@ -0,0 +1,65 @@
+package metrics;
+
+import javax.management.*;
+import java.util.Map;
+
+/**
+ * Exposes every metric of a registry as a read-only JMX attribute of type {@code long},
+ * named as in the text format.
+ */
+class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        final Long value = registry.values().get(attribute);
+
+        if (value == null) throw new AttributeNotFoundException(attribute);
+
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        final Map<String, Long> values = registry.values();
+        final AttributeList list = new AttributeList();
+
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) list.add(new Attribute(attribute, values.get(attribute)));
+        }
+
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final Map<String, Long> values = registry.values();
+        final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int index = 0;
+
+        for (String name : values.keySet()) {
+            attributes[index++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+        }
+
+        return new MBeanInfo(getClass().getName(), "Napster metrics", attributes, null, null, null);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(String.format("Metric %s is read-only", attribute.getName()));
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException {
+        throw new MBeanException(new UnsupportedOperationException(actionName));
+    }
+}
@@ -0,0 +1,133 @@
+package metrics;
+
+import log.ConsoleLog;
+import log.Log;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and histograms of one process.
+ *
+ * <p>Metrics are looked up once and kept in fields, so the hot paths only touch the
+ * metric itself. Names may carry labels in the text format's {@code name{key="value"}}
+ * form; see {@link #name(String, Object...)}. The {@link #global()} registry is
+ * published over JMX as {@code napster:type=Metrics} and can be served as text by a
+ * {@link MetricsEndpoint}.
+ */
+public class MetricsRegistry {
+    private static final String TAG = "MetricsRegistry";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private static class Holder {
+        private static final MetricsRegistry GLOBAL = publish(new MetricsRegistry());
+    }
+
+    public static MetricsRegistry global() {
+        return Holder.GLOBAL;
+    }
+
+    /**
+     * Builds a metric name with labels from alternating keys and values.
+     */
+    public static String name(String base, Object... labels) {
+        if (labels.length == 0) return base;
+
+        final StringBuilder name = new StringBuilder(base).append('{');
+
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) name.append(',');
+
+            name.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+        }
+
+        return name.append('}').toString();
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Registers a value read when metrics are collected, replacing any gauge with the
+     * same name.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public void remove(String name) {
+        counters.remove(name);
+        gauges.remove(name);
+        histograms.remove(name);
+    }
+
+    /**
+     * Current value of every metric, with histograms flattened into count, sum, max and
+     * percentile entries.
+     */
+    public Map<String, Long> values() {
+        final Map<String, Long> values = new TreeMap<>();
+
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            values.put(suffix(name, "_count"), histogram.count());
+            values.put(suffix(name, "_sum"), histogram.sum());
+            values.put(suffix(name, "_max"), histogram.max());
+
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                values.put(label(name, "quantile", QUANTILES[i]), histogram.percentile(PERCENTILES[i]));
+            }
+        });
+
+        return values;
+    }
+
+    /**
+     * Renders every metric in the Prometheus text format, one {@code name value} per line.
+     */
+    public String render() {
+        final StringBuilder text = new StringBuilder();
+
+        values().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+
+        return text.toString();
+    }
+
+    private static String suffix(String name, String suffix) {
+        final int labels = name.indexOf('{');
+
+        return labels < 0 ? name + suffix : name.substring(0, labels) + suffix + name.substring(labels);
+    }
+
+    private static String label(String name, String key, String value) {
+        final String label = key + "=\"" + value + "\"";
+
+        return name.endsWith("}") ? name.substring(0, name.length() - 1) + "," + label + "}" : name + "{" + label + "}";
+    }
+
+    private static MetricsRegistry publish(MetricsRegistry registry) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(registry), new ObjectName("napster:type=Metrics"));
+        } catch (Exception e) {
+            log.e("Failed to publish metrics over JMX", e);
+        }
+
+        return registry;
+    }
+}
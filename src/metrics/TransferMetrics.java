@@ -0,0 +1,46 @@
+package metrics;
+
+/**
+ * Active count, byte total, outcome and rate of one direction of file transfers.
+ *
+ * <p>A transfer calls {@link #start()} once and {@link #finish(long, long, boolean)}
+ * exactly once with the value it returned, so the active count stays balanced.
+ */
+public class TransferMetrics {
+    public static final TransferMetrics UPLOADS = new TransferMetrics(MetricsRegistry.global(), "peer_uploads");
+    public static final TransferMetrics DOWNLOADS = new TransferMetrics(MetricsRegistry.global(), "peer_downloads");
+    private final Counter active;
+    private final Counter bytes;
+    private final Counter completed;
+    private final Counter failed;
+    private final Histogram rate;
+
+    public TransferMetrics(MetricsRegistry registry, String name) {
+        this.active = registry.counter(name + "_active");
+        this.bytes = registry.counter(name + "_bytes");
+        this.completed = registry.counter(name + "_completed");
+        this.failed = registry.counter(name + "_failed");
+        this.rate = registry.histogram(name + "_bytes_per_second");
+    }
+
+    /**
+     * @return the start time to pass to {@link #finish(long, long, boolean)}
+     */
+    public long start() {
+        active.increment();
+
+        return System.nanoTime();
+    }
+
+    public void finish(long startNanos, long transferred, boolean success) {
+        active.decrement();
+        bytes.add(transferred);
+
+        if (success) {
+            completed.increment();
+            rate.recordRate(transferred, System.nanoTime() - startNanos);
+        } else {
+            failed.increment();
+        }
+    }
+}
@@ -2,28 +2,61 @@ package peer;
 
 import log.ConsoleLog;
 import log.Log;
+import metrics.MetricsEndpoint;
+import metrics.MetricsRegistry;
 import service.model.response.JoinResponse;
-import service.model.response.UpdateResponse;
 import service.Napster;
+import service.CachingNapster;
+import service.InstrumentedNapster;
+import service.NapsterClient;
+import service.transport.Transport;
+import service.model.digest.FileSetDigest;
 import service.model.enums.Operation;
+import service.model.search.SearchHit;
+import service.model.search.SearchMode;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+import peer.bandwidth.TokenBucket;
+import peer.bandwidth.UploadScheduler;
+import peer.config.BandwidthLimits;
+import peer.config.IndexAddresses;
+import peer.config.ServerMode;
+import peer.config.SyncPolicy;
+import peer.config.ThreadMode;
+import peer.download.BatchDownload;
+import peer.download.MultiSourceDownload;
+import peer.executor.TransferExecutor;
+import peer.health.ReportBatcher;
+import peer.hash.FileHash;
+import peer.hash.FileHasher;
+import peer.lease.Heartbeat;
+import peer.pool.ConnectionPool;
+import peer.protocol.Encoding;
+import peer.update.UpdateBatcher;
+import peer.watch.FolderWatcher;
 import peer.thread.DownloadThread;
+import peer.thread.NioServerThread;
+import peer.thread.PeerServer;
 import peer.thread.ServerThread;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Paths;
 import java.rmi.ConnectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 
+import static peer.config.Config.EVENT_LOOP_COUNT;
+import static peer.config.Config.HEARTBEAT_INTERVAL;
+import static peer.config.Config.SEARCH_PAGE_SIZE;
+import static peer.config.Config.SOURCE_TIMEOUT;
 import static util.AssertUtil.check;
 import static util.IOUtil.readInput;
 
@@ -31,21 +64,48 @@ public class PeerImpl implements Peer {
     private static final String DEFAULT_FOLDER = "data";
     private static final String DEFAULT_FOLDER_FORMAT = "peer-%s-%d";
     private static final String TAG = "PeerImpl";
+    private static final String AUTO_SOURCE = "auto";
     private final Napster napster;
     private final Log log = new ConsoleLog(TAG);
     private String ip;
     private Integer port;
+    private final ServerMode serverMode;
+    private final TransferExecutor executor;
+    private final UpdateBatcher updateBatcher;
+    private final Heartbeat heartbeat;
+    private final ReportBatcher reports;
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    private final UploadScheduler uploadScheduler;
+    private final TokenBucket downloadLimit;
+    private final SyncPolicy syncPolicy;
+    private final Encoding compression;
     private File folder;
-    private ServerSocket serverSocket;
+    private FileHasher hasher;
+    private FolderWatcher watcher;
+    private PeerServer server;
 
-    public PeerImpl(boolean debug) throws NotBoundException, IOException {
+    public PeerImpl(boolean debug, ServerMode serverMode, ThreadMode threadMode, List<String> indexAddresses, Transport transport, BandwidthLimits limits, SyncPolicy syncPolicy, Encoding compression) throws NotBoundException, IOException {
         try {
             log.setDebug(debug);
+            this.serverMode = serverMode;
+            this.executor = TransferExecutor.create(threadMode);
+            this.uploadScheduler = new UploadScheduler(limits);
+            this.downloadLimit = new TokenBucket(limits.getDownloadRate());
+            this.syncPolicy = syncPolicy;
+            this.compression = compression;
 
-            final Registry registry = LocateRegistry.getRegistry();
-            this.napster = (Napster) registry.lookup("rmi://localhost/napster");
+            final Napster client = NapsterClient.connect(indexAddresses, transport);
 
-            check(napster != null, "Serviço remoto não disponível");
+            check(client != null, "Serviço remoto não disponível");
+
+            this.napster = new CachingNapster(new InstrumentedNapster(client, MetricsRegistry.global(), "napster_rpc"));
+
+            this.updateBatcher = new UpdateBatcher(
+                    (added, removed) -> napster.update(ip, port, added, removed),
+                    hashes -> napster.updateHashes(ip, port, hashes)
+            );
+            this.heartbeat = new Heartbeat(() -> napster.heartbeat(ip, port, uploadScheduler.freeSlots()), this::rejoin);
+            this.reports = new ReportBatcher(batch -> napster.report(ip, port, batch));
         } catch (Exception e) {
             log.e("Failed to initialize peer", e);
 
@@ -55,11 +115,23 @@ public class PeerImpl implements Peer {
 
     public static void main(String[] args) {
         try {
-            final boolean debug = Arrays.asList(args).contains("--d");
-
-            try (Peer peer = new PeerImpl(debug)) {
+            final List<String> arguments = Arrays.asList(args);
+            final boolean debug = arguments.contains("--d");
+
+            try (Peer peer = new PeerImpl(
+                    debug,
+                    ServerMode.from(arguments),
+                    ThreadMode.from(arguments),
+                    IndexAddresses.from(arguments),
+                    Transport.from(arguments),
+                    BandwidthLimits.from(arguments),
+                    SyncPolicy.from(arguments),
+                    Encoding.from(arguments)
+            ); MetricsEndpoint endpoint = MetricsEndpoint.from(MetricsRegistry.global(), arguments)) {
                 Runtime.getRuntime().addShutdownHook(peer.onShutdown());
 
+                if (endpoint != null) endpoint.start();
+
                 peer.start();
             } catch (ConnectException e) {
                 System.out.println("Falha na conexão com o serviço remoto!\nVerifique se o serviço está ativo.");
@@ -84,6 +156,7 @@ public class PeerImpl implements Peer {
                 case UPDATE: update(); break;
                 case SEARCH: search(); break;
                 case DOWNLOAD: download(); break;
+                case COPIES: searchCopies(); break;
                 case EXIT:
                     running = false;
                     break;
@@ -96,11 +169,23 @@ public class PeerImpl implements Peer {
         try {
             if (!isJoined()) return;
 
+            heartbeat.close();
+
+            if (watcher != null) watcher.close();
+
+            updateBatcher.close();
+            reports.close();
+            hasher.close();
+            connectionPool.close();
+
             log.d("Leaving Napster...");
             napster.leave(ip, port);
-            if(serverSocket != null) {
+
+            if (napster instanceof AutoCloseable) ((AutoCloseable) napster).close();
+
+            if(server != null) {
                 log.d("Interrupting server thread...");
-                serverSocket.close();
+                server.close();
             }
         } catch (Exception e) {
             log.e("Failed to stop peer!", e);
@@ -139,19 +224,17 @@ public class PeerImpl implements Peer {
                 throw new RuntimeException("Falha ao criar pasta do peer");
             }
 
-            final File[] filesArray = folder.listFiles();
-
-            check(filesArray != null, "Lista de arquivos do peer é nula");
+            this.hasher = new FileHasher(folder);
 
-            final List<File> files = Arrays.asList(filesArray);
-            final List<String> fileNames = files.stream().map(File::getName).collect(Collectors.toList());
-            final String result = napster.join(ip, port, fileNames);
+            final List<String> fileNames = announce();
+            final ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(this.port));
 
-            check(result.equals(JoinResponse.OK.getCode()), "Falha do serviço remoto para inicializar o peer");
-
-            this.serverSocket = new ServerSocket(this.port);
-            final ServerThread serverThread = new ServerThread(serverSocket, folder);
-            serverThread.start();
+            this.server = createServer(serverChannel);
+            this.server.start();
+            this.heartbeat.start(HEARTBEAT_INTERVAL);
+            this.watcher = new FolderWatcher(folder, fileNames, folderListener());
+            this.watcher.start();
 
             log.d("Successfully joined to server!");
             System.out.printf(
@@ -174,6 +257,61 @@ public class PeerImpl implements Peer {
         }
     }
 
+    private List<String> announce() throws RemoteException {
+        final File[] filesArray = folder.listFiles();
+
+        check(filesArray != null, "Lista de arquivos do peer é nula");
+
+        final List<File> files = Arrays.asList(filesArray);
+        final List<String> fileNames = files.stream()
+                .filter(FolderWatcher::isShared)
+                .map(File::getName)
+                .collect(Collectors.toList());
+        final FileSetDigest digest = FileSetDigest.of(fileNames);
+        final int[] mismatches = napster.rejoin(ip, port, digest.toArray());
+        final List<String> changed = FileSetDigest.inBuckets(fileNames, mismatches);
+
+        if (mismatches.length > 0) {
+            final String result = napster.sync(ip, port, mismatches, changed);
+
+            check(result.equals(JoinResponse.OK.getCode()), "Falha do serviço remoto para inicializar o peer");
+            log.d("Sent %d of %d files to server", changed.size(), fileNames.size());
+        } else {
+            log.d("Server index already matches the peer's files");
+        }
+
+        publishHashes(fileNames, changed);
+
+        return fileNames;
+    }
+
+    /**
+     * Hashes the folder in the background and sends the hashes the server may be missing:
+     * those of files it just learned about and those whose content changed since the last
+     * scan, which the name digest cannot tell.
+     */
+    private void publishHashes(List<String> fileNames, List<String> changed) {
+        executor.execute(() -> {
+            try {
+                final Set<String> unknown = new HashSet<>(changed);
+
+                unknown.addAll(hasher.stale(fileNames));
+
+                final Map<String, FileHash> hashes = hasher.hashAll(fileNames);
+
+                for (String filename : unknown) {
+                    final FileHash hash = hashes.get(filename);
+
+                    if (hash != null) updateBatcher.hash(filename, hash.getRoot());
+                }
+
+                log.d("Publishing %d of %d file hashes", unknown.size(), fileNames.size());
+            } catch (IOException e) {
+                log.e("Failed to hash shared files", e);
+            }
+        }, "FileHasher");
+    }
+
     private void update() {
         final String filename = readInput("Enter the filename to be updated on server: ");
 
@@ -189,16 +327,9 @@ public class PeerImpl implements Peer {
 
             check(file.exists(), String.format("Arquivo %s não existe", filename));
 
-            final String result = napster.update(ip, port, filename);
-
-            if(result.equals(UpdateResponse.OK.getCode())) {
-                log.d(String.format("Updated server to serve file %s", filename));
-            } else {
-                throw new RuntimeException(String.format("Failed to update file %s on server", filename));
-            }
-        } catch (RemoteException e) {
-            log.e("Failed to run operation on remote service", e);
-            System.out.println("Falha na execução da operação no serviço remoto");
+            updateBatcher.add(filename);
+            log.d("Queued file %s to be updated on server", filename);
+            publishHash(filename);
         } catch (RuntimeException e) {
             log.e("Failed to run operation", e);
             System.out.printf("Falha ao executar operação: %s\n", e.getMessage());
@@ -207,12 +338,51 @@ public class PeerImpl implements Peer {
         }
     }
 
+    private void publishHash(String filename) {
+        executor.execute(() -> {
+            try {
+                final FileHash hash = hasher.hash(filename);
+
+                if (hash != null) updateBatcher.hash(filename, hash.getRoot());
+            } catch (IOException e) {
+                log.e(String.format("Failed to hash file %s", filename), e);
+            }
+        }, "FileHasher");
+    }
+
+    private FolderWatcher.Listener folderListener() {
+        return new FolderWatcher.Listener() {
+            @Override
+            public void added(String filename) {
+                updateBatcher.add(filename);
+                publishHash(filename);
+            }
+
+            @Override
+            public void modified(String filename) {
+                publishHash(filename);
+            }
+
+            @Override
+            public void removed(String filename) {
+                updateBatcher.remove(filename);
+            }
+        };
+    }
+
     @Override
     public void search() {
         try {
             check(isJoined(), "Peer deve ser inicializado (função 1)!");
 
             final String filename = readInput("Enter the filename to search: ");
+            final SearchMode mode = SearchMode.from(readInput("Search mode (exact, prefix, substring, glob) [exact]: "));
+            final boolean ignoreCase = "y".equalsIgnoreCase(readInput("Ignore case? (y/N): "));
+
+            if (mode != SearchMode.EXACT || ignoreCase) {
+                searchPages(new SearchQuery(filename, mode, ignoreCase, null, SEARCH_PAGE_SIZE));
+                return;
+            }
 
             final List<String> result = napster.search(ip, port, filename);
 
@@ -238,30 +408,103 @@ public class PeerImpl implements Peer {
         }
     }
 
+    private void searchCopies() {
+        try {
+            check(isJoined(), "Peer deve ser inicializado (função 1)!");
+
+            final String filename = readInput("Enter the local filename to look for identical copies: ");
+            final FileHash hash = hasher.hash(filename);
+
+            check(hash != null, String.format("Arquivo %s não existe", filename));
+
+            final String self = ip + ":" + port;
+            final List<SearchHit> hits = napster.searchByHash(ip, port, hash.getRoot());
+            boolean found = false;
+
+            System.out.printf("\nConteúdo %s\n", hash.getRoot());
+
+            for (SearchHit hit : hits) {
+                final List<String> peers = hit.getPeers().stream().filter(peer -> !peer.equals(self)).collect(Collectors.toList());
+
+                if (peers.isEmpty()) continue;
+
+                found = true;
+                System.out.printf("%s: %s\n", hit.getFilename(), String.join(", ", peers));
+            }
+
+            if (!found)
+                System.out.println("Nenhum outro peer possui este conteúdo");
+
+            System.out.println();
+        } catch (RemoteException e) {
+            log.e("Failed to run operation on remote service", e);
+            System.out.println("Falha na execução da operação no serviço remoto");
+        } catch (IOException e) {
+            log.e("Failed to hash file", e);
+            System.out.println("Falha ao calcular o hash do arquivo");
+        } catch (RuntimeException e) {
+            log.e("Failed to run operation", e);
+            System.out.printf("Falha ao executar operação: %s\n", e.getMessage());
+        }
+    }
+
+    private void searchPages(SearchQuery query) throws RemoteException {
+        SearchPage page = napster.search(ip, port, query);
+
+        if (page.getHits().isEmpty() && !page.hasNext()) {
+            System.out.printf("\nNenhum arquivo encontrado para %s\n", query.getPattern());
+            return;
+        }
+
+        while (true) {
+            for (SearchHit hit : page.getHits()) {
+                System.out.printf("%s: %s\n", hit.getFilename(), String.join(", ", hit.getPeers()));
+            }
+
+            if (!page.hasNext() || !"y".equalsIgnoreCase(readInput("\nShow more results? (y/N): "))) break;
+
+            query = query.next(page);
+            page = napster.search(ip, port, query);
+        }
+
+        System.out.println();
+    }
+
     @Override
     public void download() {
         try {
             check(isJoined(), "Peer deve ser inicializado (função 1)!");
 
-            final String ip = readInput("Enter peer IP: ");
+            final String ip = readInput("Enter peer IP (empty to download from every peer with the file, \"auto\" to pick the best one): ");
+
+            if (ip == null || ip.isEmpty()) {
+                downloadFromAll(readInput("Enter the filename: "));
+                return;
+            }
+
+            if (ip.equalsIgnoreCase(AUTO_SOURCE)) {
+                downloadFromBest(readInput("Enter the filename: "));
+                return;
+            }
+
             final int port = Integer.parseInt(readInput("Enter peer port: "));
-            final String filename = readInput("Enter the filename: ");
-            final DownloadThread.Callback callback = new DownloadThread.Callback() {
-                @Override
-                public void onSuccess(String filename) {
-                    update(filename);
-                }
+            final String filename = readInput("Enter the filename (comma-separated to download several): ");
 
-                @Override
-                public void onError(Exception e) {
-                    throw new RuntimeException(e);
-                }
-            };
+            if (filename.contains(",")) {
+                final List<String> filenames = Arrays.stream(filename.split(","))
+                        .map(String::trim)
+                        .filter(name -> !name.isEmpty())
+                        .collect(Collectors.toList());
+                final BatchDownload download = new BatchDownload(ip + ":" + port, folder, filenames, connectionPool, downloadCallback(), downloadLimit, reports);
 
-            final Socket socket = new Socket(ip, port);
-            final DownloadThread thread = new DownloadThread(socket, folder, filename, callback);
+                executor.execute(download, download.getName());
+                return;
+            }
 
-            thread.start();
+            final Socket socket = SocketChannel.open(new InetSocketAddress(ip, port)).socket();
+            final DownloadThread download = new DownloadThread(socket, ip + ":" + port, folder, filename, downloadCallback(), DownloadThread.ADAPTIVE, downloadLimit, reports, syncPolicy, compression);
+
+            executor.execute(download, download.getName());
         } catch(IOException e) {
             log.e("server.Server failed!", e);
         } catch (RuntimeException e) {
@@ -270,6 +513,82 @@ public class PeerImpl implements Peer {
         }
     }
 
+    private void downloadFromAll(String filename) {
+        try {
+            final List<String> sources = sources(filename);
+            final MultiSourceDownload download = new MultiSourceDownload(sources, folder, filename, executor, connectionPool, downloadCallback(), downloadLimit, reports);
+
+            executor.execute(download, download.getName());
+        } catch (RemoteException e) {
+            log.e("Failed to run operation on remote service", e);
+            System.out.println("Falha na execução da operação no serviço remoto");
+        }
+    }
+
+    /**
+     * Downloads from the first peer in the index's ranking that accepts a connection.
+     */
+    private void downloadFromBest(String filename) {
+        try {
+            for (String source : sources(filename)) {
+                final int separator = source.lastIndexOf(':');
+                final Socket socket = SocketChannel.open().socket();
+
+                try {
+                    socket.connect(new InetSocketAddress(source.substring(0, separator), Integer.parseInt(source.substring(separator + 1))), SOURCE_TIMEOUT);
+                } catch (IOException e) {
+                    log.w(String.format("Peer %s is unreachable, trying the next one", source));
+                    reports.record(source, 0, 0, -1, false);
+                    socket.close();
+                    continue;
+                }
+
+                System.out.printf("Baixando %s de %s\n", filename, source);
+
+                final DownloadThread download = new DownloadThread(socket, source, folder, filename, downloadCallback(), DownloadThread.ADAPTIVE, downloadLimit, reports, syncPolicy, compression);
+
+                executor.execute(download, download.getName());
+                return;
+            }
+
+            System.out.printf("Nenhum peer com o arquivo %s está acessível\n", filename);
+        } catch (RemoteException e) {
+            log.e("Failed to run operation on remote service", e);
+            System.out.println("Falha na execução da operação no serviço remoto");
+        } catch (IOException e) {
+            log.e("Failed to connect to peer", e);
+        }
+    }
+
+    /**
+     * Peers other than this one that have the file, best first.
+     */
+    private List<String> sources(String filename) throws RemoteException {
+        final String self = ip + ":" + port;
+        final List<String> sources = napster.search(ip, port, filename)
+                .stream()
+                .filter(source -> !source.equals(self))
+                .collect(Collectors.toList());
+
+        check(!sources.isEmpty(), String.format("Nenhum peer possui o arquivo %s", filename));
+
+        return sources;
+    }
+
+    private DownloadThread.Callback downloadCallback() {
+        return new DownloadThread.Callback() {
+            @Override
+            public void onSuccess(String filename) {
+                update(filename);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
     @Override
     public Thread onShutdown() {
         return new Thread(() -> {
@@ -282,6 +601,24 @@ public class PeerImpl implements Peer {
         });
     }
 
+    private void rejoin() {
+        try {
+            announce();
+        } catch (RemoteException e) {
+            log.e("Failed to run operation on remote service", e);
+        } catch (RuntimeException e) {
+            log.e("Failed to join again after lease expiration", e);
+        }
+    }
+
+    private PeerServer createServer(ServerSocketChannel serverChannel) throws IOException {
+        switch (serverMode) {
+            case BLOCKING: return new ServerThread(serverChannel.socket(), folder, executor, uploadScheduler);
+            case NIO:
+            default: return new NioServerThread(serverChannel, folder, EVENT_LOOP_COUNT, uploadScheduler);
+        }
+    }
+
     private boolean isJoined() {
         return ip != null && !ip.isEmpty() && port != null && folder != null;
     }
@@ -0,0 +1,126 @@
+package peer.bandwidth;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static peer.config.Config.BANDWIDTH_QUANTUM;
+
+/**
+ * Rate limit in bytes per second, allowing bursts of up to a tenth of a second of traffic.
+ *
+ * <p>{@link #take(long)} never blocks and suits the event loops. {@link #acquire(long)}
+ * waits behind the other blocked threads in arrival order, so threads asking for the same
+ * amount share the rate evenly. A rate of 0 or less means unlimited, and then every call
+ * returns at once with the whole amount.
+ */
+public class TokenBucket {
+    public static final TokenBucket UNLIMITED = new TokenBucket(0);
+    private final long rate;
+    private final long burst;
+    private final ReentrantLock turn = new ReentrantLock(true);
+    private long tokens;
+    private long refilledAt = System.nanoTime();
+
+    public TokenBucket(long rate) {
+        this.rate = rate;
+        this.burst = Math.max(BANDWIDTH_QUANTUM, rate / 10);
+        this.tokens = burst;
+    }
+
+    public boolean isUnlimited() {
+        return rate <= 0;
+    }
+
+    /**
+     * Takes up to {@code wanted} bytes available now, possibly none.
+     */
+    public long take(long wanted) {
+        if (rate <= 0) return wanted;
+
+        synchronized (this) {
+            refill();
+
+            final long granted = Math.min(wanted, tokens);
+
+            tokens -= granted;
+
+            return granted;
+        }
+    }
+
+    /**
+     * Waits until some bytes are available and takes up to {@code wanted} of them, never
+     * more than one burst. Only asking for nothing returns nothing.
+     */
+    public long acquire(long wanted) throws InterruptedIOException {
+        if (rate <= 0 || wanted <= 0) return wanted;
+
+        try {
+            turn.lockInterruptibly();
+
+            try {
+                while (true) {
+                    final long delay = delayNanos(wanted);
+
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                        continue;
+                    }
+
+                    final long granted = take(wanted);
+
+                    if (granted > 0) return granted;
+                }
+            } finally {
+                turn.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+        }
+    }
+
+    /**
+     * Returns bytes that were taken but not sent.
+     */
+    public void refund(long bytes) {
+        if (rate <= 0 || bytes <= 0) return;
+
+        synchronized (this) {
+            tokens = Math.min(burst, tokens + bytes);
+        }
+    }
+
+    /**
+     * Nanoseconds until {@code wanted} bytes, or a full burst if that is less, can be taken.
+     */
+    public long delayNanos(long wanted) {
+        if (rate <= 0) return 0;
+
+        synchronized (this) {
+            refill();
+
+            final long missing = Math.min(wanted, burst) - tokens;
+
+            return missing <= 0 ? 0 : (long) Math.ceil(missing * (double) TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        final long added = (long) ((now - refilledAt) * (rate / (double) TimeUnit.SECONDS.toNanos(1)));
+
+        if (added <= 0) return;
+
+        if (tokens + added >= burst) {
+            tokens = burst;
+            refilledAt = now;
+        } else {
+            tokens += added;
+            // Keep the fraction of a byte not added yet for the next refill
+            refilledAt += (long) (added * (double) TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+    }
+}
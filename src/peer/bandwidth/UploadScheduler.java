@@ -0,0 +1,241 @@
+package peer.bandwidth;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import peer.config.BandwidthLimits;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static peer.config.Config.BANDWIDTH_QUANTUM;
+
+/**
+ * Decides when and how fast each upload may send.
+ *
+ * <p>Every file sent holds a {@link Slot}. Once all slots are taken, requests wait in a
+ * bounded queue in arrival order, and requests beyond it are rejected so the requester can
+ * retry later. Bytes are then drawn from the remote host's own bucket and from the bucket
+ * of the whole peer, a quantum at a time. Blocked uploads take turns on the shared bucket,
+ * so with one quantum each they split the rate evenly; a host with weight {@code n} draws
+ * {@code n} quanta per turn.
+ */
+public class UploadScheduler {
+    public static final UploadScheduler UNLIMITED = new UploadScheduler(BandwidthLimits.unlimited());
+    private static final Counter rejected = MetricsRegistry.global().counter("peer_uploads_rejected");
+    private final TokenBucket bucket;
+    private final long peerRate;
+    private final int slots;
+    private final int queueLimit;
+    private final Map<String, Integer> weights;
+    private final Map<String, Share> shares = new HashMap<>();
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private int active;
+
+    private static class Share {
+        private final TokenBucket bucket;
+        private int slots;
+
+        Share(long rate) {
+            this.bucket = rate > 0 ? new TokenBucket(rate) : TokenBucket.UNLIMITED;
+        }
+    }
+
+    private static class Waiter {
+        private final String host;
+        private final CompletableFuture<Slot> slot = new CompletableFuture<>();
+
+        Waiter(String host) {
+            this.host = host;
+        }
+    }
+
+    public class Slot implements AutoCloseable {
+        private final String host;
+        private final Share share;
+        private final long quantum;
+        private boolean closed = false;
+
+        private Slot(String host, Share share, int weight) {
+            this.host = host;
+            this.share = share;
+            this.quantum = (long) BANDWIDTH_QUANTUM * weight;
+        }
+
+        /**
+         * Waits for bandwidth and returns how many of the {@code wanted} bytes may be sent
+         * now, at least one unless nothing was wanted.
+         */
+        public long acquire(long wanted) throws InterruptedIOException {
+            if (isUnlimited()) return wanted;
+
+            final long granted = share.bucket.acquire(Math.min(wanted, quantum));
+            final long allowed = bucket.acquire(granted);
+
+            share.bucket.refund(granted - allowed);
+
+            return allowed;
+        }
+
+        /**
+         * Returns how many of the {@code wanted} bytes may be sent now without waiting,
+         * possibly none; see {@link #delayNanos(long)}.
+         */
+        public long take(long wanted) {
+            if (isUnlimited()) return wanted;
+
+            final long granted = share.bucket.take(Math.min(wanted, quantum));
+            final long allowed = bucket.take(granted);
+
+            share.bucket.refund(granted - allowed);
+
+            return allowed;
+        }
+
+        /**
+         * Returns bytes that were granted but not sent.
+         */
+        public void refund(long bytes) {
+            share.bucket.refund(bytes);
+            bucket.refund(bytes);
+        }
+
+        /**
+         * Nanoseconds until {@link #take(long)} can grant a useful amount again.
+         */
+        public long delayNanos(long wanted) {
+            final long amount = Math.min(wanted, quantum);
+
+            return Math.max(share.bucket.delayNanos(amount), bucket.delayNanos(amount));
+        }
+
+        private boolean isUnlimited() {
+            return bucket.isUnlimited() && share.bucket.isUnlimited();
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    public UploadScheduler(BandwidthLimits limits) {
+        this.bucket = limits.getUploadRate() > 0 ? new TokenBucket(limits.getUploadRate()) : TokenBucket.UNLIMITED;
+        this.peerRate = limits.getPeerUploadRate();
+        this.slots = limits.getUploadSlots();
+        this.queueLimit = limits.getUploadQueue();
+        this.weights = limits.getUploadWeights();
+    }
+
+    /**
+     * Asks for a slot to send a file to {@code host}. The future is already complete when
+     * a slot is free, and completes later when the request had to wait in the queue.
+     *
+     * @return the pending slot, or {@code null} when the queue is full
+     */
+    public synchronized CompletableFuture<Slot> request(String host) {
+        if (queue.isEmpty() && (slots <= 0 || active < slots))
+            return CompletableFuture.completedFuture(open(host));
+
+        if (queue.size() >= queueLimit) {
+            rejected.increment();
+
+            return null;
+        }
+
+        final Waiter waiter = new Waiter(host);
+
+        queue.add(waiter);
+
+        return waiter.slot;
+    }
+
+    /**
+     * Waits up to {@code timeout} milliseconds for a slot to send a file to {@code host}.
+     *
+     * @return the slot, or {@code null} when the queue is full or the wait timed out
+     */
+    public Slot acquire(String host, long timeout) throws InterruptedIOException {
+        final CompletableFuture<Slot> slot = request(host);
+
+        if (slot == null) return null;
+
+        try {
+            return slot.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return withdraw(slot);
+        } catch (InterruptedException e) {
+            final Slot granted = withdraw(slot);
+
+            if (granted != null) granted.close();
+
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for an upload slot");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Leaves the queue. A slot granted in the meantime is returned and must be closed.
+     *
+     * @return the slot if it was already granted, otherwise {@code null}
+     */
+    public Slot withdraw(CompletableFuture<Slot> slot) {
+        synchronized (this) {
+            if (!slot.isDone()) {
+                queue.removeIf(waiter -> waiter.slot == slot);
+                slot.cancel(false);
+                rejected.increment();
+
+                return null;
+            }
+        }
+
+        return slot.join();
+    }
+
+    /**
+     * Slots free for new uploads, negative by the number of waiting requests once all are
+     * taken, or {@link Integer#MAX_VALUE} when slots are not limited.
+     */
+    public synchronized int freeSlots() {
+        return slots <= 0 ? Integer.MAX_VALUE : slots - active - queue.size();
+    }
+
+    private Slot open(String host) {
+        final Share share = shares.computeIfAbsent(host, key -> new Share(peerRate));
+
+        share.slots++;
+        active++;
+
+        return new Slot(host, share, Math.max(1, weights.getOrDefault(host, 1)));
+    }
+
+    /**
+     * Frees the slot and hands it to the next request in the queue. Waiters are completed
+     * under the lock so a concurrent {@link #withdraw} either removes them first or sees
+     * the grant, which means their callbacks must not block.
+     */
+    private synchronized void release(Slot slot) {
+        if (slot.closed) return;
+
+        slot.closed = true;
+        active--;
+
+        if (--slot.share.slots == 0) shares.remove(slot.host);
+
+        while (!queue.isEmpty() && (slots <= 0 || active < slots)) {
+            final Waiter waiter = queue.poll();
+
+            waiter.slot.complete(open(waiter.host));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package peer.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Transfer buffer taken from a {@link BufferPool} that starts small and doubles, up to a
+ * maximum, whenever a read fills it: a full read means more bytes were already waiting
+ * in the socket, so fewer larger reads can keep up with the link. Small transfers never
+ * grow past their first buffer. Not safe for concurrent use.
+ */
+public class AdaptiveBuffer implements AutoCloseable {
+    private final BufferPool pool;
+    private final int max;
+    private ByteBuffer buffer;
+    private int size;
+
+    /**
+     * @param initial size of the first buffer; equal to {@code max} for a fixed size
+     */
+    public AdaptiveBuffer(BufferPool pool, int initial, int max) {
+        this.pool = pool;
+        this.max = Math.max(initial, max);
+        this.size = initial;
+        this.buffer = pool.acquire(initial);
+    }
+
+    /**
+     * Returns the current buffer, cleared and limited to the current size.
+     */
+    public ByteBuffer get() {
+        buffer.clear().limit(size);
+
+        return buffer;
+    }
+
+    /**
+     * Most bytes one read should take.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Records a read of {@code count} bytes into the current buffer, growing it when the
+     * read filled it. The buffer returned by {@link #get()} may change afterwards.
+     */
+    public void filled(int count) {
+        if (count < size || size >= max) return;
+
+        size = (int) Math.min(max, 2L * size);
+
+        if (size > buffer.capacity()) {
+            pool.release(buffer);
+            buffer = pool.acquire(size);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.release(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,110 @@
+package peer.buffer;
+
+import metrics.MetricsRegistry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static peer.config.Config.BUFFER_POOL_LIMIT;
+import static peer.config.Config.BUFFER_SIZE;
+import static peer.config.Config.TRANSFER_BUFFER_MAX;
+
+/**
+ * Transfer buffers kept for reuse, so thousands of short transfers do not each allocate
+ * and drop their own. Buffers come in power of two sizes from {@code BUFFER_SIZE} to
+ * {@code TRANSFER_BUFFER_MAX}; larger ones are allocated and dropped as before. Released
+ * buffers are kept while the pool holds less than {@code BUFFER_POOL_LIMIT} bytes, the
+ * most recently released handed out first.
+ *
+ * <p>The {@link #direct()} pool serves channel reads, which the JDK would otherwise copy
+ * through a temporary direct buffer; the {@link #heap()} pool serves stream copies, which
+ * need the backing array.
+ */
+public class BufferPool {
+    private static final String RETAINED = "peer_buffer_pool_bytes";
+    private static final int SMALLEST = Integer.numberOfTrailingZeros(Integer.highestOneBit(BUFFER_SIZE));
+    private final boolean direct;
+    private final long limit;
+    private final List<Deque<ByteBuffer>> classes;
+    private final AtomicLong retained = new AtomicLong();
+
+    private static class Holder {
+        private static final BufferPool DIRECT = new BufferPool(true, BUFFER_POOL_LIMIT);
+        private static final BufferPool HEAP = new BufferPool(false, BUFFER_POOL_LIMIT);
+
+        static {
+            MetricsRegistry.global().gauge(MetricsRegistry.name(RETAINED, "kind", "direct"), DIRECT::retained);
+            MetricsRegistry.global().gauge(MetricsRegistry.name(RETAINED, "kind", "heap"), HEAP::retained);
+        }
+    }
+
+    public static BufferPool direct() {
+        return Holder.DIRECT;
+    }
+
+    public static BufferPool heap() {
+        return Holder.HEAP;
+    }
+
+    public BufferPool(boolean direct, long limit) {
+        this.direct = direct;
+        this.limit = limit;
+        this.classes = new ArrayList<>();
+
+        for (int i = 0; i <= classOf(TRANSFER_BUFFER_MAX); i++) {
+            classes.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    /**
+     * Returns a cleared buffer of at least {@code size} bytes.
+     */
+    public ByteBuffer acquire(int size) {
+        final int index = classOf(size);
+
+        if (index >= classes.size()) return allocate(size);
+
+        final ByteBuffer buffer = classes.get(index).pollFirst();
+
+        if (buffer == null) return allocate(1 << (index + SMALLEST));
+
+        retained.addAndGet(-buffer.capacity());
+        buffer.clear();
+
+        return buffer;
+    }
+
+    /**
+     * Hands {@code buffer} back for reuse. It must not be touched afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() != direct || Integer.bitCount(buffer.capacity()) != 1) return;
+
+        final int index = classOf(buffer.capacity());
+
+        if (index >= classes.size() || retained.addAndGet(buffer.capacity()) > limit) {
+            retained.addAndGet(-buffer.capacity());
+            return;
+        }
+
+        classes.get(index).addFirst(buffer);
+    }
+
+    public long retained() {
+        return retained.get();
+    }
+
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static int classOf(int size) {
+        if (size <= 1 << SMALLEST) return 0;
+
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - SMALLEST;
+    }
+}
@@ -0,0 +1,82 @@
+package peer.buffer;
+
+import log.ConsoleLog;
+import log.Log;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+import static peer.config.Config.SOCKET_BUFFER_MAX;
+import static peer.config.Config.SOCKET_TUNE_INTERVAL;
+
+/**
+ * Grows the receive buffer of one download connection to the link's bandwidth-delay
+ * product, since the buffer bounds how many bytes the sender may have in flight and so
+ * caps the rate at {@code buffer / rtt} however fast the link is.
+ *
+ * <p>The round trip is taken from the time to the response header. At every interval of
+ * a few round trips the observed rate times the round trip is compared with the buffer:
+ * at half of it or more the window is the bottleneck and the buffer is doubled, up to
+ * {@code SOCKET_BUFFER_MAX}. Setting a size stops the kernel from sizing the buffer on
+ * its own, so nothing is set while the rate stays clear of the buffer, and tuning stops
+ * for good once the rate is above the buffer, which only the kernel's own sizing allows,
+ * or once the kernel caps a requested size.
+ */
+public class LinkTuner {
+    private static final Log log = new ConsoleLog("LinkTuner");
+    private final Socket socket;
+    private final long rttNanos;
+    private final long intervalNanos;
+    private long windowStart = System.nanoTime();
+    private long windowBytes = 0;
+    private boolean enabled = true;
+
+    public LinkTuner(Socket socket, long rttNanos) {
+        this.socket = socket;
+        this.rttNanos = Math.max(1, rttNanos);
+        this.intervalNanos = Math.max(SOCKET_TUNE_INTERVAL * 1_000_000L, 4 * rttNanos);
+    }
+
+    public void received(int count) {
+        if (!enabled) return;
+
+        windowBytes += count;
+
+        final long now = System.nanoTime();
+        final long elapsed = now - windowStart;
+
+        if (elapsed < intervalNanos) return;
+
+        final long product = (long) ((double) windowBytes * rttNanos / elapsed);
+
+        windowStart = now;
+        windowBytes = 0;
+
+        try {
+            tune(product);
+        } catch (SocketException e) {
+            enabled = false;
+        }
+    }
+
+    private void tune(long product) throws SocketException {
+        final int current = socket.getReceiveBufferSize();
+
+        if (product > current || current >= SOCKET_BUFFER_MAX) {
+            enabled = false;
+            return;
+        }
+
+        if (2 * product < current) return;
+
+        final int wanted = (int) Math.min(SOCKET_BUFFER_MAX, 2L * current);
+
+        socket.setReceiveBufferSize(wanted);
+
+        final int granted = socket.getReceiveBufferSize();
+
+        log.d("Receive buffer of %s grown from %d to %d bytes (%d in flight)", socket.getRemoteSocketAddress(), current, granted, product);
+
+        if (granted < wanted) enabled = false;
+    }
+}
@@ -0,0 +1,77 @@
+package peer.compress;
+
+import peer.protocol.Encoding;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static peer.config.Config.COMPRESSION_ENTROPY_LIMIT;
+import static peer.config.Config.COMPRESSION_SAMPLE;
+
+/**
+ * Decides whether a file is worth compressing before it is sent. Files with the
+ * extension of a compressed format are sent as they are; for the others the first
+ * {@code COMPRESSION_SAMPLE} bytes to send are sampled, and a byte entropy above
+ * {@code COMPRESSION_ENTROPY_LIMIT} bits means DEFLATE would not shrink them.
+ */
+public class Compressibility {
+    private static final Set<String> COMPRESSED = new HashSet<>(Arrays.asList(
+            "7z", "apk", "avi", "br", "bz2", "docx", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg",
+            "lz4", "lzma", "m4a", "mkv", "mov", "mp3", "mp4", "odt", "ogg", "opus", "png", "pptx", "rar",
+            "tgz", "webm", "webp", "xlsx", "xz", "zip", "zst"
+    ));
+
+    /**
+     * Picks the encoding to send bytes {@code start} to {@code end} of {@code file} in,
+     * for a downloader accepting {@code accept}.
+     */
+    public static Encoding choose(Encoding accept, File file, FileChannel channel, long start, long end) throws IOException {
+        if (accept != Encoding.DEFLATE || end <= start) return Encoding.NONE;
+
+        return isWorthCompressing(file, channel, start, end) ? Encoding.DEFLATE : Encoding.NONE;
+    }
+
+    public static boolean isWorthCompressing(File file, FileChannel channel, long start, long end) throws IOException {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+
+        if (dot >= 0 && COMPRESSED.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) return false;
+
+        final ByteBuffer sample = ByteBuffer.allocate((int) Math.min(COMPRESSION_SAMPLE, end - start));
+
+        while (sample.hasRemaining()) {
+            if (channel.read(sample, start + sample.position()) < 0) break;
+        }
+
+        return sample.position() > 0 && entropy(sample.array(), sample.position()) <= COMPRESSION_ENTROPY_LIMIT;
+    }
+
+    /**
+     * Shannon entropy of the byte values in {@code data}, in bits per byte.
+     */
+    static double entropy(byte[] data, int length) {
+        final int[] counts = new int[256];
+
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+
+        for (int count : counts) {
+            if (count == 0) continue;
+
+            final double p = (double) count / length;
+
+            entropy -= p * Math.log(p);
+        }
+
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,140 @@
+package peer.compress;
+
+import peer.buffer.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static peer.config.Config.COMPRESSION_FRAME;
+
+/**
+ * Reads the file bytes of a body sent by a {@link FrameEncoder}, so a download can read
+ * them as it would read a raw body. Reports the end of the input at the end frame. Not
+ * safe for concurrent use.
+ */
+public class FrameDecoder implements ReadableByteChannel {
+    private final ReadableByteChannel input;
+    private final Inflater inflater = new Inflater();
+    private final ByteBuffer header = ByteBuffer.allocate(FrameEncoder.HEADER);
+    private ByteBuffer encoded = BufferPool.heap().acquire(COMPRESSION_FRAME);
+    private ByteBuffer decoded = BufferPool.heap().acquire(COMPRESSION_FRAME);
+    private long received = 0;
+    private boolean ended = false;
+
+    public FrameDecoder(ReadableByteChannel input) {
+        this.input = input;
+        this.decoded.limit(0);
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        if (!decoded.hasRemaining() && !nextFrame()) return -1;
+
+        final int count = Math.min(destination.remaining(), decoded.remaining());
+
+        destination.put(decoded.array(), decoded.position(), count);
+        decoded.position(decoded.position() + count);
+
+        return count;
+    }
+
+    /**
+     * Returns the bytes read off the wire since the last call.
+     */
+    public long takeReceived() {
+        final long taken = received;
+
+        received = 0;
+
+        return taken;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return encoded != null;
+    }
+
+    /**
+     * Releases the buffers; the underlying channel is left open.
+     */
+    @Override
+    public void close() {
+        if (encoded == null) return;
+
+        inflater.end();
+        BufferPool.heap().release(encoded);
+        BufferPool.heap().release(decoded);
+        encoded = decoded = null;
+    }
+
+    private boolean nextFrame() throws IOException {
+        if (ended) return false;
+
+        header.clear();
+        readFully(header);
+
+        final int rawLength = header.getInt(0);
+        final int encodedLength = header.getInt(Integer.BYTES);
+
+        if (rawLength == 0) {
+            ended = true;
+            return false;
+        }
+
+        if (rawLength < 0 || rawLength > COMPRESSION_FRAME || encodedLength <= 0 || encodedLength > rawLength)
+            throw new IOException(String.format("Malformed frame of %d bytes encoded as %d", rawLength, encodedLength));
+
+        decoded.clear().limit(rawLength);
+
+        if (encodedLength == rawLength) {
+            readFully(decoded);
+            decoded.flip();
+
+            return true;
+        }
+
+        encoded.clear().limit(encodedLength);
+        readFully(encoded);
+        inflate(encodedLength, rawLength);
+
+        return true;
+    }
+
+    private void inflate(int encodedLength, int rawLength) throws IOException {
+        int inflated = 0;
+
+        inflater.reset();
+        inflater.setInput(encoded.array(), 0, encodedLength);
+
+        try {
+            while (!inflater.finished() && inflated < rawLength) {
+                final int count = inflater.inflate(decoded.array(), inflated, rawLength - inflated);
+
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame", e);
+        }
+
+        if (!inflater.finished() || inflated != rawLength)
+            throw new IOException(String.format("Compressed frame inflated to %d of %d bytes", inflated, rawLength));
+
+        decoded.position(0).limit(rawLength);
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int count = input.read(buffer);
+
+            if (count < 0) throw new EOFException("Peer closed connection in the middle of a frame");
+
+            received += count;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package peer.compress;
+
+import peer.buffer.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+import static peer.config.Config.COMPRESSION_FRAME;
+
+/**
+ * Encodes a range of a file as a sequence of frames, each holding up to
+ * {@code COMPRESSION_FRAME} bytes of the file:
+ *
+ * <pre>
+ *   int rawLength, int encodedLength, encodedLength bytes
+ * </pre>
+ *
+ * <p>A frame is DEFLATE compressed, in the zlib format so every frame carries its own
+ * checksum, unless that would not make it smaller, in which case it is stored as is with
+ * both lengths equal. A frame with a raw length of 0 ends the body. Frames are encoded
+ * independently, so one incompressible stretch of a file costs nothing beyond its
+ * headers, and the writer may send each one at its own pace. Not safe for concurrent use.
+ */
+public class FrameEncoder implements AutoCloseable {
+    public static final int HEADER = Integer.BYTES + Integer.BYTES;
+    private final FileChannel file;
+    private final long end;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteBuffer raw = BufferPool.heap().acquire(COMPRESSION_FRAME);
+    private final ByteBuffer frame = BufferPool.heap().acquire(HEADER + COMPRESSION_FRAME);
+    private long position;
+    private boolean ended = false;
+
+    public FrameEncoder(FileChannel file, long start, long end) {
+        this.file = file;
+        this.position = start;
+        this.end = end;
+        this.frame.limit(0);
+    }
+
+    /**
+     * Returns what is left to write of the current frame, encoding the next one once the
+     * current one was written. Empty once the end frame was written.
+     */
+    public ByteBuffer pending() throws IOException {
+        if (frame.hasRemaining() || ended) return frame;
+
+        frame.clear();
+
+        if (position >= end) {
+            frame.putInt(0).putInt(0).flip();
+            ended = true;
+
+            return frame;
+        }
+
+        final int length = (int) Math.min(COMPRESSION_FRAME, end - position);
+
+        raw.clear().limit(length);
+
+        while (raw.hasRemaining()) {
+            if (file.read(raw, position + raw.position()) < 0)
+                throw new EOFException("File shrank while uploading");
+        }
+
+        final int encoded = deflate(length);
+
+        if (encoded < length) {
+            frame.putInt(0, length).putInt(Integer.BYTES, encoded).limit(HEADER + encoded);
+        } else {
+            frame.putInt(length).putInt(length).put(raw.array(), 0, length).flip();
+        }
+
+        position += length;
+
+        return frame;
+    }
+
+    /**
+     * File bytes encoded so far, including those of the frame still being written.
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Whether the end frame was written.
+     */
+    public boolean isDone() {
+        return ended && !frame.hasRemaining();
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+        BufferPool.heap().release(raw);
+        BufferPool.heap().release(frame);
+    }
+
+    /**
+     * Deflates the raw bytes behind the frame header.
+     *
+     * @return the compressed length, or {@code length} if compressing does not pay
+     */
+    private int deflate(int length) {
+        final byte[] output = frame.array();
+        int written = 0;
+
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, length);
+        deflater.finish();
+
+        while (!deflater.finished() && written < length) {
+            written += deflater.deflate(output, HEADER + written, length - written);
+        }
+
+        return deflater.finished() ? written : length;
+    }
+}
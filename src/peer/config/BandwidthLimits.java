@@ -0,0 +1,133 @@
+package peer.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static peer.config.Config.UPLOAD_QUEUE;
+import static peer.config.Config.UPLOAD_SLOTS;
+
+/**
+ * Bandwidth options of a peer. Rates are in bytes per second and accept a {@code k},
+ * {@code m} or {@code g} suffix for binary multiples; 0 means unlimited.
+ */
+public class BandwidthLimits {
+    private static final String UPLOAD_RATE = "--upload-rate=";
+    private static final String PEER_UPLOAD_RATE = "--peer-upload-rate=";
+    private static final String UPLOAD_SLOTS_FLAG = "--upload-slots=";
+    private static final String UPLOAD_QUEUE_FLAG = "--upload-queue=";
+    private static final String UPLOAD_WEIGHTS = "--upload-weights=";
+    private static final String DOWNLOAD_RATE = "--download-rate=";
+    private long uploadRate = 0;
+    private long peerUploadRate = 0;
+    private int uploadSlots = UPLOAD_SLOTS;
+    private int uploadQueue = UPLOAD_QUEUE;
+    private Map<String, Integer> uploadWeights = Collections.emptyMap();
+    private long downloadRate = 0;
+
+    /**
+     * No rate limits and no limit on concurrent uploads.
+     */
+    public static BandwidthLimits unlimited() {
+        final BandwidthLimits limits = new BandwidthLimits();
+
+        limits.uploadSlots = 0;
+
+        return limits;
+    }
+
+    public static BandwidthLimits from(List<String> args) {
+        final BandwidthLimits limits = new BandwidthLimits();
+
+        for (String arg : args) {
+            if (arg.startsWith(UPLOAD_RATE)) {
+                limits.uploadRate = rate(value(arg));
+            } else if (arg.startsWith(PEER_UPLOAD_RATE)) {
+                limits.peerUploadRate = rate(value(arg));
+            } else if (arg.startsWith(UPLOAD_SLOTS_FLAG)) {
+                limits.uploadSlots = Integer.parseInt(value(arg));
+            } else if (arg.startsWith(UPLOAD_QUEUE_FLAG)) {
+                limits.uploadQueue = Integer.parseInt(value(arg));
+            } else if (arg.startsWith(UPLOAD_WEIGHTS)) {
+                limits.uploadWeights = weights(value(arg));
+            } else if (arg.startsWith(DOWNLOAD_RATE)) {
+                limits.downloadRate = rate(value(arg));
+            }
+        }
+
+        return limits;
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static long rate(String value) {
+        final String number = value.trim().toLowerCase();
+        final char unit = number.isEmpty() ? ' ' : number.charAt(number.length() - 1);
+
+        switch (unit) {
+            case 'k': return Long.parseLong(number.substring(0, number.length() - 1)) << 10;
+            case 'm': return Long.parseLong(number.substring(0, number.length() - 1)) << 20;
+            case 'g': return Long.parseLong(number.substring(0, number.length() - 1)) << 30;
+            default: return Long.parseLong(number);
+        }
+    }
+
+    /**
+     * Parses {@code host:weight,...}, where the host is the address uploads come from.
+     */
+    private static Map<String, Integer> weights(String value) {
+        final Map<String, Integer> weights = new HashMap<>();
+
+        for (String entry : value.split(",")) {
+            final int separator = entry.lastIndexOf(':');
+
+            if (separator > 0)
+                weights.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+        }
+
+        return weights;
+    }
+
+    /**
+     * Upload rate of the whole peer.
+     */
+    public long getUploadRate() {
+        return uploadRate;
+    }
+
+    /**
+     * Upload rate towards each remote host.
+     */
+    public long getPeerUploadRate() {
+        return peerUploadRate;
+    }
+
+    /**
+     * Files sent at the same time, or 0 for no limit.
+     */
+    public int getUploadSlots() {
+        return uploadSlots;
+    }
+
+    /**
+     * Requests that may wait for a slot before new ones are told to retry later.
+     */
+    public int getUploadQueue() {
+        return uploadQueue;
+    }
+
+    /**
+     * Share of the upload rate given to each remote host relative to the others, 1 by
+     * default.
+     */
+    public Map<String, Integer> getUploadWeights() {
+        return uploadWeights;
+    }
+
+    public long getDownloadRate() {
+        return downloadRate;
+    }
+}
@@ -2,4 +2,39 @@ package peer.config;
 
 public class Config {
     public static final int BUFFER_SIZE = 4096;
+    public static final int TRANSFER_BUFFER_MIN = 16 * 1024;
+    public static final int TRANSFER_BUFFER_MAX = 1024 * 1024;
+    public static final long BUFFER_POOL_LIMIT = 64L * 1024 * 1024;
+    public static final int SOCKET_BUFFER_MAX = 16 * 1024 * 1024;
+    public static final long SOCKET_TUNE_INTERVAL = 100;
+    public static final int COMPRESSION_FRAME = 256 * 1024;
+    public static final int COMPRESSION_SAMPLE = 64 * 1024;
+    public static final double COMPRESSION_ENTROPY_LIMIT = 7.5;
+    public static final long MAP_THRESHOLD = 64L * 1024 * 1024;
+    public static final long MAP_WINDOW = 64L * 1024 * 1024;
+    public static final int REQUEST_LINE_LIMIT = 4096;
+    public static final int EVENT_LOOP_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    public static final int SOURCE_TIMEOUT = 10_000;
+    public static final int MAX_SOURCE_FAILURES = 3;
+    public static final long STATE_SAVE_INTERVAL = 8L * CHUNK_SIZE;
+    public static final long UPDATE_BATCH_WINDOW = 200;
+    public static final int UPDATE_BATCH_LIMIT = 10_000;
+    public static final long HEARTBEAT_INTERVAL = 10_000;
+    public static final int SEARCH_PAGE_SIZE = 20;
+    public static final long WATCH_POLL = 250;
+    public static final long WATCH_DEBOUNCE = 1_000;
+    public static final long RECONCILE_INTERVAL = 60_000;
+    public static final int CONNECTION_IDLE_TIMEOUT = 30_000;
+    public static final long IDLE_SWEEP_INTERVAL = 1_000;
+    public static final long POOL_IDLE_TIMEOUT = 20_000;
+    public static final int POOL_MAX_PER_PEER = 4;
+    public static final int PIPELINE_DEPTH = 32;
+    public static final int UPLOAD_SLOTS = 32;
+    public static final int UPLOAD_QUEUE = 64;
+    public static final long UPLOAD_QUEUE_TIMEOUT = 5_000;
+    public static final long UPLOAD_RETRY_AFTER = 2_000;
+    public static final int BANDWIDTH_QUANTUM = 16 * 1024;
+    public static final long REPORT_INTERVAL = 5_000;
+    public static final int HASH_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
 }
@@ -0,0 +1,19 @@
+package peer.config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class IndexAddresses {
+    private static final String FLAG = "--index=";
+    private static final String DEFAULT_ADDRESS = "localhost:1099";
+
+    public static List<String> from(List<String> args) {
+        for (String arg : args) {
+            if (arg.startsWith(FLAG))
+                return Arrays.asList(arg.substring(FLAG.length()).split(","));
+        }
+
+        return Collections.singletonList(DEFAULT_ADDRESS);
+    }
+}
@@ -0,0 +1,26 @@
+package peer.config;
+
+import java.util.List;
+
+public enum ServerMode {
+    NIO("--nio"),
+    BLOCKING("--blocking");
+
+    private final String flag;
+
+    ServerMode(String flag) {
+        this.flag = flag;
+    }
+
+    public static ServerMode from(List<String> args) {
+        for (ServerMode mode : values()) {
+            if (args.contains(mode.getFlag())) return mode;
+        }
+
+        return NIO;
+    }
+
+    public String getFlag() {
+        return flag;
+    }
+}
@@ -0,0 +1,48 @@
+package peer.config;
+
+import java.util.List;
+
+/**
+ * When downloads force their data to disk.
+ */
+public enum SyncPolicy {
+    /**
+     * Before every resume checkpoint, so a checkpoint never counts bytes a crash could lose.
+     */
+    CHECKPOINT("checkpoint"),
+    /**
+     * Once the file is complete. A crash may resume past bytes that never reached the disk.
+     */
+    CLOSE("close"),
+    /**
+     * Never; the operating system writes the data back on its own schedule.
+     */
+    NONE("none");
+
+    private static final String FLAG = "--fsync=";
+    private final String name;
+
+    SyncPolicy(String name) {
+        this.name = name;
+    }
+
+    public static SyncPolicy from(String name) {
+        for (SyncPolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) return policy;
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown fsync policy %s", name));
+    }
+
+    public static SyncPolicy from(List<String> args) {
+        for (String arg : args) {
+            if (arg.startsWith(FLAG)) return from(arg.substring(FLAG.length()));
+        }
+
+        return CHECKPOINT;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,26 @@
+package peer.config;
+
+import java.util.List;
+
+public enum ThreadMode {
+    PLATFORM("--platform"),
+    VIRTUAL("--virtual");
+
+    private final String flag;
+
+    ThreadMode(String flag) {
+        this.flag = flag;
+    }
+
+    public static ThreadMode from(List<String> args) {
+        for (ThreadMode mode : values()) {
+            if (args.contains(mode.getFlag())) return mode;
+        }
+
+        return PLATFORM;
+    }
+
+    public String getFlag() {
+        return flag;
+    }
+}
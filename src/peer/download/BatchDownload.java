@@ -0,0 +1,177 @@
+package peer.download;
+
+import log.ConsoleLog;
+import log.Log;
+import metrics.TransferMetrics;
+import peer.bandwidth.TokenBucket;
+import peer.buffer.AdaptiveBuffer;
+import peer.buffer.BufferPool;
+import peer.health.SourceReporter;
+import peer.pool.ConnectionPool;
+import peer.pool.PeerConnection;
+import peer.protocol.PeerBusyException;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
+import peer.thread.DownloadThread;
+import service.model.enums.Operation;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static peer.config.Config.CHUNK_SIZE;
+import static peer.config.Config.PIPELINE_DEPTH;
+import static peer.config.Config.TRANSFER_BUFFER_MAX;
+import static peer.config.Config.TRANSFER_BUFFER_MIN;
+
+/**
+ * Downloads several whole files from one peer over a single pooled connection, keeping
+ * up to {@code PIPELINE_DEPTH} requests in flight so small files do not each pay a
+ * round trip, let alone a new TCP handshake.
+ */
+public class BatchDownload implements Runnable {
+    private static final String TAG = "BatchDownload";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private final String name = TAG + "-" + COUNTER.incrementAndGet();
+    private final String source;
+    private final File folder;
+    private final List<String> filenames;
+    private final ConnectionPool pool;
+    private final DownloadThread.Callback callback;
+    private final TokenBucket limit;
+    private final SourceReporter reporter;
+    private long requested = -1;
+
+    public BatchDownload(String source, File folder, List<String> filenames, ConnectionPool pool, DownloadThread.Callback callback) {
+        this(source, folder, filenames, pool, callback, TokenBucket.UNLIMITED);
+    }
+
+    public BatchDownload(String source, File folder, List<String> filenames, ConnectionPool pool, DownloadThread.Callback callback, TokenBucket limit) {
+        this(source, folder, filenames, pool, callback, limit, SourceReporter.NONE);
+    }
+
+    public BatchDownload(String source, File folder, List<String> filenames, ConnectionPool pool, DownloadThread.Callback callback, TokenBucket limit, SourceReporter reporter) {
+        this.reporter = reporter;
+        this.source = source;
+        this.folder = folder;
+        this.filenames = new ArrayList<>(filenames);
+        this.pool = pool;
+        this.callback = callback;
+        this.limit = limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void run() {
+        final List<String> wanted = new ArrayList<>();
+        int received = 0;
+        int downloaded = 0;
+
+        for (String filename : filenames) {
+            if (new File(folder, filename).exists()) {
+                System.out.printf("Arquivo %s já existe!\n", filename);
+            } else {
+                wanted.add(filename);
+            }
+        }
+
+        PeerConnection connection = null;
+
+        try {
+            connection = pool.acquire(source);
+
+            int sent = 0;
+
+            for (String filename : wanted) {
+                if (sent == 0) requested = System.nanoTime();
+
+                while (sent < wanted.size() && sent - received < PIPELINE_DEPTH) {
+                    connection.send(new TransferRequest(wanted.get(sent++)));
+                }
+
+                if (receive(connection, filename)) {
+                    downloaded++;
+                    callback.onSuccess(filename);
+                }
+
+                received++;
+            }
+
+            log.d("Downloaded %d files from %s", downloaded, source);
+            System.out.printf("\n\n%d arquivos baixados de %s na pasta %s", downloaded, source, folder.getPath());
+        } catch (Exception e) {
+            log.e(String.format("Failed to download files from %s", source), e);
+            System.out.printf("Falha ao baixar arquivos: %d de %d concluídos\n", downloaded, wanted.size());
+
+            if (connection != null) connection.invalidate();
+
+            callback.onError(e);
+        } finally {
+            if (connection != null) pool.release(connection);
+
+            Operation.reprint();
+        }
+    }
+
+    /**
+     * Only the first response tells the latency, later ones were queued behind other files.
+     */
+    private boolean receive(PeerConnection connection, String filename) throws IOException {
+        final TransferResponse response = connection.receive();
+        final long latency = requested >= 0 ? System.nanoTime() - requested : -1;
+
+        requested = -1;
+
+        if (response.isBusy())
+            throw new PeerBusyException(source, response.getRetryAfter());
+
+        if (!response.isFound()) {
+            System.out.printf("Peer %s não possui o arquivo %s\n", source, filename);
+            return false;
+        }
+
+        final File file = new File(folder, filename);
+        final DownloadState state = new DownloadState(file, response.getLength(), CHUNK_SIZE);
+        final DataInputStream input = connection.body();
+        final long started = TransferMetrics.DOWNLOADS.start();
+        long remaining = response.getLength();
+
+        // Saved before the file is created so the folder watcher does not announce it
+        // while it is still being written
+        state.save();
+
+        try (final OutputStream output = new FileOutputStream(file);
+             final AdaptiveBuffer buffer = new AdaptiveBuffer(BufferPool.heap(), TRANSFER_BUFFER_MIN, TRANSFER_BUFFER_MAX)) {
+            while (remaining > 0) {
+                final byte[] data = buffer.get().array();
+                final int allowed = (int) limit.acquire(Math.min(buffer.size(), remaining));
+                final int count = input.read(data, 0, allowed);
+
+                limit.refund(allowed - Math.max(count, 0));
+
+                if (count < 0)
+                    throw new EOFException(String.format("Peer %s closed connection during %s", source, filename));
+
+                output.write(data, 0, count);
+                buffer.filled(count);
+                remaining -= count;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (file.exists() && !file.delete())
+                log.w(String.format("Failed to delete partial file %s", filename));
+
+            throw e;
+        } finally {
+            TransferMetrics.DOWNLOADS.finish(started, response.getLength() - remaining, remaining == 0);
+            reporter.record(source, response.getLength() - remaining, System.nanoTime() - started, latency, remaining == 0);
+            state.delete();
+        }
+
+        return true;
+    }
+}
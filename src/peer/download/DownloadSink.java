@@ -0,0 +1,214 @@
+package peer.download;
+
+import peer.buffer.AdaptiveBuffer;
+import peer.buffer.BufferPool;
+import peer.config.SyncPolicy;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static peer.config.Config.MAP_THRESHOLD;
+import static peer.config.Config.MAP_WINDOW;
+
+/**
+ * Destination of a download, receiving bytes straight from the socket channel into the
+ * file.
+ *
+ * <p>The file is grown to its final length up front, after checking the disk has room,
+ * so a full disk fails the download before it starts and the filesystem can lay the file
+ * out in one piece as it is written in large sequential blocks. Files from
+ * {@code MAP_THRESHOLD} up are written through memory-mapped windows, so bytes go from
+ * the socket to the page cache with no copy in between; smaller ones through a pooled
+ * {@link AdaptiveBuffer} and positional {@link FileChannel} writes. Not safe for
+ * concurrent use.
+ */
+public abstract class DownloadSink implements AutoCloseable {
+    protected final RandomAccessFile file;
+    protected final FileChannel channel;
+    protected final SyncPolicy policy;
+
+    private DownloadSink(RandomAccessFile file, SyncPolicy policy) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.policy = policy;
+    }
+
+    /**
+     * Opens {@code target} for a download of {@code size} bytes, keeping what it already
+     * holds so an interrupted download can resume.
+     *
+     * @param bufferSize size of the direct buffer when the file is not mapped
+     */
+    public static DownloadSink open(File target, long size, int bufferSize, SyncPolicy policy) throws IOException {
+        return open(target, size, bufferSize, bufferSize, policy);
+    }
+
+    /**
+     * Opens {@code target} with a buffer that starts at {@code initialBuffer} bytes and
+     * grows up to {@code maxBuffer} while reads keep filling it.
+     */
+    public static DownloadSink open(File target, long size, int initialBuffer, int maxBuffer, SyncPolicy policy) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(target, "rw");
+
+        try {
+            final long missing = size - file.length();
+
+            if (missing > 0) {
+                final File folder = target.getAbsoluteFile().getParentFile();
+
+                if (folder.getUsableSpace() < missing)
+                    throw new IOException(String.format("Not enough space for %s: %d bytes missing", target.getName(), missing));
+
+                file.setLength(size);
+            }
+
+            if (size >= MAP_THRESHOLD) return new MappedSink(file, policy, maxBuffer);
+
+            final int max = (int) Math.max(1, Math.min(maxBuffer, size));
+
+            return new ChannelSink(file, policy, Math.min(initialBuffer, max), max);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Reads up to {@code max} bytes from {@code input} into the file at {@code position}.
+     *
+     * @return bytes written, or -1 at the end of the input
+     */
+    public abstract int read(ReadableByteChannel input, long position, int max) throws IOException;
+
+    /**
+     * Most bytes the next {@link #read} takes.
+     */
+    public abstract int bufferSize();
+
+    /**
+     * Called before the resume state records the bytes written so far.
+     */
+    public void checkpoint() throws IOException {
+        if (policy == SyncPolicy.CHECKPOINT) force();
+    }
+
+    /**
+     * Called once every byte was written, before the file is handed to the user.
+     */
+    public void complete() throws IOException {
+        if (policy != SyncPolicy.NONE) force();
+    }
+
+    protected abstract void force() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Reads exactly enough bytes from {@code input} to fill {@code buffer}.
+     */
+    public static void readFully(ReadableByteChannel input, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) < 0) throw new EOFException();
+        }
+    }
+
+    private static class ChannelSink extends DownloadSink {
+        private final AdaptiveBuffer buffer;
+
+        ChannelSink(RandomAccessFile file, SyncPolicy policy, int initialBuffer, int maxBuffer) {
+            super(file, policy);
+            this.buffer = new AdaptiveBuffer(BufferPool.direct(), initialBuffer, maxBuffer);
+        }
+
+        @Override
+        public int read(ReadableByteChannel input, long position, int max) throws IOException {
+            final ByteBuffer data = buffer.get();
+
+            data.limit(Math.min(data.limit(), max));
+
+            final int count = input.read(data);
+
+            if (count <= 0) return count;
+
+            data.flip();
+
+            while (data.hasRemaining()) {
+                channel.write(data, position + data.position());
+            }
+
+            buffer.filled(count);
+
+            return count;
+        }
+
+        @Override
+        public int bufferSize() {
+            return buffer.size();
+        }
+
+        @Override
+        protected void force() throws IOException {
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer.close();
+            super.close();
+        }
+    }
+
+    /**
+     * Maps one {@code MAP_WINDOW} of the file at a time. Unless nothing is ever forced, a
+     * window is forced before moving on, since later checkpoints only see the current one.
+     * Old windows are unmapped by the garbage collector.
+     */
+    private static class MappedSink extends DownloadSink {
+        private final int readSize;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        MappedSink(RandomAccessFile file, SyncPolicy policy, int readSize) {
+            super(file, policy);
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read(ReadableByteChannel input, long position, int max) throws IOException {
+            if (window == null || position < windowStart || position >= windowStart + window.capacity()) map(position);
+
+            final int offset = (int) (position - windowStart);
+
+            window.limit(Math.min(window.capacity(), offset + max)).position(offset);
+
+            return input.read(window);
+        }
+
+        @Override
+        public int bufferSize() {
+            return readSize;
+        }
+
+        @Override
+        protected void force() {
+            if (window != null) window.force();
+        }
+
+        private void map(long position) throws IOException {
+            if (policy != SyncPolicy.NONE) force();
+
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(MAP_WINDOW, channel.size() - position));
+        }
+    }
+}
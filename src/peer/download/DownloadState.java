@@ -0,0 +1,130 @@
+package peer.download;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Properties;
+
+public class DownloadState {
+    private static final String PREFIX = ".";
+    private static final String SUFFIX = ".download";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String SIZE = "size";
+    private static final String OFFSET = "offset";
+    private static final String CHUNK_SIZE = "chunkSize";
+    private static final String CHUNKS = "chunks";
+    private final File stateFile;
+    private final long size;
+    private final int chunkSize;
+    private final BitSet chunks;
+    private long offset;
+
+    public DownloadState(File file, long size, int chunkSize) {
+        this(stateFileFor(file), size, chunkSize, 0, new BitSet());
+    }
+
+    private DownloadState(File stateFile, long size, int chunkSize, long offset, BitSet chunks) {
+        this.stateFile = stateFile;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.offset = offset;
+        this.chunks = chunks;
+    }
+
+    public static File stateFileFor(File file) {
+        return new File(file.getParentFile(), PREFIX + file.getName() + SUFFIX);
+    }
+
+    public static boolean isStateFile(String filename) {
+        return filename.startsWith(PREFIX) && (filename.endsWith(SUFFIX) || filename.endsWith(SUFFIX + TEMPORARY_SUFFIX));
+    }
+
+    /**
+     * Name of the file being downloaded, given the name of its state file.
+     */
+    public static String targetOf(String stateFilename) {
+        final String name = stateFilename.endsWith(TEMPORARY_SUFFIX)
+                ? stateFilename.substring(0, stateFilename.length() - TEMPORARY_SUFFIX.length())
+                : stateFilename;
+
+        return name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+    }
+
+    public static boolean isPartial(File file) {
+        return stateFileFor(file).exists();
+    }
+
+    public static DownloadState load(File file) throws IOException {
+        final File stateFile = stateFileFor(file);
+
+        if (!stateFile.exists())
+            return null;
+
+        final Properties properties = new Properties();
+
+        try (final InputStream input = new FileInputStream(stateFile)) {
+            properties.load(input);
+        }
+
+        try {
+            final String chunks = properties.getProperty(CHUNKS, "");
+
+            return new DownloadState(
+                    stateFile,
+                    Long.parseLong(properties.getProperty(SIZE)),
+                    Integer.parseInt(properties.getProperty(CHUNK_SIZE)),
+                    Math.min(Long.parseLong(properties.getProperty(OFFSET, "0")), file.length()),
+                    BitSet.valueOf(Base64.getDecoder().decode(chunks))
+            );
+        } catch (RuntimeException e) {
+            throw new IOException(String.format("Corrupted download state %s", stateFile.getName()), e);
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        final Properties properties = new Properties();
+        final File temporary = new File(stateFile.getParentFile(), stateFile.getName() + TEMPORARY_SUFFIX);
+
+        properties.setProperty(SIZE, Long.toString(size));
+        properties.setProperty(CHUNK_SIZE, Integer.toString(chunkSize));
+        properties.setProperty(OFFSET, Long.toString(offset));
+        properties.setProperty(CHUNKS, Base64.getEncoder().encodeToString(chunks.toByteArray()));
+
+        try (final OutputStream output = new FileOutputStream(temporary)) {
+            properties.store(output, null);
+        }
+
+        Files.move(temporary.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() {
+        if (stateFile.exists() && !stateFile.delete())
+            stateFile.deleteOnExit();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public synchronized long getOffset() {
+        final long chunkOffset = (long) chunks.nextClearBit(0) * chunkSize;
+
+        return Math.min(size, Math.max(offset, chunkOffset));
+    }
+
+    public synchronized void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public synchronized boolean isChunkDone(int chunk, int chunkSize) {
+        final long end = Math.min(size, (long) (chunk + 1) * chunkSize);
+
+        return (chunkSize == this.chunkSize && chunks.get(chunk)) || end <= getOffset();
+    }
+
+    public synchronized void markChunks(BitSet done) {
+        chunks.or(done);
+    }
+}
@@ -0,0 +1,378 @@
+package peer.download;
+
+import log.ConsoleLog;
+import log.Log;
+import metrics.TransferMetrics;
+import peer.bandwidth.TokenBucket;
+import peer.buffer.AdaptiveBuffer;
+import peer.buffer.BufferPool;
+import peer.executor.TransferExecutor;
+import peer.health.SourceReporter;
+import peer.pool.ConnectionPool;
+import peer.pool.PeerConnection;
+import peer.protocol.PeerBusyException;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
+import peer.thread.DownloadThread;
+import service.model.enums.Operation;
+import view.ProgressBar;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static peer.config.Config.*;
+
+public class MultiSourceDownload implements Runnable {
+    private static final String TAG = "MultiSourceDownload";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final int PENDING = 0;
+    private static final int IN_FLIGHT = 1;
+    private static final int DONE = 2;
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private final String name = TAG + "-" + COUNTER.incrementAndGet();
+    private final List<String> sources;
+    private final File file;
+    private final TransferExecutor executor;
+    private final ConnectionPool pool;
+    private final DownloadThread.Callback callback;
+    private final TokenBucket limit;
+    private final SourceReporter reporter;
+    private final BlockingDeque<Integer> pending = new LinkedBlockingDeque<>();
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final BitSet uncommitted = new BitSet();
+    private DownloadState state;
+    private AtomicIntegerArray states;
+    private AtomicInteger remaining;
+    private FileChannel fileChannel;
+    private ProgressBar progressBar;
+    private long fileSize;
+
+    public MultiSourceDownload(List<String> sources, File folder, String filename, TransferExecutor executor, ConnectionPool pool, DownloadThread.Callback callback) {
+        this(sources, folder, filename, executor, pool, callback, TokenBucket.UNLIMITED);
+    }
+
+    /**
+     * @param limit shared by every source, so the whole download stays within its rate
+     */
+    public MultiSourceDownload(List<String> sources, File folder, String filename, TransferExecutor executor, ConnectionPool pool, DownloadThread.Callback callback, TokenBucket limit) {
+        this(sources, folder, filename, executor, pool, callback, limit, SourceReporter.NONE);
+    }
+
+    /**
+     * @param reporter told how every chunk went, per source
+     */
+    public MultiSourceDownload(List<String> sources, File folder, String filename, TransferExecutor executor, ConnectionPool pool, DownloadThread.Callback callback, TokenBucket limit, SourceReporter reporter) {
+        this.reporter = reporter;
+        this.sources = new ArrayList<>(sources);
+        this.file = new File(folder, filename);
+        this.executor = executor;
+        this.pool = pool;
+        this.callback = callback;
+        this.limit = limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (sources.isEmpty())
+                throw new RuntimeException(String.format("No peers have file %s", file.getName()));
+
+            state = DownloadState.load(file);
+
+            if (state == null && file.exists()) {
+                System.out.printf("Arquivo %s já existe!\n", file.getName());
+                callback.onError(new RuntimeException(String.format("File %s already exists!", file.getName())));
+                return;
+            }
+
+            fileSize = probeSize();
+
+            if (state != null && state.getSize() != fileSize) {
+                log.w(String.format("File %s changed on peers since the last attempt, restarting download", file.getName()));
+                state.delete();
+                state = null;
+            }
+
+            if (state == null) {
+                log.d("Created file %s to download...", file.getName());
+                state = new DownloadState(file, fileSize, CHUNK_SIZE);
+                state.save();
+            } else {
+                log.d("Resuming download of %s...", file.getName());
+            }
+
+            final int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+            states = new AtomicIntegerArray(chunkCount);
+            remaining = new AtomicInteger(chunkCount);
+            progressBar = new ProgressBar(name, fileSize, "Downloading...");
+
+            for (int i = 0; i < chunkCount; i++) {
+                if (state.isChunkDone(i, CHUNK_SIZE)) {
+                    states.set(i, DONE);
+                    remaining.decrementAndGet();
+                    bytesReceived.addAndGet(Math.min(CHUNK_SIZE, fileSize - (long) i * CHUNK_SIZE));
+                } else {
+                    pending.add(i);
+                }
+            }
+
+            final long resumedAt = bytesReceived.get();
+            final long started = TransferMetrics.DOWNLOADS.start();
+
+            try (final RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+                if (output.length() != fileSize)
+                    output.setLength(fileSize);
+
+                fileChannel = output.getChannel();
+
+                if (remaining.get() > 0) {
+                    log.d("Downloading %d chunks from %d peers...", remaining.get(), sources.size());
+                    activeWorkers.set(sources.size());
+
+                    for (String source : sources) {
+                        executor.execute(() -> work(source), name + "-" + source);
+                    }
+
+                    finished.await();
+                }
+
+                checkpoint();
+            } finally {
+                TransferMetrics.DOWNLOADS.finish(started, bytesReceived.get() - resumedAt, remaining.get() == 0);
+            }
+
+            if (remaining.get() > 0)
+                throw new IOException(String.format("All peers failed before file %s was complete", file.getName()));
+
+            state.delete();
+
+            log.d("File download! Updating on server...");
+            System.out.printf(
+                    "\n\nArquivo %s baixado com sucesso de %d peers na pasta %s",
+                    file.getName(),
+                    sources.size(),
+                    file.getParentFile().getPath()
+            );
+
+            callback.onSuccess(file.getName());
+        } catch (Exception e) {
+            log.e("Failed to download file!", e);
+
+            if (state != null) {
+                System.out.printf("Download de %s interrompido, será retomado na próxima tentativa\n", file.getName());
+            } else if (file.exists() && file.delete()) {
+                System.out.printf("Arquivo %s deletado!\n", file.getName());
+            } else {
+                System.out.println("Sem arquivos para deletar");
+            }
+
+            callback.onError(e);
+        } finally {
+            Operation.reprint();
+        }
+    }
+
+    private long probeSize() throws IOException {
+        IOException lastError = null;
+
+        for (String source : sources) {
+            PeerConnection connection = null;
+
+            try {
+                connection = pool.acquire(source);
+                connection.send(new TransferRequest(file.getName(), 0, 0));
+
+                final TransferResponse response = connection.receive();
+
+                if (response.isBusy())
+                    throw new PeerBusyException(source, response.getRetryAfter());
+
+                if (!response.isFound())
+                    throw new FileNotFoundException(String.format("Peer %s does not have %s", source, file.getName()));
+
+                return response.getSize();
+            } catch (IOException e) {
+                log.w(String.format("Peer %s failed to report size of %s", source, file.getName()));
+                lastError = e;
+            } finally {
+                if (connection != null) pool.release(connection);
+            }
+        }
+
+        throw lastError != null ? lastError : new IOException("No peers available");
+    }
+
+    private void work(String source) {
+        int failures = 0;
+
+        try {
+            while (remaining.get() > 0 && failures < MAX_SOURCE_FAILURES) {
+                Integer chunk = pending.poll();
+
+                if (chunk == null) chunk = stealUnfinished();
+                if (chunk == null) break;
+
+                if (!states.compareAndSet(chunk, PENDING, IN_FLIGHT) && states.get(chunk) == DONE)
+                    continue;
+
+                try {
+                    fetch(source, chunk);
+                } catch (IOException e) {
+                    failures++;
+                    log.w(String.format("Peer %s failed chunk %d of %s (%d/%d)", source, chunk, file.getName(), failures, MAX_SOURCE_FAILURES));
+
+                    if (states.compareAndSet(chunk, IN_FLIGHT, PENDING))
+                        pending.addFirst(chunk);
+
+                    // Other sources keep the chunks moving while this one waits its turn
+                    if (e instanceof PeerBusyException && failures < MAX_SOURCE_FAILURES && !backOff((PeerBusyException) e))
+                        break;
+                }
+            }
+        } finally {
+            if (activeWorkers.decrementAndGet() == 0 || remaining.get() == 0)
+                finished.countDown();
+        }
+    }
+
+    /**
+     * @return whether the wait was not interrupted
+     */
+    private boolean backOff(PeerBusyException e) {
+        try {
+            Thread.sleep(e.getRetryAfter());
+
+            return true;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    private Integer stealUnfinished() {
+        final int chunkCount = states.length();
+        final int start = new Random().nextInt(chunkCount);
+
+        for (int i = 0; i < chunkCount; i++) {
+            final int chunk = (start + i) % chunkCount;
+
+            if (states.get(chunk) != DONE) {
+                log.d("Reassigning slow chunk %d of %s", chunk, file.getName());
+
+                return chunk;
+            }
+        }
+
+        return null;
+    }
+
+    private void fetch(String source, int chunk) throws IOException {
+        final long offset = (long) chunk * CHUNK_SIZE;
+        final int length = (int) Math.min(CHUNK_SIZE, fileSize - offset);
+
+        final PeerConnection connection = pool.acquire(source);
+        final AdaptiveBuffer buffer = new AdaptiveBuffer(BufferPool.heap(), TRANSFER_BUFFER_MIN, TRANSFER_BUFFER_MAX);
+        final long requested = System.nanoTime();
+        long latency = -1;
+        int received = 0;
+
+        try {
+            connection.send(new TransferRequest(file.getName(), offset, length));
+
+            final TransferResponse response = connection.receive();
+            final DataInputStream reader = connection.body();
+
+            latency = System.nanoTime() - requested;
+
+            if (response.isBusy())
+                throw new PeerBusyException(source, response.getRetryAfter());
+
+            if (!response.isFound() || response.getSize() != fileSize || response.getLength() != length) {
+                connection.invalidate();
+                throw new IOException(String.format("Peer %s has a different version of %s", source, file.getName()));
+            }
+
+            while (received < length) {
+                if (states.get(chunk) == DONE) {
+                    connection.invalidate();
+                    return;
+                }
+
+                final ByteBuffer data = buffer.get();
+                final int allowed = (int) limit.acquire(Math.min(data.limit(), length - received));
+                final int count = reader.read(data.array(), 0, allowed);
+
+                limit.refund(allowed - Math.max(count, 0));
+
+                if (count < 0) {
+                    connection.invalidate();
+                    throw new EOFException(String.format("Peer %s closed chunk %d early", source, chunk));
+                }
+
+                data.limit(count);
+
+                while (data.hasRemaining()) {
+                    fileChannel.write(data, offset + received + data.position());
+                }
+
+                buffer.filled(count);
+                received += count;
+            }
+        } catch (PeerBusyException e) {
+            throw e;
+        } catch (IOException e) {
+            connection.invalidate();
+            reporter.record(source, received, latency >= 0 ? System.nanoTime() - requested - latency : 0, latency, false);
+
+            throw e;
+        } finally {
+            buffer.close();
+            pool.release(connection);
+        }
+
+        reporter.record(source, received, System.nanoTime() - requested - latency, latency, true);
+
+        if (states.getAndSet(chunk, DONE) != DONE) {
+            progressBar.update(bytesReceived.addAndGet(length));
+            completed(chunk);
+
+            if (remaining.decrementAndGet() == 0)
+                finished.countDown();
+        }
+    }
+
+    private synchronized void completed(int chunk) throws IOException {
+        uncommitted.set(chunk);
+
+        if (uncommitted.cardinality() * (long) CHUNK_SIZE >= STATE_SAVE_INTERVAL)
+            checkpoint();
+    }
+
+    private synchronized void checkpoint() throws IOException {
+        if (uncommitted.isEmpty()) return;
+
+        fileChannel.force(false);
+        state.markChunks(uncommitted);
+        state.save();
+        uncommitted.clear();
+    }
+}
@@ -0,0 +1,10 @@
+package peer.executor;
+
+public class PlatformTransferExecutor implements TransferExecutor {
+    @Override
+    public void execute(Runnable task, String name) {
+        final Thread thread = new Thread(task, name);
+
+        thread.start();
+    }
+}
@@ -0,0 +1,17 @@
+package peer.executor;
+
+import peer.config.ThreadMode;
+
+public interface TransferExecutor {
+    void execute(Runnable task, String name);
+
+    static TransferExecutor create(ThreadMode mode) {
+        if (mode == ThreadMode.VIRTUAL) {
+            final TransferExecutor executor = VirtualTransferExecutor.create();
+
+            if (executor != null) return executor;
+        }
+
+        return new PlatformTransferExecutor();
+    }
+}
@@ -0,0 +1,53 @@
+package peer.executor;
+
+import log.ConsoleLog;
+import log.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+public class VirtualTransferExecutor implements TransferExecutor {
+    private static final String TAG = "VirtualTransferExecutor";
+    private static final Log log = new ConsoleLog(TAG);
+    private final Method ofVirtual;
+    private final Method name;
+    private final Method start;
+
+    private VirtualTransferExecutor(Method ofVirtual, Method name, Method start) {
+        this.ofVirtual = ofVirtual;
+        this.name = name;
+        this.start = start;
+    }
+
+    public static VirtualTransferExecutor create() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            final VirtualTransferExecutor executor = new VirtualTransferExecutor(
+                    Thread.class.getMethod("ofVirtual"),
+                    builderClass.getMethod("name", String.class),
+                    builderClass.getMethod("start", Runnable.class)
+            );
+
+            executor.ofVirtual.invoke(null);
+
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.w("Virtual threads are not available on this runtime, falling back to platform threads");
+
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task, String threadName) {
+        try {
+            final Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+
+            start.invoke(builder, task);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package peer.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+public class FileHash {
+    public static final String ALGORITHM = "SHA-256";
+    private final long size;
+    private final long lastModified;
+    private final List<byte[]> chunks;
+    private final String root;
+
+    public FileHash(long size, long lastModified, List<byte[]> chunks) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.chunks = chunks;
+        this.root = root(chunks);
+    }
+
+    public static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String hex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) hex.append(String.format("%02x", b));
+
+        return hex.toString();
+    }
+
+    /**
+     * Whether this hash still describes the file, judging by its size and modification time.
+     */
+    public boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public List<byte[]> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Content identity of the file: the hash of its chunk hashes, in order.
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    private static String root(List<byte[]> chunks) {
+        final MessageDigest digest = digest();
+
+        for (byte[] chunk : chunks) digest.update(chunk);
+
+        return hex(digest.digest());
+    }
+}
@@ -0,0 +1,205 @@
+package peer.hash;
+
+import log.ConsoleLog;
+import log.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import static peer.config.Config.CHUNK_SIZE;
+import static peer.config.Config.HASH_PARALLELISM;
+
+/**
+ * Computes content hashes of the files in a peer folder.
+ *
+ * <p>Every file is split in {@code CHUNK_SIZE} chunks, the same unit used by swarm
+ * downloads, and each chunk is hashed on its own fork-join task, so a single large
+ * file keeps every worker busy as well as a folder of many small ones. Results are
+ * cached by size and modification time, so a rescan only reads files that changed.
+ */
+public class FileHasher implements AutoCloseable {
+    private static final String TAG = "FileHasher";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(CHUNK_SIZE));
+    private final File folder;
+    private final HashCache cache;
+    private final ForkJoinPool pool = new ForkJoinPool(HASH_PARALLELISM);
+
+    public FileHasher(File folder) {
+        this.folder = folder;
+        this.cache = new HashCache(folder);
+
+        try {
+            cache.load();
+        } catch (IOException e) {
+            log.e("Discarding unreadable hash cache", e);
+        }
+    }
+
+    /**
+     * Names among the given files whose cached hash is missing or outdated.
+     */
+    public List<String> stale(Collection<String> names) {
+        final List<String> stale = new ArrayList<>();
+
+        for (String name : names) {
+            if (cache.get(new File(folder, name)) == null) stale.add(name);
+        }
+
+        return stale;
+    }
+
+    /**
+     * Hashes the given files, reading only the ones missing from the cache, and forgets
+     * cached files that are not in the list.
+     */
+    public Map<String, FileHash> hashAll(Collection<String> names) throws IOException {
+        final Map<String, FileHash> hashes = new HashMap<>();
+        final List<FileTask> tasks = new ArrayList<>();
+
+        cache.retain(names);
+
+        for (String name : names) {
+            final FileHash cached = cache.get(new File(folder, name));
+
+            if (cached != null) {
+                hashes.put(name, cached);
+            } else {
+                tasks.add(new FileTask(name));
+            }
+        }
+
+        pool.submit(() -> ForkJoinTask.invokeAll(tasks)).join();
+
+        for (FileTask task : tasks) {
+            final FileHash hash = task.join();
+
+            if (hash != null) hashes.put(task.name, hash);
+        }
+
+        cache.save();
+
+        return hashes;
+    }
+
+    /**
+     * Hashes a single file, or returns {@code null} if it could not be read.
+     */
+    public FileHash hash(String name) throws IOException {
+        final FileHash cached = cache.get(new File(folder, name));
+
+        if (cached != null) return cached;
+
+        final FileHash hash = pool.invoke(new FileTask(name));
+
+        cache.save();
+
+        return hash;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private class FileTask extends RecursiveTask<FileHash> {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+
+        private FileTask(String name) {
+            this.name = name;
+        }
+
+        @Override
+        protected FileHash compute() {
+            final File file = new File(folder, name);
+
+            if (!file.isFile()) return null;
+
+            final long size = file.length();
+            final long lastModified = file.lastModified();
+            final long start = System.nanoTime();
+            final int chunks = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final byte[][] hashes = new ChunkTask(channel, 0, chunks).invoke();
+                final FileHash hash = new FileHash(size, lastModified, Arrays.asList(hashes));
+
+                cache.put(name, hash);
+                log.d("Hashed %s (%d chunks) in %d ms", name, chunks, (System.nanoTime() - start) / 1_000_000);
+
+                return hash;
+            } catch (IOException | UncheckedIOException e) {
+                log.e(String.format("Failed to hash %s", name), e);
+
+                return null;
+            }
+        }
+    }
+
+    private static class ChunkTask extends RecursiveTask<byte[][]> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(FileChannel channel, int from, int to) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[][] compute() {
+            final byte[][] hashes = new byte[to - from][];
+
+            if (to - from == 1) {
+                hashes[0] = hashChunk(from);
+
+                return hashes;
+            }
+
+            if (to == from) return hashes;
+
+            final int middle = (from + to) >>> 1;
+            final ChunkTask left = new ChunkTask(channel, from, middle);
+            final ChunkTask right = new ChunkTask(channel, middle, to);
+
+            ForkJoinTask.invokeAll(left, right);
+            System.arraycopy(left.join(), 0, hashes, 0, middle - from);
+            System.arraycopy(right.join(), 0, hashes, middle - from, to - middle);
+
+            return hashes;
+        }
+
+        private byte[] hashChunk(int chunk) {
+            final ByteBuffer buffer = buffers.get();
+            final MessageDigest digest = FileHash.digest();
+            final long position = (long) chunk * CHUNK_SIZE;
+
+            buffer.clear();
+
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) break;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            buffer.flip();
+            digest.update(buffer);
+
+            return digest.digest();
+        }
+    }
+}
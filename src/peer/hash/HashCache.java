@@ -0,0 +1,115 @@
+package peer.hash;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class HashCache {
+    private static final String FILENAME = ".napster-hashes";
+    private static final int MAGIC = 0x4e484331;
+    private final File file;
+    private final Map<String, FileHash> hashes = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    public HashCache(File folder) {
+        this.file = new File(folder, FILENAME);
+    }
+
+    public static boolean isCacheFile(String filename) {
+        return filename.equals(FILENAME) || filename.equals(FILENAME + ".tmp");
+    }
+
+    public void load() throws IOException {
+        if (!file.exists()) return;
+
+        try (final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException(String.format("Invalid hash cache %s", file.getName()));
+
+            final int entries = input.readInt();
+
+            for (int i = 0; i < entries; i++) {
+                final String name = input.readUTF();
+                final long size = input.readLong();
+                final long lastModified = input.readLong();
+                final List<byte[]> chunks = new ArrayList<>();
+                final int count = input.readInt();
+
+                for (int j = 0; j < count; j++) {
+                    final byte[] chunk = new byte[input.readUnsignedByte()];
+
+                    input.readFully(chunk);
+                    chunks.add(chunk);
+                }
+
+                hashes.put(name, new FileHash(size, lastModified, chunks));
+            }
+        } catch (EOFException e) {
+            hashes.clear();
+
+            throw new IOException(String.format("Truncated hash cache %s", file.getName()), e);
+        }
+    }
+
+    /**
+     * Returns the cached hash of a file if its size and modification time did not change.
+     */
+    public FileHash get(File file) {
+        final FileHash hash = hashes.get(file.getName());
+
+        return hash != null && hash.matches(file.length(), file.lastModified()) ? hash : null;
+    }
+
+    public void put(String name, FileHash hash) {
+        hashes.put(name, hash);
+        dirty = true;
+    }
+
+    /**
+     * Drops entries of files that are no longer shared.
+     */
+    public void retain(Collection<String> names) {
+        if (hashes.keySet().retainAll(new HashSet<>(names)))
+            dirty = true;
+    }
+
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+
+        dirty = false;
+
+        final File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try (final FileOutputStream fileOutput = new FileOutputStream(temporary)) {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            final List<Map.Entry<String, FileHash>> entries = new ArrayList<>(hashes.entrySet());
+
+            output.writeInt(MAGIC);
+            output.writeInt(entries.size());
+
+            for (Map.Entry<String, FileHash> entry : entries) {
+                final FileHash hash = entry.getValue();
+
+                output.writeUTF(entry.getKey());
+                output.writeLong(hash.getSize());
+                output.writeLong(hash.getLastModified());
+                output.writeInt(hash.getChunks().size());
+
+                for (byte[] chunk : hash.getChunks()) {
+                    output.writeByte(chunk.length);
+                    output.write(chunk);
+                }
+            }
+
+            output.flush();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,112 @@
+package peer.health;
+
+import log.ConsoleLog;
+import log.Log;
+import service.model.health.TransferReport;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static peer.config.Config.REPORT_INTERVAL;
+
+/**
+ * Adds up the measurements of every source and sends them to the index together, at most
+ * once per {@code REPORT_INTERVAL}, so a download of many chunks costs one call.
+ */
+public class ReportBatcher implements SourceReporter, AutoCloseable {
+    private static final String TAG = "ReportBatcher";
+    private static final Log log = new ConsoleLog(TAG);
+    private final Sender sender;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, TAG);
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+    private Map<String, Totals> totals = new LinkedHashMap<>();
+    private boolean scheduled = false;
+
+    public interface Sender {
+        String send(List<TransferReport> reports) throws RemoteException;
+    }
+
+    private static class Totals {
+        private int successes;
+        private int failures;
+        private long bytes;
+        private long nanos;
+        private long latencyNanos;
+        private int latencies;
+
+        TransferReport toReport(String source) {
+            return new TransferReport(source, successes, failures, bytes, nanos, latencies > 0 ? latencyNanos / latencies : -1);
+        }
+    }
+
+    public ReportBatcher(Sender sender) {
+        this.sender = sender;
+    }
+
+    @Override
+    public synchronized void record(String source, long bytes, long nanos, long latencyNanos, boolean success) {
+        final Totals sourceTotals = totals.computeIfAbsent(source, key -> new Totals());
+
+        if (success) {
+            sourceTotals.successes++;
+        } else {
+            sourceTotals.failures++;
+        }
+
+        sourceTotals.bytes += bytes;
+        sourceTotals.nanos += nanos;
+
+        if (latencyNanos >= 0) {
+            sourceTotals.latencyNanos += latencyNanos;
+            sourceTotals.latencies++;
+        }
+
+        if (scheduled) return;
+
+        scheduled = true;
+        scheduler.schedule(this::flush, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void flush() {
+        final Map<String, Totals> batch;
+
+        synchronized (this) {
+            scheduled = false;
+
+            if (totals.isEmpty()) return;
+
+            batch = totals;
+            totals = new LinkedHashMap<>();
+        }
+
+        final List<TransferReport> reports = new ArrayList<>(batch.size());
+
+        for (Map.Entry<String, Totals> entry : batch.entrySet()) reports.add(entry.getValue().toReport(entry.getKey()));
+
+        try {
+            sender.send(reports);
+            log.d("Reported transfers from %d sources", reports.size());
+        } catch (RemoteException e) {
+            log.w(String.format("Failed to report transfers: %s", e.getMessage()));
+        } catch (RuntimeException e) {
+            log.e("Failed to report transfers", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+}
@@ -0,0 +1,15 @@
+package peer.health;
+
+/**
+ * Receives what a download measured about the peer it downloaded from.
+ */
+public interface SourceReporter {
+    SourceReporter NONE = (source, bytes, nanos, latencyNanos, success) -> {};
+
+    /**
+     * @param source address of the peer as {@code ip:port}, as the index lists it
+     * @param nanos time spent receiving the {@code bytes}
+     * @param latencyNanos time from the request to the response header, or -1 when unknown
+     */
+    void record(String source, long bytes, long nanos, long latencyNanos, boolean success);
+}
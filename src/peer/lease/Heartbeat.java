@@ -0,0 +1,57 @@
+package peer.lease;
+
+import log.ConsoleLog;
+import log.Log;
+import service.model.response.HeartbeatResponse;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class Heartbeat implements AutoCloseable {
+    private static final String TAG = "Heartbeat";
+    private static final Log log = new ConsoleLog(TAG);
+    private final Sender sender;
+    private final Runnable onExpired;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, TAG);
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    public interface Sender {
+        String send() throws RemoteException;
+    }
+
+    public Heartbeat(Sender sender, Runnable onExpired) {
+        this.sender = sender;
+        this.onExpired = onExpired;
+    }
+
+    public void start(long interval) {
+        scheduler.scheduleWithFixedDelay(this::beat, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void beat() {
+        try {
+            final String result = sender.send();
+
+            if (result.equals(HeartbeatResponse.NOT_JOINED.getCode())) {
+                log.w("Lease expired on server, joining again...");
+                onExpired.run();
+            }
+        } catch (RemoteException e) {
+            log.w(String.format("Failed to renew lease: %s", e.getMessage()));
+        } catch (RuntimeException e) {
+            log.e("Failed to renew lease", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,106 @@
+package peer.pool;
+
+import log.ConsoleLog;
+import log.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static peer.config.Config.POOL_IDLE_TIMEOUT;
+import static peer.config.Config.POOL_MAX_PER_PEER;
+
+/**
+ * Keeps pipelined connections to other peers open between transfers.
+ *
+ * <p>At most {@code POOL_MAX_PER_PEER} connections to the same peer are handed out at a
+ * time; further callers wait for one to be released. Released connections are kept
+ * idle for {@code POOL_IDLE_TIMEOUT}, shorter than the time the other side waits before
+ * closing them.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final String TAG = "ConnectionPool";
+    private static final Log log = new ConsoleLog(TAG);
+    private final Map<String, PeerPool> pools = new ConcurrentHashMap<>();
+
+    private static class PeerPool {
+        private final Semaphore permits = new Semaphore(POOL_MAX_PER_PEER);
+        private final Deque<PeerConnection> idle = new ArrayDeque<>();
+    }
+
+    public PeerConnection acquire(String address) throws IOException {
+        final PeerPool pool = pools.computeIfAbsent(address, key -> new PeerPool());
+
+        try {
+            pool.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException(String.format("Interrupted waiting for a connection to %s", address));
+        }
+
+        try {
+            final PeerConnection connection = takeIdle(pool);
+
+            if (connection != null) return connection;
+
+            log.d("Opening connection to %s", address);
+
+            return PeerConnection.open(address);
+        } catch (IOException | RuntimeException e) {
+            pool.permits.release();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool, closing it instead if it cannot be reused.
+     */
+    public void release(PeerConnection connection) {
+        final PeerPool pool = pools.get(connection.getAddress());
+
+        if (connection.isReusable() && pool != null) {
+            connection.touch();
+
+            synchronized (pool) {
+                pool.idle.addFirst(connection);
+            }
+        } else {
+            connection.close();
+        }
+
+        if (pool != null) pool.permits.release();
+    }
+
+    @Override
+    public void close() {
+        for (PeerPool pool : pools.values()) {
+            synchronized (pool) {
+                pool.idle.forEach(PeerConnection::close);
+                pool.idle.clear();
+            }
+        }
+    }
+
+    private PeerConnection takeIdle(PeerPool pool) {
+        final long now = System.currentTimeMillis();
+
+        synchronized (pool) {
+            PeerConnection connection;
+
+            while ((connection = pool.idle.pollFirst()) != null) {
+                if (!connection.isIdleSince(now, POOL_IDLE_TIMEOUT) && connection.isReusable())
+                    return connection;
+
+                connection.close();
+            }
+        }
+
+        return null;
+    }
+}
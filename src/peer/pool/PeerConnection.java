@@ -0,0 +1,173 @@
+package peer.pool;
+
+import peer.buffer.LinkTuner;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import static peer.config.Config.BUFFER_SIZE;
+import static peer.config.Config.SOURCE_TIMEOUT;
+import static peer.config.Config.TRANSFER_BUFFER_MIN;
+
+/**
+ * Pipelined connection to another peer. Requests may be sent ahead of their responses,
+ * which must then be received in the same order, each followed by reading exactly its
+ * body length from {@link #body()}.
+ *
+ * <p>The time from the first request sent on an idle connection to its response header
+ * is taken as the round trip, and from then on a {@link LinkTuner} grows the socket's
+ * receive buffer to the link as bytes arrive. Reads are buffered in
+ * {@code TRANSFER_BUFFER_MIN} bytes, the smallest transfer buffer readers of the body
+ * take from the pool, so their reads go straight to the socket.
+ */
+public class PeerConnection implements AutoCloseable {
+    private final String address;
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private int outstanding = 0;
+    private boolean broken = false;
+    private long lastUsed = System.currentTimeMillis();
+    private long requested = -1;
+    private LinkTuner tuner;
+
+    private class TunedInputStream extends FilterInputStream {
+        private TunedInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+
+            if (value >= 0 && tuner != null) tuner.received(1);
+
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int count = super.read(buffer, offset, length);
+
+            if (count > 0 && tuner != null) tuner.received(count);
+
+            return count;
+        }
+    }
+
+    private PeerConnection(String address, Socket socket) throws IOException {
+        this.address = address;
+        this.socket = socket;
+        this.input = new DataInputStream(new BufferedInputStream(new TunedInputStream(socket.getInputStream()), TRANSFER_BUFFER_MIN));
+        // Only request lines are written
+        this.output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    public static PeerConnection open(String address) throws IOException {
+        final int separator = address.lastIndexOf(':');
+        final Socket socket = new Socket();
+
+        try {
+            socket.connect(
+                    new InetSocketAddress(address.substring(0, separator), Integer.parseInt(address.substring(separator + 1))),
+                    SOURCE_TIMEOUT
+            );
+            socket.setSoTimeout(SOURCE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+
+            final PeerConnection connection = new PeerConnection(address, socket);
+
+            connection.writeLine(TransferResponse.PIPELINE);
+
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+
+            throw e;
+        }
+    }
+
+    public void send(TransferRequest request) throws IOException {
+        if (outstanding == 0 && tuner == null) requested = System.nanoTime();
+
+        writeLine(request.toLine());
+        outstanding++;
+    }
+
+    /**
+     * Reads the header of the oldest unanswered request, flushing pending requests first.
+     */
+    public TransferResponse receive() throws IOException {
+        if (outstanding == 0)
+            throw new IllegalStateException("No request waiting for a response");
+
+        output.flush();
+
+        try {
+            final TransferResponse response = TransferResponse.read(input);
+
+            outstanding--;
+
+            if (requested >= 0) {
+                tuner = new LinkTuner(socket, System.nanoTime() - requested);
+                requested = -1;
+            }
+
+            return response;
+        } catch (IOException e) {
+            broken = true;
+
+            throw e;
+        }
+    }
+
+    public DataInputStream body() {
+        return input;
+    }
+
+    /**
+     * Marks the connection as unusable, e.g. after a body was not read to the end.
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    boolean isReusable() {
+        return !broken && outstanding == 0 && !socket.isClosed();
+    }
+
+    boolean isIdleSince(long now, long timeout) {
+        return now - lastUsed > timeout;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        try {
+            output.write((line + "\n").getBytes(Charset.defaultCharset()));
+        } catch (IOException e) {
+            broken = true;
+
+            throw e;
+        }
+    }
+}
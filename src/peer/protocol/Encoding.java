@@ -0,0 +1,80 @@
+package peer.protocol;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * How the body of a one-shot transfer is encoded on the wire.
+ *
+ * <p>A downloader that can decode a body names the encoding as the last field of its
+ * request line, and the peer then follows the file size with the {@link #getId()} of the
+ * encoding it picked, which may be {@link #NONE}. Requests naming no encoding get the raw
+ * body and a bare size, as before.
+ */
+public enum Encoding {
+    /**
+     * Raw file bytes.
+     */
+    NONE((byte) 0, "none"),
+    /**
+     * DEFLATE frames, see {@link peer.compress.FrameEncoder}.
+     */
+    DEFLATE((byte) 1, "deflate");
+
+    private static final String FLAG = "--compression=";
+    private final byte id;
+    private final String name;
+
+    Encoding(byte id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public static Encoding from(String name) {
+        final Encoding encoding = find(name);
+
+        if (encoding == null)
+            throw new IllegalArgumentException(String.format("Unknown compression %s", name));
+
+        return encoding;
+    }
+
+    /**
+     * Reads the encoding downloads should ask for. None unless turned on, since peers
+     * that predate encodings take the extra field for part of the filename.
+     */
+    public static Encoding from(List<String> args) {
+        for (String arg : args) {
+            if (arg.startsWith(FLAG)) return from(arg.substring(FLAG.length()));
+        }
+
+        return NONE;
+    }
+
+    public static Encoding fromId(byte id) throws IOException {
+        for (Encoding encoding : values()) {
+            if (encoding.id == id) return encoding;
+        }
+
+        throw new IOException(String.format("Unknown body encoding %d", id));
+    }
+
+    /**
+     * @return the encoding called {@code name}, or null
+     */
+    static Encoding find(String name) {
+        for (Encoding encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(name)) return encoding;
+        }
+
+        return null;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
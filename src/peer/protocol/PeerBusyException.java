@@ -0,0 +1,23 @@
+package peer.protocol;
+
+import java.io.IOException;
+
+/**
+ * The remote peer had no upload slot free and asked to be retried later.
+ */
+public class PeerBusyException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final long retryAfter;
+
+    public PeerBusyException(String peer, long retryAfter) {
+        super(String.format("Peer %s is busy, retry in %d ms", peer, retryAfter));
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Milliseconds the peer suggested waiting before asking again.
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,98 @@
+package peer.protocol;
+
+public class TransferRequest {
+    public static final long TO_END = -1;
+    private static final char SEPARATOR = '\t';
+    private final String filename;
+    private final long offset;
+    private final long length;
+    private final Encoding accept;
+
+    public TransferRequest(String filename) {
+        this(filename, 0, TO_END);
+    }
+
+    public TransferRequest(String filename, long offset, long length) {
+        this(filename, offset, length, Encoding.NONE);
+    }
+
+    /**
+     * @param accept encoding the body may be sent in besides raw bytes, only honoured on
+     *               one-shot connections
+     */
+    public TransferRequest(String filename, long offset, long length, Encoding accept) {
+        this.filename = filename;
+        this.offset = offset;
+        this.length = length;
+        this.accept = accept;
+    }
+
+    public static TransferRequest parse(String line) {
+        final int acceptSeparator = line.lastIndexOf(SEPARATOR);
+        final Encoding accept = acceptSeparator > 0 ? Encoding.find(line.substring(acceptSeparator + 1)) : null;
+
+        if (accept == null)
+            return parseRange(line);
+
+        final TransferRequest range = parseRange(line.substring(0, acceptSeparator));
+
+        return new TransferRequest(range.filename, range.offset, range.length, accept);
+    }
+
+    private static TransferRequest parseRange(String line) {
+        final int lengthSeparator = line.lastIndexOf(SEPARATOR);
+        final int offsetSeparator = lengthSeparator > 0 ? line.lastIndexOf(SEPARATOR, lengthSeparator - 1) : -1;
+
+        if (offsetSeparator < 0)
+            return new TransferRequest(line);
+
+        try {
+            final long offset = Long.parseLong(line.substring(offsetSeparator + 1, lengthSeparator));
+            final long length = Long.parseLong(line.substring(lengthSeparator + 1));
+
+            if (offset < 0 || length < TO_END)
+                return new TransferRequest(line);
+
+            return new TransferRequest(line.substring(0, offsetSeparator), offset, length);
+        } catch (NumberFormatException e) {
+            return new TransferRequest(line);
+        }
+    }
+
+    public String toLine() {
+        if (accept != Encoding.NONE)
+            return filename + SEPARATOR + offset + SEPARATOR + length + SEPARATOR + accept.getName();
+
+        if (offset == 0 && length == TO_END)
+            return filename;
+
+        return filename + SEPARATOR + offset + SEPARATOR + length;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public Encoding getAccept() {
+        return accept;
+    }
+
+    public long start(long size) {
+        return Math.min(offset, size);
+    }
+
+    public long end(long size) {
+        if (length == TO_END)
+            return size;
+
+        return Math.min(size, start(size) + length);
+    }
+}
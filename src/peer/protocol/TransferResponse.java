@@ -0,0 +1,78 @@
+package peer.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Header of a response on a pipelined connection.
+ *
+ * <p>A connection becomes pipelined when its first line is {@link #PIPELINE}. From then
+ * on the client may send any number of request lines without waiting, and the peer
+ * answers them in order, each with this header followed by exactly {@code length} body
+ * bytes. Unlike the one-shot protocol, a missing file does not close the connection.
+ *
+ * <p>A peer with no upload slot free answers {@link #BUSY} with no body, carrying in the
+ * size field how many milliseconds to wait before retrying. On a one-shot connection it
+ * sends {@link #BUSY_SIZE} in place of the file size and closes.
+ */
+public class TransferResponse {
+    public static final String PIPELINE = "\0PIPELINE/1";
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte BUSY = 2;
+    public static final long BUSY_SIZE = -1;
+    public static final int SIZE = 1 + Long.BYTES + Long.BYTES;
+    private final byte status;
+    private final long size;
+    private final long length;
+
+    public TransferResponse(byte status, long size, long length) {
+        this.status = status;
+        this.size = size;
+        this.length = length;
+    }
+
+    public static TransferResponse notFound() {
+        return new TransferResponse(NOT_FOUND, 0, 0);
+    }
+
+    public static TransferResponse busy(long retryAfter) {
+        return new TransferResponse(BUSY, retryAfter, 0);
+    }
+
+    public static TransferResponse read(DataInputStream input) throws IOException {
+        return new TransferResponse(input.readByte(), input.readLong(), input.readLong());
+    }
+
+    public void write(DataOutputStream output) throws IOException {
+        output.writeByte(status);
+        output.writeLong(size);
+        output.writeLong(length);
+    }
+
+    public void write(ByteBuffer buffer) {
+        buffer.put(status).putLong(size).putLong(length);
+    }
+
+    public boolean isFound() {
+        return status == OK;
+    }
+
+    public boolean isBusy() {
+        return status == BUSY;
+    }
+
+    public long getRetryAfter() {
+        return isBusy() ? size : 0;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -2,23 +2,63 @@ package peer.thread;
 
 import log.ConsoleLog;
 import log.Log;
+import metrics.TransferMetrics;
+import peer.bandwidth.TokenBucket;
+import peer.buffer.LinkTuner;
+import peer.compress.FrameDecoder;
+import peer.config.SyncPolicy;
+import peer.download.DownloadSink;
+import peer.download.DownloadState;
+import peer.health.SourceReporter;
+import peer.protocol.Encoding;
+import peer.protocol.PeerBusyException;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
 import service.model.enums.Operation;
 import view.ProgressBar;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static peer.config.Config.BUFFER_SIZE;
+import static peer.config.Config.CHUNK_SIZE;
+import static peer.config.Config.STATE_SAVE_INTERVAL;
+import static peer.config.Config.TRANSFER_BUFFER_MAX;
+import static peer.config.Config.TRANSFER_BUFFER_MIN;
+import static peer.config.Config.UPLOAD_RETRY_AFTER;
 
-public class DownloadThread extends Thread {
+/**
+ * Downloads one file from a peer over its own connection, resuming a previous attempt
+ * when a resume state is found. Header and body are read from the same channel, the
+ * socket's own when it was opened from a {@link java.nio.channels.SocketChannel}, so the
+ * body goes straight into the {@link DownloadSink}.
+ *
+ * <p>With an {@link #ADAPTIVE} buffer size the sink's buffer grows while reads keep
+ * filling it and a {@link LinkTuner} grows the socket's receive buffer to the link.
+ * A download accepting an {@link Encoding} reads a compressed body through a
+ * {@link FrameDecoder}; sizes and progress always count file bytes.
+ */
+public class DownloadThread implements Runnable {
+    public static final int ADAPTIVE = 0;
     private static final String TAG = "DownloadThread";
     private static final Log log = new ConsoleLog(TAG);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private final String name = TAG + "-" + COUNTER.incrementAndGet();
     private final Socket socket;
-    private final BufferedInputStream reader;
+    private final String source;
+    private final ReadableByteChannel input;
     private final PrintWriter writer;
     private final File file;
     private final Callback callback;
+    private final int bufferSize;
+    private final TokenBucket limit;
+    private final SourceReporter reporter;
+    private final SyncPolicy policy;
+    private final Encoding accept;
 
     public interface Callback {
         void onSuccess(String filename);
@@ -26,50 +66,167 @@ public class DownloadThread extends Thread {
     }
 
     public DownloadThread(Socket socket, File folder, String filename, Callback callback) throws IOException {
-        this.setName(TAG + "-" + getId());
+        this(socket, folder, filename, callback, ADAPTIVE);
+    }
+
+    public DownloadThread(Socket socket, File folder, String filename, Callback callback, int bufferSize) throws IOException {
+        this(socket, folder, filename, callback, bufferSize, TokenBucket.UNLIMITED);
+    }
+
+    public DownloadThread(Socket socket, File folder, String filename, Callback callback, int bufferSize, TokenBucket limit) throws IOException {
+        this(socket, socket.getInetAddress().getHostAddress() + ":" + socket.getPort(), folder, filename, callback, bufferSize, limit, SourceReporter.NONE);
+    }
+
+    /**
+     * @param source address of the peer on the other end of {@code socket}, as the index lists it
+     */
+    public DownloadThread(Socket socket, String source, File folder, String filename, Callback callback, int bufferSize, TokenBucket limit, SourceReporter reporter) throws IOException {
+        this(socket, source, folder, filename, callback, bufferSize, limit, reporter, SyncPolicy.CHECKPOINT);
+    }
+
+    /**
+     * @param bufferSize most bytes read at once, and the size of the sink's buffer, or
+     *                   {@link #ADAPTIVE} to size both it and the socket's receive buffer
+     *                   from the link
+     */
+    public DownloadThread(Socket socket, String source, File folder, String filename, Callback callback, int bufferSize, TokenBucket limit, SourceReporter reporter, SyncPolicy policy) throws IOException {
+        this(socket, source, folder, filename, callback, bufferSize, limit, reporter, policy, Encoding.NONE);
+    }
+
+    /**
+     * @param accept encoding the peer may compress the body with, if it deems the file
+     *               worth it
+     */
+    public DownloadThread(Socket socket, String source, File folder, String filename, Callback callback, int bufferSize, TokenBucket limit, SourceReporter reporter, SyncPolicy policy, Encoding accept) throws IOException {
         this.socket = socket;
-        this.reader = new BufferedInputStream(socket.getInputStream());
+        this.accept = accept;
+        this.source = source;
+        this.reporter = reporter;
+        this.policy = policy;
+        this.bufferSize = bufferSize;
+        this.limit = limit;
+        this.input = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(socket.getInputStream());
         this.writer = new PrintWriter(socket.getOutputStream(), true);
         this.file = new File(folder, filename);
         this.callback = callback;
     }
 
+    public String getName() {
+        return name;
+    }
+
     @Override
     public void run() {
+        DownloadState state = null;
+
         try {
-            if (file.createNewFile()) {
-                log.d(String.format("Created file %s to download...", file.getName()));
-            } else {
-                throw new RuntimeException(String.format("File %s already exists!", file.getName()));
+            state = DownloadState.load(file);
+
+            if (state != null) {
+                log.d("Resuming download of %s from byte %d...", file.getName(), state.getOffset());
+            } else if (file.exists()) {
+                System.out.printf("Arquivo %s já existe!\n", file.getName());
+                callback.onError(new RuntimeException(String.format("File %s already exists!", file.getName())));
+                return;
             }
 
+            final long offset = state != null ? state.getOffset() : 0;
+
             log.d("Sending wanted file's name...");
-            writer.println(file.getName());
+            final long requested = System.nanoTime();
+
+            writer.println(new TransferRequest(file.getName(), offset, TransferRequest.TO_END, accept).toLine());
+
+            final ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+
+            DownloadSink.readFully(input, header);
+
+            final long fileSize = header.getLong(0);
+            final long latency = System.nanoTime() - requested;
+
+            if (fileSize == TransferResponse.BUSY_SIZE)
+                throw new PeerBusyException(socket.getInetAddress().getHostAddress(), UPLOAD_RETRY_AFTER);
+
+            final Encoding encoding = accept != Encoding.NONE ? readEncoding() : Encoding.NONE;
+
+            if (state != null && state.getSize() != fileSize) {
+                state.delete();
+                state = null;
+                throw new IOException(String.format("File %s changed on peer since the last attempt", file.getName()));
+            }
+
+            // The state is saved before the file is created, so the folder watcher never
+            // sees the file without it and announces it half written
+            if (state == null) {
+                state = new DownloadState(file, fileSize, CHUNK_SIZE);
+                state.save();
+
+                if (!file.createNewFile()) {
+                    state.delete();
+                    System.out.printf("Arquivo %s já existe!\n", file.getName());
+                    callback.onError(new RuntimeException(String.format("File %s already exists!", file.getName())));
+                    return;
+                }
+
+                log.d("Created file %s to download...", file.getName());
+            }
 
-            final DataInputStream dataReader = new DataInputStream(socket.getInputStream());
-            final long fileSize = dataReader.readLong();
             final ProgressBar progressBar = new ProgressBar(getName(), fileSize, "Downloading...");
 
-            byte[] buffer = new byte[BUFFER_SIZE];
-            long bytesReceived = 0;
+            long bytesReceived = offset;
+            long lastSaved = offset;
+
+            final long started = TransferMetrics.DOWNLOADS.start();
+
+            final boolean adaptive = bufferSize == ADAPTIVE;
+            final LinkTuner tuner = adaptive ? new LinkTuner(socket, latency) : null;
+
+            final FrameDecoder decoder = encoding == Encoding.DEFLATE ? new FrameDecoder(input) : null;
+            final ReadableByteChannel body = decoder != null ? decoder : input;
+
+            log.d("Downloading file with %s encoding...", encoding.getName());
+            try (final DownloadSink sink = adaptive
+                    ? DownloadSink.open(file, fileSize, TRANSFER_BUFFER_MIN, TRANSFER_BUFFER_MAX, policy)
+                    : DownloadSink.open(file, fileSize, bufferSize, policy)) {
+                try {
+                    int count;
+
+                    do {
+                        final long allowed = limit.acquire(Math.min(sink.bufferSize(), fileSize - bytesReceived));
 
-            log.d("Downloading file...");
-            try (final FileOutputStream fileWriter = new FileOutputStream(file)) {
-                int count;
+                        count = sink.read(body, bytesReceived, (int) allowed);
+                        limit.refund(allowed - Math.max(count, 0));
 
-                do {
-                    count = (reader.read(buffer));
-                    bytesReceived += count;
+                        if(count > 0) {
+                            bytesReceived += count;
 
-                    if(count > 0) {
-                        fileWriter.write(buffer, 0, count);
+                            if (tuner != null) tuner.received(decoder != null ? (int) decoder.takeReceived() : count);
 
-                        progressBar.update(bytesReceived);
-//                        progressBar.print();
-                    }
-                } while (count > 0);
+                            progressBar.update(bytesReceived);
+//                            progressBar.print();
+
+                            if (bytesReceived - lastSaved >= STATE_SAVE_INTERVAL) {
+                                checkpoint(sink, state, bytesReceived);
+                                lastSaved = bytesReceived;
+                            }
+                        }
+                    } while (count > 0 && bytesReceived < fileSize);
+                } finally {
+                    TransferMetrics.DOWNLOADS.finish(started, bytesReceived - offset, bytesReceived >= fileSize);
+                    reporter.record(source, bytesReceived - offset, System.nanoTime() - started, latency, bytesReceived >= fileSize);
+                    checkpoint(sink, state, bytesReceived);
+
+                    if (decoder != null) decoder.close();
+                }
+
+                if (bytesReceived >= fileSize) sink.complete();
             }
 
+            if (bytesReceived < fileSize)
+                throw new EOFException(String.format("Peer closed connection at byte %d of %d", bytesReceived, fileSize));
+
+            state.delete();
+
             log.d("File download! Updating on server...");
             System.out.printf(
                     "\n\nArquivo %s baixado com sucesso na pasta %s",
@@ -81,22 +238,12 @@ public class DownloadThread extends Thread {
         } catch (SocketException e) {
             System.out.println("Falha ao fazer download do arquivo!");
 
-            if (file.exists() && file.delete()) {
-                System.out.printf("Arquivo %s deletado!\n", file.getName());
-            } else {
-                System.out.println("Sem arquivos para deletar");
-            }
-
+            keepOrDelete(state);
             callback.onError(e);
         } catch (Exception e) {
             log.e("Failed to download file!", e);
 
-            if (file.exists() && file.delete()) {
-                System.out.printf("Arquivo %s deletado!\n", file.getName());
-            } else {
-                System.out.println("Sem arquivos para deletar");
-            }
-
+            keepOrDelete(state);
             callback.onError(e);
         } finally {
             try {
@@ -108,4 +255,28 @@ public class DownloadThread extends Thread {
             Operation.reprint();
         }
     }
+
+    private Encoding readEncoding() throws IOException {
+        final ByteBuffer encoding = ByteBuffer.allocate(1);
+
+        DownloadSink.readFully(input, encoding);
+
+        return Encoding.fromId(encoding.get(0));
+    }
+
+    private void checkpoint(DownloadSink sink, DownloadState state, long bytesReceived) throws IOException {
+        sink.checkpoint();
+        state.setOffset(bytesReceived);
+        state.save();
+    }
+
+    private void keepOrDelete(DownloadState state) {
+        if (state != null) {
+            System.out.printf("Download de %s interrompido, será retomado na próxima tentativa\n", file.getName());
+        } else if (file.exists() && file.delete()) {
+            System.out.printf("Arquivo %s deletado!\n", file.getName());
+        } else {
+            System.out.println("Sem arquivos para deletar");
+        }
+    }
 }
@@ -0,0 +1,238 @@
+package peer.thread;
+
+import log.ConsoleLog;
+import log.Log;
+import peer.bandwidth.UploadScheduler;
+import service.model.enums.Operation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static peer.config.Config.CONNECTION_IDLE_TIMEOUT;
+import static peer.config.Config.IDLE_SWEEP_INTERVAL;
+
+public class EventLoopThread extends Thread {
+    private static final String TAG = "EventLoopThread";
+    private static final Log log = new ConsoleLog(TAG);
+    private final Selector selector;
+    private final File folder;
+    private final UploadScheduler scheduler;
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<SelectionKey> granted = new ConcurrentLinkedQueue<>();
+    private final List<SelectionKey> throttled = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public EventLoopThread(int index, File folder) throws IOException {
+        this(index, folder, UploadScheduler.UNLIMITED);
+    }
+
+    public EventLoopThread(int index, File folder, UploadScheduler scheduler) throws IOException {
+        this.setName(TAG + "-" + index);
+        this.selector = Selector.open();
+        this.folder = folder;
+        this.scheduler = scheduler;
+    }
+
+    public void register(SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Accepted connections not yet picked up by this loop.
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            long nextSweep = System.currentTimeMillis() + IDLE_SWEEP_INTERVAL;
+
+            while (running) {
+                selector.select(timeout());
+                registerPending();
+                resumeGranted();
+                resumeThrottled();
+
+                final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+
+                while (iterator.hasNext()) {
+                    final SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    handle(key);
+                }
+
+                final long now = System.currentTimeMillis();
+
+                if (now >= nextSweep) {
+                    closeIdle(now);
+                    nextSweep = now + IDLE_SWEEP_INTERVAL;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.e("Event loop failed!", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((UploadSession) key.attachment()).close();
+            }
+
+            SocketChannel channel;
+
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore close errors
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore close errors
+            }
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+
+        while ((channel = pending.poll()) != null) {
+            final UploadSession session = new UploadSession(channel, folder, scheduler);
+
+            try {
+                channel.configureBlocking(false);
+
+                final SelectionKey key = channel.register(selector, session.interestOps(), session);
+
+                session.setWaker(() -> {
+                    granted.add(key);
+                    selector.wakeup();
+                });
+            } catch (IOException | RuntimeException e) {
+                log.e("Failed to register peer connection", e);
+                session.close();
+            }
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            final UploadSession session = (UploadSession) key.attachment();
+
+            if (key.isValid() && session.isIdle(now, CONNECTION_IDLE_TIMEOUT)) {
+                log.d("Closing idle peer connection");
+                key.cancel();
+                session.close();
+            } else if (key.isValid() && session.expireWait(now)) {
+                update(key, session);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        final UploadSession session = (UploadSession) key.attachment();
+
+        try {
+            if (key.isReadable()) session.onReadable();
+            if (key.isValid() && key.isWritable()) session.onWritable();
+
+            update(key, session);
+        } catch (IOException | RuntimeException e) {
+            fail(key, session, e);
+        }
+    }
+
+    private void update(SelectionKey key, UploadSession session) {
+        if (session.isDone()) {
+            key.cancel();
+            session.close();
+            Operation.reprint();
+        } else {
+            key.interestOps(session.interestOps());
+
+            if (session.isThrottled()) throttled.add(key);
+        }
+    }
+
+    /**
+     * Drops one session on any failure, runtime ones included, so it cannot take the
+     * other sessions of this loop down with it.
+     */
+    private void fail(SelectionKey key, UploadSession session, Exception e) {
+        System.out.println("Falha ao enviar arquivo!");
+        log.e("Failed to upload file to peer", e);
+
+        key.cancel();
+        session.close();
+    }
+
+    /**
+     * Milliseconds to block in select: until the next sweep, or until the earliest
+     * throttled upload may send again.
+     */
+    private long timeout() {
+        final long now = System.nanoTime();
+        long timeout = IDLE_SWEEP_INTERVAL;
+
+        for (SelectionKey key : throttled) {
+            final long wait = TimeUnit.NANOSECONDS.toMillis(((UploadSession) key.attachment()).getResumeAt() - now);
+
+            timeout = Math.min(timeout, Math.max(1, wait));
+        }
+
+        return timeout;
+    }
+
+    private void resumeGranted() {
+        SelectionKey key;
+
+        while ((key = granted.poll()) != null) {
+            if (!key.isValid()) continue;
+
+            final UploadSession session = (UploadSession) key.attachment();
+
+            try {
+                session.onSlotReady();
+                update(key, session);
+            } catch (IOException | RuntimeException e) {
+                fail(key, session, e);
+            }
+        }
+    }
+
+    private void resumeThrottled() {
+        if (throttled.isEmpty()) return;
+
+        final long now = System.nanoTime();
+        final Iterator<SelectionKey> iterator = throttled.iterator();
+
+        while (iterator.hasNext()) {
+            final SelectionKey key = iterator.next();
+
+            if (!key.isValid()) {
+                iterator.remove();
+            } else if (((UploadSession) key.attachment()).resume(now)) {
+                iterator.remove();
+                key.interestOps(((UploadSession) key.attachment()).interestOps());
+            }
+        }
+    }
+}
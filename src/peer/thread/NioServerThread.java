@@ -0,0 +1,109 @@
+package peer.thread;
+
+import log.ConsoleLog;
+import log.Log;
+import metrics.MetricsRegistry;
+import peer.bandwidth.UploadScheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+public class NioServerThread extends Thread implements PeerServer {
+    private static final String TAG = "NioServerThread";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final String ACCEPT_QUEUE = "peer_accept_queue";
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final EventLoopThread[] eventLoops;
+    private volatile boolean running = true;
+    private int next = 0;
+
+    public NioServerThread(ServerSocketChannel serverChannel, File folder, int eventLoopCount) throws IOException {
+        this(serverChannel, folder, eventLoopCount, UploadScheduler.UNLIMITED);
+    }
+
+    public NioServerThread(ServerSocketChannel serverChannel, File folder, int eventLoopCount, UploadScheduler scheduler) throws IOException {
+        this.setName(TAG);
+        this.serverChannel = serverChannel;
+        this.selector = Selector.open();
+        this.eventLoops = new EventLoopThread[eventLoopCount];
+
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new EventLoopThread(i, folder, scheduler);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            log.d("Starting server...");
+
+            for (EventLoopThread eventLoop : eventLoops) {
+                eventLoop.start();
+            }
+
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            MetricsRegistry.global().gauge(ACCEPT_QUEUE, this::acceptQueue);
+
+            while (running) {
+                log.d("Listening download requests...");
+                selector.select();
+                selector.selectedKeys().clear();
+
+                SocketChannel channel;
+
+                while ((channel = serverChannel.accept()) != null) {
+                    log.d("Connection established with peer %s", channel.getRemoteAddress());
+
+                    eventLoops[next].register(channel);
+                    next = (next + 1) % eventLoops.length;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            log.d("server.Server peer.thread interrupted...");
+        } catch (Exception e) {
+            System.out.printf("server.Server peer.thread failed: %s", e.getMessage());
+            log.e("Failed to start server!", e);
+        } finally {
+            MetricsRegistry.global().remove(ACCEPT_QUEUE);
+
+            for (EventLoopThread eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore close errors
+            }
+        }
+    }
+
+    private long acceptQueue() {
+        long pending = 0;
+
+        for (EventLoopThread eventLoop : eventLoops) {
+            pending += eventLoop.pendingCount();
+        }
+
+        return pending;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.e("Failed to close server channel", e);
+        }
+    }
+}
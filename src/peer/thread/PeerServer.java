@@ -0,0 +1,7 @@
+package peer.thread;
+
+public interface PeerServer extends AutoCloseable {
+    void start();
+    @Override
+    void close();
+}
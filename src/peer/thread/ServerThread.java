@@ -2,21 +2,36 @@ package peer.thread;
 
 import log.ConsoleLog;
 import log.Log;
+import peer.bandwidth.UploadScheduler;
+import peer.executor.TransferExecutor;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
 
-public class ServerThread extends Thread {
+import static peer.config.Config.TRANSFER_BUFFER_MIN;
+
+public class ServerThread extends Thread implements PeerServer {
     private static final String TAG = "ServerThread";
     private static final Log log = new ConsoleLog(TAG);
     private final ServerSocket serverSocket;
     private final File folder;
+    private final TransferExecutor executor;
+    private final UploadScheduler scheduler;
+
+    public ServerThread(ServerSocket serverSocket, File folder, TransferExecutor executor) {
+        this(serverSocket, folder, executor, UploadScheduler.UNLIMITED);
+    }
 
-    public ServerThread(ServerSocket serverSocket, File folder) {
+    public ServerThread(ServerSocket serverSocket, File folder, TransferExecutor executor, UploadScheduler scheduler) {
+        this.setName(TAG);
         this.serverSocket = serverSocket;
         this.folder = folder;
+        this.executor = executor;
+        this.scheduler = scheduler;
     }
 
     @Override
@@ -28,16 +43,26 @@ public class ServerThread extends Thread {
             while (true) {
                 log.d("Listening download requests...");
                 final Socket socket = serverSocket.accept();
-                log.d(String.format("Connection established with peer %s", socket.getInetAddress().getHostName()));
+                if (log.isDebug())
+                    log.d("Connection established with peer %s", socket.getInetAddress().getHostName());
 
-                UploadThread thread = new UploadThread(socket, folder);
-                thread.start();
+                final UploadThread upload = new UploadThread(socket, folder, TRANSFER_BUFFER_MIN, scheduler);
+                executor.execute(upload, upload.getName());
             }
-        } catch (SocketException e) {
+        } catch (SocketException | ClosedChannelException e) {
             log.d("server.Server peer.thread interrupted...");
         } catch (Exception e) {
             System.out.printf("server.Server peer.thread failed: %s", e.getMessage());
             log.e("Failed to start server!", e);
         }
     }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.e("Failed to close server socket", e);
+        }
+    }
 }
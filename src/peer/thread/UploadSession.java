@@ -0,0 +1,439 @@
+package peer.thread;
+
+import log.ConsoleLog;
+import log.Log;
+import metrics.TransferMetrics;
+import peer.bandwidth.UploadScheduler;
+import peer.compress.Compressibility;
+import peer.compress.FrameEncoder;
+import peer.protocol.Encoding;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+
+import static peer.config.Config.REQUEST_LINE_LIMIT;
+import static peer.config.Config.UPLOAD_QUEUE_TIMEOUT;
+import static peer.config.Config.UPLOAD_RETRY_AFTER;
+
+class UploadSession {
+    private static final String TAG = "UploadSession";
+    private static final Log log = new ConsoleLog(TAG);
+    private final SocketChannel channel;
+    private final File folder;
+    private final UploadScheduler scheduler;
+    private final ByteBuffer request = ByteBuffer.allocate(REQUEST_LINE_LIMIT);
+    private final ByteBuffer header = ByteBuffer.allocate(TransferResponse.SIZE);
+    private State state = State.READ_REQUEST;
+    private boolean pipelined = false;
+    private long lastActivity = System.currentTimeMillis();
+    private Runnable waker = () -> {};
+    private CompletableFuture<UploadScheduler.Slot> slotRequest;
+    private TransferRequest pendingRequest;
+    private UploadScheduler.Slot slot;
+    private boolean throttled = false;
+    private long resumeAt;
+    private FileChannel fileChannel;
+    private FrameEncoder encoder;
+    private File file;
+    private long position;
+    private long end;
+    private boolean transferring = false;
+    private long started;
+    private long begin;
+
+    private enum State {
+        READ_REQUEST,
+        WAIT_SLOT,
+        WRITE_HEADER,
+        WRITE_BODY,
+        DONE
+    }
+
+    UploadSession(SocketChannel channel, File folder, UploadScheduler scheduler) {
+        this.channel = channel;
+        this.folder = folder;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets what to call, from any thread, when a queued request got its upload slot.
+     */
+    void setWaker(Runnable waker) {
+        this.waker = waker;
+    }
+
+    void onReadable() throws IOException {
+        if (state != State.READ_REQUEST) return;
+
+        if (channel.read(request) < 0) {
+            if (!pipelined)
+                log.d("Peer closed connection before sending a request");
+
+            state = State.DONE;
+            return;
+        }
+
+        lastActivity = System.currentTimeMillis();
+        nextRequest();
+    }
+
+    void onWritable() throws IOException {
+        if (state == State.WRITE_HEADER) {
+            channel.write(header);
+
+            if (header.hasRemaining()) return;
+
+            if (file != null)
+                log.d("Uploading file %s...", file.getName());
+
+            state = State.WRITE_BODY;
+        }
+
+        if (state == State.WRITE_BODY) {
+            if (encoder != null) {
+                if (!writeFrames()) return;
+            } else if (position < end) {
+                final long allowed = slot.take(end - position);
+
+                if (allowed == 0) {
+                    throttled = true;
+                    resumeAt = System.nanoTime() + slot.delayNanos(end - position);
+                    return;
+                }
+
+                final long count = fileChannel.transferTo(position, allowed, channel);
+
+                if (count == 0 && position >= fileChannel.size())
+                    throw new EOFException(String.format("File %s shrank while uploading", file.getName()));
+
+                slot.refund(allowed - count);
+                position += count;
+            }
+
+            if (position >= end) {
+                lastActivity = System.currentTimeMillis();
+                finishTransfer(true);
+
+                if (pipelined) {
+                    closeFile();
+                    state = State.READ_REQUEST;
+                    nextRequest();
+                } else {
+                    if (file != null)
+                        log.d("Upload of %s finished! Closing connection...", file.getName());
+
+                    state = State.DONE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the queued request once its slot was granted.
+     */
+    void onSlotReady() throws IOException {
+        if (state == State.WAIT_SLOT && slotRequest.isDone())
+            begin(slotRequest.join());
+    }
+
+    /**
+     * Gives up on a slot after waiting too long, telling the peer to retry later.
+     *
+     * @return whether the session changed state
+     */
+    boolean expireWait(long now) {
+        if (state != State.WAIT_SLOT || now - lastActivity <= UPLOAD_QUEUE_TIMEOUT) return false;
+
+        final UploadScheduler.Slot granted = scheduler.withdraw(slotRequest);
+
+        try {
+            if (granted != null) {
+                begin(granted);
+            } else {
+                busy();
+            }
+        } catch (IOException e) {
+            log.e("Failed to start queued upload", e);
+            state = State.DONE;
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the upload ran out of bandwidth and waits for {@link #resume(long)}.
+     */
+    boolean isThrottled() {
+        return throttled;
+    }
+
+    long getResumeAt() {
+        return resumeAt;
+    }
+
+    /**
+     * @return whether the throttled upload may send again at {@code now}
+     */
+    boolean resume(long now) {
+        if (!throttled || now - resumeAt < 0) return false;
+
+        throttled = false;
+
+        return true;
+    }
+
+    /**
+     * Whether the session waited longer than {@code timeout} for the next request.
+     */
+    boolean isIdle(long now, long timeout) {
+        return state == State.READ_REQUEST && now - lastActivity > timeout;
+    }
+
+    int interestOps() {
+        if (state == State.WAIT_SLOT || throttled) return 0;
+
+        return state == State.READ_REQUEST ? SelectionKey.OP_READ : SelectionKey.OP_WRITE;
+    }
+
+    boolean isDone() {
+        return state == State.DONE;
+    }
+
+    void close() {
+        if (slotRequest != null) {
+            final UploadScheduler.Slot granted = scheduler.withdraw(slotRequest);
+
+            if (granted != null) granted.close();
+
+            slotRequest = null;
+        }
+
+        finishTransfer(false);
+        closeFile();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+    private void nextRequest() throws IOException {
+        while (state == State.READ_REQUEST) {
+            final String line = takeLine();
+
+            if (line == null) {
+                if (!request.hasRemaining())
+                    throw new IOException("Request line exceeds limit");
+
+                return;
+            }
+
+            if (!pipelined && line.equals(TransferResponse.PIPELINE)) {
+                log.d("Peer %s opened a pipelined connection", channel.getRemoteAddress());
+                pipelined = true;
+                // Header and body are separate writes; without this Nagle holds the body
+                // back until the client's delayed ACK of the header
+                channel.socket().setTcpNoDelay(true);
+                continue;
+            }
+
+            start(TransferRequest.parse(line));
+        }
+    }
+
+    private void start(TransferRequest transferRequest) throws IOException {
+        file = new File(folder.getPath(), transferRequest.getFilename());
+        header.clear();
+
+        if (!file.isFile()) {
+            log.e(String.format("File %s requested by peer was not found", file.getName()));
+
+            if (!pipelined) {
+                state = State.DONE;
+                return;
+            }
+
+            file = null;
+            position = end = 0;
+            TransferResponse.notFound().write(header);
+            header.flip();
+            state = State.WRITE_HEADER;
+            return;
+        }
+
+        pendingRequest = transferRequest;
+
+        final CompletableFuture<UploadScheduler.Slot> granted = scheduler.request(((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress());
+
+        if (granted == null) {
+            busy();
+        } else if (granted.isDone()) {
+            begin(granted.join());
+        } else {
+            log.d("Queued request for %s until an upload slot is free", file.getName());
+            slotRequest = granted;
+            state = State.WAIT_SLOT;
+            granted.thenRun(waker);
+        }
+    }
+
+    private void begin(UploadScheduler.Slot granted) throws IOException {
+        final TransferRequest transferRequest = pendingRequest;
+
+        slot = granted;
+        slotRequest = null;
+        pendingRequest = null;
+        fileChannel = new FileInputStream(file).getChannel();
+        final long size = fileChannel.size();
+
+        position = transferRequest.start(size);
+        end = transferRequest.end(size);
+        begin = position;
+        started = TransferMetrics.UPLOADS.start();
+        transferring = true;
+
+        if (pipelined) {
+            new TransferResponse(TransferResponse.OK, size, end - position).write(header);
+        } else {
+            header.putLong(size);
+
+            if (transferRequest.getAccept() != Encoding.NONE) {
+                final Encoding encoding = Compressibility.choose(transferRequest.getAccept(), file, fileChannel, position, end);
+
+                header.put(encoding.getId());
+
+                if (encoding == Encoding.DEFLATE) encoder = new FrameEncoder(fileChannel, position, end);
+            }
+        }
+
+        header.flip();
+        state = State.WRITE_HEADER;
+
+        if (pipelined) {
+            log.d("Sending file %s to peer %s", file.getName(), channel.getRemoteAddress());
+        } else {
+            System.out.printf(
+                    "\n\nEnviando arquivo %s ao peer %s...\n",
+                    file.getName(),
+                    channel.getRemoteAddress()
+            );
+        }
+    }
+
+    /**
+     * Writes compressed frames until the socket or the bandwidth runs out.
+     *
+     * @return whether the end frame was written
+     */
+    private boolean writeFrames() throws IOException {
+        ByteBuffer frame;
+
+        while ((frame = encoder.pending()).hasRemaining()) {
+            final long allowed = slot.take(frame.remaining());
+
+            if (allowed == 0) {
+                throttled = true;
+                resumeAt = System.nanoTime() + slot.delayNanos(frame.remaining());
+                return false;
+            }
+
+            final int limit = frame.limit();
+
+            frame.limit(frame.position() + (int) allowed);
+
+            final int count = channel.write(frame);
+
+            frame.limit(limit);
+            slot.refund(allowed - count);
+            position = encoder.position();
+
+            if (frame.hasRemaining()) return false;
+        }
+
+        position = encoder.position();
+
+        return true;
+    }
+
+    private void busy() {
+        log.w(String.format("No upload slot free for %s, asking peer to retry", file.getName()));
+
+        if (pipelined) {
+            TransferResponse.busy(UPLOAD_RETRY_AFTER).write(header);
+        } else {
+            header.putLong(TransferResponse.BUSY_SIZE);
+        }
+
+        file = null;
+        pendingRequest = null;
+        position = end = 0;
+        header.flip();
+        state = State.WRITE_HEADER;
+    }
+
+    /**
+     * Records the file being sent, if any. A session closed halfway counts as failed.
+     */
+    private void finishTransfer(boolean success) {
+        if (!transferring) return;
+
+        TransferMetrics.UPLOADS.finish(started, position - begin, success);
+        transferring = false;
+    }
+
+    private void closeFile() {
+        if (encoder != null) {
+            encoder.close();
+            encoder = null;
+        }
+
+        try {
+            if (fileChannel != null) fileChannel.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+
+        fileChannel = null;
+
+        if (slot != null) {
+            slot.close();
+            slot = null;
+        }
+    }
+
+    /**
+     * Removes the first complete line from the request buffer, keeping whatever the peer
+     * already pipelined after it.
+     */
+    private String takeLine() {
+        for (int i = 0; i < request.position(); i++) {
+            if (request.get(i) == '\n') {
+                int end = i;
+
+                if (end > 0 && request.get(end - 1) == '\r') end--;
+
+                final String line = new String(request.array(), 0, end, Charset.defaultCharset());
+
+                request.flip();
+                request.position(i + 1);
+                request.compact();
+
+                return line;
+            }
+        }
+
+        return null;
+    }
+}
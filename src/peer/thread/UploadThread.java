@@ -2,71 +2,136 @@ package peer.thread;
 
 import log.ConsoleLog;
 import log.Log;
+import metrics.TransferMetrics;
+import peer.bandwidth.UploadScheduler;
+import peer.buffer.BufferPool;
+import peer.compress.Compressibility;
+import peer.compress.FrameEncoder;
+import peer.protocol.Encoding;
+import peer.protocol.TransferRequest;
+import peer.protocol.TransferResponse;
 import service.model.enums.Operation;
 import view.ProgressBar;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static peer.config.Config.BUFFER_SIZE;
+import static peer.config.Config.CONNECTION_IDLE_TIMEOUT;
+import static peer.config.Config.TRANSFER_BUFFER_MIN;
+import static peer.config.Config.UPLOAD_QUEUE_TIMEOUT;
+import static peer.config.Config.UPLOAD_RETRY_AFTER;
 import static util.AssertUtil.check;
 
-public class UploadThread extends Thread {
+public class UploadThread implements Runnable {
     private static final String TAG = "UploadThread";
     private static final Log log = new ConsoleLog(TAG);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private final String name = TAG + "-" + COUNTER.incrementAndGet();
     private final File folder;
     private final Socket socket;
     private final BufferedReader reader;
     private final OutputStream writer;
+    private final int bufferSize;
+    private final UploadScheduler scheduler;
 
     public UploadThread(Socket socket, File folder) throws IOException {
+        this(socket, folder, TRANSFER_BUFFER_MIN);
+    }
+
+    public UploadThread(Socket socket, File folder, int bufferSize) throws IOException {
+        this(socket, folder, bufferSize, UploadScheduler.UNLIMITED);
+    }
+
+    public UploadThread(Socket socket, File folder, int bufferSize, UploadScheduler scheduler) throws IOException {
         this.folder = folder;
-        this.setName(TAG + "-" + getId());
         this.socket = socket;
+        this.bufferSize = bufferSize;
+        this.scheduler = scheduler;
         this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.writer = socket.getOutputStream();
+        this.writer = new BufferedOutputStream(socket.getOutputStream(), bufferSize);
+    }
+
+    public String getName() {
+        return name;
     }
 
     @Override
     public void run() {
         try {
             log.d("Upload started! Reading desired file from client...");
-            final File file = new File(folder.getPath(), reader.readLine());
+            final String line = reader.readLine();
+
+            if (TransferResponse.PIPELINE.equals(line)) {
+                servePipelined();
+                return;
+            }
+
+            final TransferRequest request = TransferRequest.parse(line);
+            final File file = new File(folder.getPath(), request.getFilename());
 
             check(file.exists(), String.format("Arquivo %s não encontrado!", file.getName()));
 
-            final ProgressBar progressBar = new ProgressBar(getName(), file.length(), "Uploading...");
-            final DataOutputStream dataWriter = new DataOutputStream(socket.getOutputStream());
+            final long size = file.length();
+            final long start = request.start(size);
+            final long end = request.end(size);
+            final ProgressBar progressBar = new ProgressBar(getName(), end - start, "Uploading...");
+            final DataOutputStream dataWriter = new DataOutputStream(writer);
 
-            log.d("Sending file size to peer");
-            dataWriter.writeLong(file.length());
+            try (final UploadScheduler.Slot slot = scheduler.acquire(socket.getInetAddress().getHostAddress(), UPLOAD_QUEUE_TIMEOUT)) {
+                if (slot == null) {
+                    System.out.printf("\n\nSem vagas de upload, peer %s deve tentar novamente\n", socket.getInetAddress().getHostAddress());
+                    dataWriter.writeLong(TransferResponse.BUSY_SIZE);
+                    dataWriter.flush();
+                    return;
+                }
 
-            final byte[] buffer = new byte[BUFFER_SIZE];
-            long bytesSent = 0;
-            int bytesCount;
+                final Encoding encoding;
 
-            System.out.printf(
-                    "\n\nEnviando arquivo %s ao peer %s:%d...\n",
-                    file.getName(),
-                    socket.getInetAddress().getHostName(),
-                    socket.getPort()
-            );
-            log.d(String.format("Uploading file to peer %s", socket.getInetAddress().getHostName()));
+                try (final FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+                    encoding = Compressibility.choose(request.getAccept(), file, fileChannel, start, end);
+                }
 
-            try(final FileInputStream fileReader = new FileInputStream(file)) {
-                do {
-                    bytesCount = fileReader.read(buffer);
-                    bytesSent += bytesCount;
+                log.d("Sending file size to peer");
+                dataWriter.writeLong(size);
 
-                    if(bytesCount > 0) {
-                        writer.write(buffer, 0, bytesCount);
-                        writer.flush();
+                if (request.getAccept() != Encoding.NONE) dataWriter.writeByte(encoding.getId());
 
-                        progressBar.update(bytesSent);
-//                    progressBar.print();
+                dataWriter.flush();
+
+                System.out.printf(
+                        "\n\nEnviando arquivo %s ao peer %s:%d...\n",
+                        file.getName(),
+                        socket.getInetAddress().getHostName(),
+                        socket.getPort()
+                );
+
+                if (log.isDebug())
+                    log.d("Uploading file to peer %s", socket.getInetAddress().getHostName());
+
+                final long started = TransferMetrics.UPLOADS.start();
+                boolean sent = false;
+
+                try {
+                    if (encoding == Encoding.DEFLATE) {
+                        sendCompressed(file, start, end, progressBar, slot);
+                        writer.flush();
+                    } else if (socket.getChannel() != null) {
+                        sendWithChannel(file, start, end, socket.getChannel(), progressBar, slot);
+                    } else {
+                        sendWithStream(file, start, end, progressBar, slot);
+                        writer.flush();
                     }
-                } while (bytesCount > 0);
+
+                    sent = true;
+                } finally {
+                    TransferMetrics.UPLOADS.finish(started, sent ? end - start : 0, sent);
+                }
             }
 
             log.d("Upload finished! Closing connection...");
@@ -86,4 +151,142 @@ public class UploadThread extends Thread {
             Operation.reprint();
         }
     }
+
+    private void servePipelined() throws IOException {
+        final DataOutputStream dataWriter = new DataOutputStream(writer);
+        String line;
+
+        if (log.isDebug())
+            log.d("Peer %s opened a pipelined connection", socket.getInetAddress().getHostName());
+
+        socket.setSoTimeout(CONNECTION_IDLE_TIMEOUT);
+        socket.setTcpNoDelay(true);
+
+        try {
+            while ((line = reader.readLine()) != null) {
+                final TransferRequest request = TransferRequest.parse(line);
+                final File file = new File(folder.getPath(), request.getFilename());
+
+                if (!file.isFile()) {
+                    log.e(String.format("File %s requested by peer was not found", file.getName()));
+                    TransferResponse.notFound().write(dataWriter);
+                    dataWriter.flush();
+                    continue;
+                }
+
+                final long size = file.length();
+                final long start = request.start(size);
+                final long end = request.end(size);
+                final ProgressBar progressBar = new ProgressBar(getName(), end - start, "Uploading...");
+
+                try (final UploadScheduler.Slot slot = scheduler.acquire(socket.getInetAddress().getHostAddress(), UPLOAD_QUEUE_TIMEOUT)) {
+                    if (slot == null) {
+                        log.w(String.format("No upload slot free for %s, asking peer to retry", file.getName()));
+                        TransferResponse.busy(UPLOAD_RETRY_AFTER).write(dataWriter);
+                        dataWriter.flush();
+                        continue;
+                    }
+
+                    new TransferResponse(TransferResponse.OK, size, end - start).write(dataWriter);
+
+                    if (log.isDebug())
+                        log.d("Sending file %s to peer %s", file.getName(), socket.getInetAddress().getHostName());
+
+                    final long started = TransferMetrics.UPLOADS.start();
+                    boolean sent = false;
+
+                    try {
+                        if (socket.getChannel() != null && end - start > bufferSize) {
+                            dataWriter.flush();
+                            sendWithChannel(file, start, end, socket.getChannel(), progressBar, slot);
+                        } else {
+                            sendWithStream(file, start, end, progressBar, slot);
+                        }
+
+                        sent = true;
+                    } finally {
+                        TransferMetrics.UPLOADS.finish(started, sent ? end - start : 0, sent);
+                    }
+                }
+
+                // Small responses to requests already waiting are coalesced in one write
+                if (!reader.ready()) dataWriter.flush();
+            }
+        } catch (SocketTimeoutException e) {
+            log.d("Closing idle pipelined connection");
+        }
+    }
+
+    private void sendWithChannel(File file, long start, long end, SocketChannel socketChannel, ProgressBar progressBar, UploadScheduler.Slot slot) throws IOException {
+        log.d("Sending file through zero-copy channel transfer...");
+
+        try (final FileChannel fileChannel = new FileInputStream(file).getChannel()) {
+            long position = start;
+
+            while (position < end) {
+                final long allowed = slot.acquire(end - position);
+                final long count = fileChannel.transferTo(position, allowed, socketChannel);
+
+                if (count <= 0) {
+                    throw new EOFException(String.format("File %s shrank while uploading", file.getName()));
+                }
+
+                slot.refund(allowed - count);
+
+                position += count;
+                progressBar.update(position - start);
+            }
+        }
+    }
+
+    private void sendCompressed(File file, long start, long end, ProgressBar progressBar, UploadScheduler.Slot slot) throws IOException {
+        log.d("Sending file through compressed frames...");
+
+        try (final FileChannel fileChannel = new FileInputStream(file).getChannel();
+             final FrameEncoder encoder = new FrameEncoder(fileChannel, start, end)) {
+            ByteBuffer frame;
+
+            while ((frame = encoder.pending()).hasRemaining()) {
+                final int allowed = (int) slot.acquire(frame.remaining());
+
+                writer.write(frame.array(), frame.position(), allowed);
+                frame.position(frame.position() + allowed);
+
+                progressBar.update(encoder.position() - start);
+            }
+        }
+    }
+
+    private void sendWithStream(File file, long start, long end, ProgressBar progressBar, UploadScheduler.Slot slot) throws IOException {
+        log.d("Sending file through stream copy...");
+
+        final ByteBuffer pooled = BufferPool.heap().acquire(bufferSize);
+        final byte[] buffer = pooled.array();
+        final long length = end - start;
+        long bytesSent = 0;
+        int bytesCount;
+
+        try(final FileInputStream fileReader = new FileInputStream(file)) {
+            if (fileReader.skip(start) != start) {
+                throw new EOFException(String.format("File %s shrank while uploading", file.getName()));
+            }
+
+            do {
+                final long allowed = slot.acquire(Math.min(bufferSize, length - bytesSent));
+
+                bytesCount = fileReader.read(buffer, 0, (int) allowed);
+                slot.refund(allowed - Math.max(bytesCount, 0));
+
+                if(bytesCount > 0) {
+                    bytesSent += bytesCount;
+                    writer.write(buffer, 0, bytesCount);
+
+                    progressBar.update(bytesSent);
+//                    progressBar.print();
+                }
+            } while (bytesCount > 0 && bytesSent < length);
+        } finally {
+            BufferPool.heap().release(pooled);
+        }
+    }
 }
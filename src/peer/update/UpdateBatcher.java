@@ -0,0 +1,139 @@
+package peer.update;
+
+import log.ConsoleLog;
+import log.Log;
+import service.model.response.UpdateResponse;
+
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static peer.config.Config.UPDATE_BATCH_LIMIT;
+import static peer.config.Config.UPDATE_BATCH_WINDOW;
+
+public class UpdateBatcher implements AutoCloseable {
+    private static final String TAG = "UpdateBatcher";
+    private static final Log log = new ConsoleLog(TAG);
+    private final Sender sender;
+    private final HashSender hashSender;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, TAG);
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+    private Set<String> added = new LinkedHashSet<>();
+    private Set<String> removed = new LinkedHashSet<>();
+    private Map<String, String> hashes = new LinkedHashMap<>();
+    private boolean scheduled = false;
+
+    public interface Sender {
+        String send(List<String> added, List<String> removed) throws RemoteException;
+    }
+
+    public interface HashSender {
+        String send(Map<String, String> hashes) throws RemoteException;
+    }
+
+    public UpdateBatcher(Sender sender, HashSender hashSender) {
+        this.sender = sender;
+        this.hashSender = hashSender;
+    }
+
+    public synchronized void add(String filename) {
+        removed.remove(filename);
+        added.add(filename);
+        schedule();
+    }
+
+    public synchronized void remove(String filename) {
+        added.remove(filename);
+        hashes.remove(filename);
+        removed.add(filename);
+        schedule();
+    }
+
+    /**
+     * Queues the content hash of a shared file, sent after the names of the same batch.
+     */
+    public synchronized void hash(String filename, String hash) {
+        hashes.put(filename, hash);
+        schedule();
+    }
+
+    public void flush() {
+        final Set<String> addedBatch;
+        final Set<String> removedBatch;
+        final Map<String, String> hashesBatch;
+
+        synchronized (this) {
+            scheduled = false;
+
+            if (added.isEmpty() && removed.isEmpty() && hashes.isEmpty()) return;
+
+            addedBatch = added;
+            removedBatch = removed;
+            hashesBatch = hashes;
+            added = new LinkedHashSet<>();
+            removed = new LinkedHashSet<>();
+            hashes = new LinkedHashMap<>();
+        }
+
+        final List<String> addedList = new ArrayList<>(addedBatch);
+        final List<String> removedList = new ArrayList<>(removedBatch);
+
+        try {
+            for (int start = 0; start < Math.max(addedList.size(), removedList.size()); start += UPDATE_BATCH_LIMIT) {
+                final String result = sender.send(slice(addedList, start), slice(removedList, start));
+
+                if (!result.equals(UpdateResponse.OK.getCode()))
+                    throw new RuntimeException(String.format("Server answered %s", result));
+            }
+
+            final List<Map.Entry<String, String>> hashList = new ArrayList<>(hashesBatch.entrySet());
+
+            for (int start = 0; start < hashList.size(); start += UPDATE_BATCH_LIMIT) {
+                final Map<String, String> slice = new HashMap<>();
+
+                for (Map.Entry<String, String> hash : hashList.subList(start, Math.min(hashList.size(), start + UPDATE_BATCH_LIMIT))) {
+                    slice.put(hash.getKey(), hash.getValue());
+                }
+
+                final String result = hashSender.send(slice);
+
+                if (!result.equals(UpdateResponse.OK.getCode()))
+                    throw new RuntimeException(String.format("Server answered %s", result));
+            }
+
+            log.d("Updated server with %d added and %d removed files", addedList.size(), removedList.size());
+        } catch (RemoteException e) {
+            log.e("Failed to run operation on remote service", e);
+            System.out.println("Falha na execução da operação no serviço remoto");
+        } catch (RuntimeException e) {
+            log.e(String.format("Failed to update %d files on server", addedList.size() + removedList.size()), e);
+            System.out.printf("Falha ao atualizar arquivos no servidor: %s\n", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private void schedule() {
+        if (scheduled) return;
+
+        scheduled = true;
+        scheduler.schedule(this::flush, UPDATE_BATCH_WINDOW, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<String> slice(List<String> list, int start) {
+        if (start >= list.size()) return new ArrayList<>();
+
+        return new ArrayList<>(list.subList(start, Math.min(list.size(), start + UPDATE_BATCH_LIMIT)));
+    }
+}
@@ -0,0 +1,197 @@
+package peer.watch;
+
+import log.ConsoleLog;
+import log.Log;
+import peer.download.DownloadState;
+import peer.hash.HashCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static peer.config.Config.RECONCILE_INTERVAL;
+import static peer.config.Config.WATCH_DEBOUNCE;
+import static peer.config.Config.WATCH_POLL;
+
+/**
+ * Keeps the server index in sync with the peer folder without user input.
+ *
+ * <p>Create, delete and modify events only mark a name as pending; the file is looked
+ * at once no event arrived for it during {@code WATCH_DEBOUNCE}, so a file still being
+ * copied is announced once, and a rename is seen as the removal of the old name and
+ * the addition of the new one. Since watch events can be lost (queue overflow,
+ * platforms without native support), every {@code RECONCILE_INTERVAL} the folder is
+ * listed and compared by size and modification time against the known files.
+ */
+public class FolderWatcher implements AutoCloseable {
+    private static final String TAG = "FolderWatcher";
+    private static final Log log = new ConsoleLog(TAG);
+    private final File folder;
+    private final Listener listener;
+    private final Map<String, Long> pending = new HashMap<>();
+    private final Map<String, FileVersion> known = new HashMap<>();
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public interface Listener {
+        void added(String filename);
+        void modified(String filename);
+        void removed(String filename);
+    }
+
+    private static class FileVersion {
+        private final long size;
+        private final long lastModified;
+
+        private FileVersion(File file) {
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        private boolean sameAs(FileVersion other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
+
+    public FolderWatcher(File folder, Collection<String> shared, Listener listener) throws IOException {
+        this.folder = folder;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.thread = new Thread(this::run, TAG);
+        this.thread.setDaemon(true);
+
+        for (String filename : shared) {
+            known.put(filename, new FileVersion(new File(folder, filename)));
+        }
+
+        folder.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    }
+
+    /**
+     * Whether a file in the peer folder is shared, as opposed to a directory, a partial
+     * download or one of the peer's own bookkeeping files.
+     */
+    public static boolean isShared(File file) {
+        final String name = file.getName();
+
+        return file.isFile()
+                && !DownloadState.isStateFile(name)
+                && !HashCache.isCacheFile(name)
+                && !DownloadState.isPartial(file);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.e("Failed to close watch service", e);
+        }
+    }
+
+    private void run() {
+        long nextReconcile = System.currentTimeMillis() + RECONCILE_INTERVAL;
+
+        while (running) {
+            try {
+                final WatchKey key = watchService.poll(WATCH_POLL, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    collect(key);
+
+                    if (!key.reset()) {
+                        log.w("Peer folder is no longer accessible, stopping watcher");
+                        return;
+                    }
+                }
+
+                final long now = System.currentTimeMillis();
+
+                flushPending(now);
+
+                if (now >= nextReconcile) {
+                    reconcile();
+                    nextReconcile = System.currentTimeMillis() + RECONCILE_INTERVAL;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.e("Failed to process folder changes", e);
+            }
+        }
+    }
+
+    private void collect(WatchKey key) {
+        final long deadline = System.currentTimeMillis() + WATCH_DEBOUNCE;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                log.w("Missed folder events, rescanning");
+                reconcile();
+                continue;
+            }
+
+            final String name = ((Path) event.context()).getFileName().toString();
+
+            pending.put(DownloadState.isStateFile(name) ? DownloadState.targetOf(name) : name, deadline);
+        }
+    }
+
+    private void flushPending(long now) {
+        final Iterator<Map.Entry<String, Long>> iterator = pending.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+
+            if (entry.getValue() > now) continue;
+
+            iterator.remove();
+            check(entry.getKey());
+        }
+    }
+
+    private void reconcile() {
+        final String[] names = folder.list();
+
+        if (names == null) return;
+
+        final Set<String> candidates = new HashSet<>(known.keySet());
+
+        candidates.addAll(Arrays.asList(names));
+        candidates.removeAll(pending.keySet());
+        candidates.forEach(this::check);
+    }
+
+    private void check(String filename) {
+        if (filename == null) return;
+
+        final File file = new File(folder, filename);
+
+        if (isShared(file)) {
+            final FileVersion current = new FileVersion(file);
+            final FileVersion previous = known.put(filename, current);
+
+            if (previous == null) {
+                log.d("File %s was added", filename);
+                listener.added(filename);
+            } else if (!previous.sameAs(current)) {
+                log.d("File %s was modified", filename);
+                listener.modified(filename);
+            }
+        } else if (known.remove(filename) != null) {
+            log.d("File %s was removed", filename);
+            listener.removed(filename);
+        }
+    }
+}
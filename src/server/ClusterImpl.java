@@ -0,0 +1,47 @@
+package server;
+
+import log.ConsoleLog;
+import log.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClusterImpl implements Server {
+    private static final String TAG = "server.ClusterImpl";
+    private final Log log = new ConsoleLog(TAG);
+    private final List<Server> nodes = new ArrayList<>();
+
+    public ClusterImpl(ServerOptions options) throws IOException {
+        this.log.setDebug(options.isDebug());
+
+        try {
+            for (int i = 0; i < options.getNodes(); i++) {
+                log.d("Creating node %d/%d...", i + 1, options.getNodes());
+                nodes.add(new ServerImpl(options.forNode(i)));
+            }
+        } catch (IOException e) {
+            close();
+
+            throw e;
+        }
+    }
+
+    @Override
+    public void start() {
+        for (Server node : nodes) {
+            node.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Server node : nodes) {
+            try {
+                node.close();
+            } catch (Exception e) {
+                log.e("Failed to stop node gracefully!", e);
+            }
+        }
+    }
+}
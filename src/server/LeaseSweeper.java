@@ -0,0 +1,77 @@
+package server;
+
+import log.ConsoleLog;
+import log.Log;
+import service.model.repository.PeerRepository;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LeaseSweeper implements AutoCloseable {
+    private static final String TAG = "LeaseSweeper";
+    private final Log log = new ConsoleLog(TAG);
+    private final PeerRepository repository;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, TAG);
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+    private final AtomicLong sweeps = new AtomicLong();
+    private final AtomicLong totalExpired = new AtomicLong();
+    private volatile int lastExpired;
+    private volatile long lastSweepNanos;
+
+    public LeaseSweeper(PeerRepository repository, boolean debug) {
+        this.repository = repository;
+        this.log.setDebug(debug);
+    }
+
+    public void start(long interval) {
+        scheduler.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void sweep() {
+        try {
+            final long start = System.nanoTime();
+            final List<String> expired = repository.expire(System.currentTimeMillis());
+
+            lastSweepNanos = System.nanoTime() - start;
+            lastExpired = expired.size();
+            sweeps.incrementAndGet();
+            totalExpired.addAndGet(expired.size());
+
+            log.d("Sweep expired %d peers in %d us", expired.size(), TimeUnit.NANOSECONDS.toMicros(lastSweepNanos));
+
+            if (!expired.isEmpty())
+                System.out.printf("Peers %s removidos por inatividade\n", String.join(", ", expired));
+        } catch (Exception e) {
+            log.e("Failed to sweep expired peers", e);
+        }
+    }
+
+    public long getSweeps() {
+        return sweeps.get();
+    }
+
+    public long getTotalExpired() {
+        return totalExpired.get();
+    }
+
+    public int getLastExpired() {
+        return lastExpired;
+    }
+
+    public long getLastSweepNanos() {
+        return lastSweepNanos;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -2,33 +2,80 @@ package server;
 
 import log.ConsoleLog;
 import log.Log;
+import metrics.MetricsEndpoint;
+import metrics.MetricsRegistry;
+import service.InstrumentedNapster;
+import service.Napster;
 import service.NapsterImpl;
+import service.model.repository.CachingPeerRepository;
+import service.model.repository.CompactPeerRepository;
+import service.model.repository.PeerRepository;
+import service.model.repository.PeerRepositoryImpl;
+import service.model.repository.PersistentPeerRepository;
+import service.transport.BinaryNapsterServer;
+import service.transport.RmiNapsterServer;
+import service.transport.Transport;
 
-import java.rmi.RemoteException;
+import java.io.IOException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.Arrays;
 
+import static service.config.Config.NAPSTER_ADDRESS;
+import static service.config.Config.SWEEP_INTERVAL;
+
 public class ServerImpl implements Server {
     private static final String TAG = "server.ServerImpl";
-    private static final int REGISTRY_PORT = 1099;
-    private static final String NAPSTER_ADDRESS = "rmi://localhost/napster";
     private final Log log = new ConsoleLog(TAG);
     private final Registry registry;
-    private final boolean debug;
+    private final BinaryNapsterServer binaryServer;
+    private final PeerRepository repository;
+    private final LeaseSweeper sweeper;
+    private final Napster napster;
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private final Object[] labels;
+
+    public ServerImpl(ServerOptions options) throws IOException {
+        final boolean debug = options.isDebug();
 
-    public ServerImpl(boolean debug) throws RemoteException {
-        this.debug = debug;
         this.log.setDebug(debug);
+        this.labels = new Object[]{"node", options.getPort()};
+
+        final PeerRepository storage = options.isCompact() ? new CompactPeerRepository() : new PeerRepositoryImpl();
+        final PeerRepository durable;
+
+        if (options.getDataFolder() != null) {
+            log.d("Recovering index from %s...", options.getDataFolder().getPath());
+            durable = new PersistentPeerRepository(storage, options.getDataFolder());
+        } else {
+            durable = storage;
+        }
+
+        this.repository = new CachingPeerRepository(durable, options.getSearchCache(), labels);
 
-        log.d("Creating registry...");
-        registry = LocateRegistry.createRegistry(REGISTRY_PORT);
+        this.sweeper = new LeaseSweeper(repository, debug);
+        this.napster = new InstrumentedNapster(new NapsterImpl(debug, repository), metrics, "index_rpc", labels);
+
+        if (options.getTransport() == Transport.BINARY) {
+            log.d("Opening binary transport on port %d...", options.getPort());
+            this.registry = null;
+            this.binaryServer = new BinaryNapsterServer(napster, options.getPort(), debug);
+        } else {
+            log.d("Creating registry on port %d...", options.getPort());
+            this.registry = LocateRegistry.createRegistry(options.getPort());
+            this.binaryServer = null;
+        }
     }
 
     public static void main(String[] args) {
-        try (Server server = new ServerImpl(Arrays.asList(args).contains("--d"))) {
+        final ServerOptions options = ServerOptions.parse(Arrays.asList(args));
+
+        try (Server server = options.getNodes() > 1 ? new ClusterImpl(options) : new ServerImpl(options);
+             MetricsEndpoint endpoint = options.getMetricsPort() > 0 ? new MetricsEndpoint(MetricsRegistry.global(), options.getMetricsPort()) : null) {
             server.start();
 
+            if (endpoint != null) endpoint.start();
+
             System.out.println("\nPressione qualquer tecla para encerrar...");
 
             //noinspection ResultOfMethodCallIgnored
@@ -43,8 +90,19 @@ public class ServerImpl implements Server {
     @Override
     public void start() {
         try {
-            log.d("Binding service...");
-            registry.bind(NAPSTER_ADDRESS, new NapsterImpl(debug));
+            if (registry != null) {
+                log.d("Binding service...");
+                registry.bind(NAPSTER_ADDRESS, new RmiNapsterServer(napster));
+            } else {
+                binaryServer.start();
+                metrics.gauge(MetricsRegistry.name("index_pending_calls", labels), binaryServer::getPendingCalls);
+            }
+
+            metrics.gauge(MetricsRegistry.name("index_peers", labels), repository::peerCount);
+            metrics.gauge(MetricsRegistry.name("index_files", labels), repository::fileCount);
+            metrics.gauge(MetricsRegistry.name("index_entries", labels), repository::entryCount);
+
+            sweeper.start(SWEEP_INTERVAL);
 
             System.out.println("Servidor iniciado!");
         } catch (Exception e) {
@@ -57,7 +115,17 @@ public class ServerImpl implements Server {
     public void close() {
         try {
             System.out.println("Finalizando...");
-            registry.unbind(NAPSTER_ADDRESS);
+            sweeper.close();
+
+            for (String gauge : new String[]{"index_pending_calls", "index_peers", "index_files", "index_entries"})
+                metrics.remove(MetricsRegistry.name(gauge, labels));
+
+            if (registry != null) registry.unbind(NAPSTER_ADDRESS);
+            if (binaryServer != null) binaryServer.close();
+
+            if (repository instanceof AutoCloseable)
+                ((AutoCloseable) repository).close();
+
             System.out.println("Serviço finalizado!");
         } catch (Exception e) {
             log.e("Failed to stop server gracefully!", e);
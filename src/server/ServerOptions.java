@@ -0,0 +1,120 @@
+package server;
+
+import service.transport.Transport;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static service.config.Config.REGISTRY_PORT;
+import static service.config.Config.SEARCH_CACHE_SIZE;
+
+public class ServerOptions {
+    private static final String DEBUG = "--d";
+    private static final String PERSIST = "--persist";
+    private static final String PORT = "--port=";
+    private static final String NODES = "--nodes=";
+    private static final String TRANSPORT = "--transport=";
+    private static final String STORAGE = "--storage=";
+    private static final String METRICS = "--metrics=";
+    private static final String SEARCH_CACHE = "--search-cache=";
+    private static final String COMPACT_STORAGE = "compact";
+    private static final String DEFAULT_DATA_FOLDER = "data";
+    private static final String DEFAULT_INDEX_FOLDER = "server";
+    private boolean debug = false;
+    private File dataFolder = null;
+    private int port = REGISTRY_PORT;
+    private int nodes = 1;
+    private Transport transport = Transport.RMI;
+    private boolean compact = true;
+    private int metricsPort = 0;
+    private int searchCache = SEARCH_CACHE_SIZE;
+
+    public static ServerOptions parse(List<String> args) {
+        final ServerOptions options = new ServerOptions();
+
+        for (String arg : args) {
+            if (arg.equals(DEBUG)) {
+                options.debug = true;
+            } else if (arg.equals(PERSIST)) {
+                options.dataFolder = Paths.get(System.getProperty("user.dir"), DEFAULT_DATA_FOLDER, DEFAULT_INDEX_FOLDER).toFile();
+            } else if (arg.startsWith(PERSIST + "=")) {
+                options.dataFolder = new File(value(arg));
+            } else if (arg.startsWith(PORT)) {
+                options.port = Integer.parseInt(value(arg));
+            } else if (arg.startsWith(NODES)) {
+                options.nodes = Integer.parseInt(value(arg));
+            } else if (arg.startsWith(TRANSPORT)) {
+                options.transport = Transport.from(value(arg));
+            } else if (arg.startsWith(STORAGE)) {
+                options.compact = COMPACT_STORAGE.equals(value(arg));
+            } else if (arg.startsWith(METRICS)) {
+                options.metricsPort = Integer.parseInt(value(arg));
+            } else if (arg.startsWith(SEARCH_CACHE)) {
+                options.searchCache = Integer.parseInt(value(arg));
+            }
+        }
+
+        return options;
+    }
+
+    public ServerOptions forNode(int index) {
+        final ServerOptions options = new ServerOptions();
+
+        options.debug = debug;
+        options.port = port + index;
+        options.nodes = 1;
+        options.transport = transport;
+        options.compact = compact;
+        options.searchCache = searchCache;
+        options.dataFolder = dataFolder != null ? new File(dataFolder, "node-" + options.port) : null;
+
+        return options;
+    }
+
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public File getDataFolder() {
+        return dataFolder;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Whether the index uses the compact storage engine rather than the concurrent maps.
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Local port serving the metrics as text, or 0 when disabled. It is shared by every
+     * node of a cluster, so {@link #forNode(int)} does not copy it.
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Number of search results kept in front of the index, or 0 to always search it.
+     */
+    public int getSearchCache() {
+        return searchCache;
+    }
+}
@@ -0,0 +1,249 @@
+package service;
+
+import log.ConsoleLog;
+import log.Log;
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import service.model.digest.FileSetDigest;
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+import util.IOUtil;
+import util.collection.LruCache;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static service.config.Config.CLIENT_CACHE_REFRESH;
+import static service.config.Config.CLIENT_CACHE_SIZE;
+import static service.config.Config.CLIENT_CACHE_TTL;
+
+/**
+ * Serves repeated searches from a local cache instead of asking the index again.
+ *
+ * <p>Results are stamped with the index's bucket versions (see {@link Napster#versions})
+ * when they are fetched. The versions are polled at most once per refresh interval, so an
+ * entry is dropped within that interval of a peer joining, updating or leaving with a
+ * matching name. Exact names compare the version of their own bucket; pattern queries may
+ * match any bucket and compare the sum of all of them. Entries also expire after a time to
+ * live in case the index cannot report versions. This peer's own changes force a refresh,
+ * so they show up in its next search.
+ *
+ * <p>The index ranks peers by health, which does not change the versions, so a cached
+ * order may be up to the time to live old; reporting transfers clears the cache.
+ */
+public class CachingNapster implements Napster, AutoCloseable {
+    private static final String TAG = "CachingNapster";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final Counter hits = MetricsRegistry.global().counter("search_cache_hits");
+    private static final Counter misses = MetricsRegistry.global().counter("search_cache_misses");
+    private final Napster napster;
+    private final long refreshNanos;
+    private final LruCache<String, Versioned<List<String>>> names;
+    private final LruCache<SearchQuery, Versioned<SearchPage>> queries;
+    private volatile long[] versions;
+    private volatile long refreshedAt;
+    private volatile boolean stale = true;
+
+    private static class Versioned<T> {
+        private final long version;
+        private final T value;
+
+        private Versioned(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    public CachingNapster(Napster napster) {
+        this(napster, CLIENT_CACHE_SIZE, CLIENT_CACHE_TTL, CLIENT_CACHE_REFRESH);
+    }
+
+    /**
+     * @param ttl milliseconds a result may be served for at most
+     * @param refresh milliseconds between polls of the index versions
+     */
+    public CachingNapster(Napster napster, int capacity, long ttl, long refresh) {
+        this.napster = napster;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refresh);
+        this.names = new LruCache<>(capacity, ttl);
+        this.queries = new LruCache<>(capacity, ttl);
+    }
+
+    @Override
+    public String join(String ip, Integer port, List<String> files) throws RemoteException {
+        try {
+            return napster.join(ip, port, files);
+        } finally {
+            stale = true;
+        }
+    }
+
+    @Override
+    public List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        final long[] current = current(ip, port);
+        final long version = current != null ? current[FileSetDigest.bucket(filenameWithExtension)] : -1;
+        final Versioned<List<String>> cached = version >= 0 ? names.get(filenameWithExtension) : null;
+
+        if (cached != null && cached.version == version) {
+            hits.increment();
+
+            return cached.value;
+        }
+
+        misses.increment();
+
+        final List<String> peers = Collections.unmodifiableList(napster.search(ip, port, filenameWithExtension));
+
+        if (version >= 0) names.put(filenameWithExtension, new Versioned<>(version, peers));
+
+        return peers;
+    }
+
+    @Override
+    public SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException {
+        final long[] current = current(ip, port);
+        final long version = current != null ? sum(current) : -1;
+        final Versioned<SearchPage> cached = version >= 0 ? queries.get(query) : null;
+
+        if (cached != null && cached.version == version) {
+            hits.increment();
+
+            return cached.value;
+        }
+
+        misses.increment();
+
+        final SearchPage page = napster.search(ip, port, query);
+
+        if (version >= 0) queries.put(query, new Versioned<>(version, page));
+
+        return page;
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException {
+        return napster.searchByHash(ip, port, hash);
+    }
+
+    @Override
+    public String update(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        try {
+            return napster.update(ip, port, filenameWithExtension);
+        } finally {
+            stale = true;
+        }
+    }
+
+    @Override
+    public String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException {
+        try {
+            return napster.update(ip, port, added, removed);
+        } finally {
+            stale = true;
+        }
+    }
+
+    @Override
+    public String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException {
+        return napster.updateHashes(ip, port, hashes);
+    }
+
+    @Override
+    public int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException {
+        return napster.rejoin(ip, port, digest);
+    }
+
+    @Override
+    public String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException {
+        try {
+            return napster.sync(ip, port, buckets, files);
+        } finally {
+            stale = true;
+        }
+    }
+
+    @Override
+    public String leave(String ip, Integer port) throws RemoteException {
+        try {
+            return napster.leave(ip, port);
+        } finally {
+            stale = true;
+        }
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port) throws RemoteException {
+        return napster.heartbeat(ip, port);
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException {
+        return napster.heartbeat(ip, port, freeSlots);
+    }
+
+    /**
+     * Also drops the cached results, since their peers may now be ranked differently.
+     */
+    @Override
+    public String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException {
+        try {
+            return napster.report(ip, port, reports);
+        } finally {
+            names.clear();
+            queries.clear();
+        }
+    }
+
+    @Override
+    public long[] versions(String ip, Integer port) throws RemoteException {
+        return napster.versions(ip, port);
+    }
+
+    @Override
+    public void close() throws IOException {
+        names.clear();
+        queries.clear();
+
+        IOUtil.closeIfCloseable(napster);
+    }
+
+    /**
+     * Latest known versions, polling the index when they are older than the refresh
+     * interval, or {@code null} when the index did not report them and nothing may be
+     * cached.
+     */
+    private long[] current(String ip, Integer port) {
+        if (!stale && System.nanoTime() - refreshedAt < refreshNanos) return versions;
+
+        synchronized (this) {
+            if (!stale && System.nanoTime() - refreshedAt < refreshNanos) return versions;
+
+            stale = false;
+
+            try {
+                versions = napster.versions(ip, port);
+            } catch (RemoteException | RuntimeException e) {
+                log.w(String.format("Failed to fetch index versions: %s", e.getMessage()));
+                versions = null;
+            }
+
+            refreshedAt = System.nanoTime();
+
+            return versions;
+        }
+    }
+
+    private static long sum(long[] versions) {
+        long sum = 0;
+
+        for (long version : versions) sum += version;
+
+        return sum;
+    }
+}
@@ -0,0 +1,170 @@
+package service;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+import util.IOUtil;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the latency and failures of every call to a {@link Napster}, per method.
+ *
+ * <p>Wrapping the service on the server measures handling time; wrapping the client on a
+ * peer measures the round trip including the transport.
+ */
+public class InstrumentedNapster implements Napster, AutoCloseable {
+    private final Napster napster;
+    private final Method join;
+    private final Method search;
+    private final Method searchQuery;
+    private final Method searchByHash;
+    private final Method update;
+    private final Method updateBatch;
+    private final Method updateHashes;
+    private final Method rejoin;
+    private final Method sync;
+    private final Method leave;
+    private final Method heartbeat;
+    private final Method heartbeatSlots;
+    private final Method report;
+    private final Method versions;
+
+    private interface Call<T> {
+        T call() throws RemoteException;
+    }
+
+    private static class Method {
+        private final Histogram latency;
+        private final Counter errors;
+
+        Method(MetricsRegistry registry, String metric, String name, Object[] labels) {
+            final Object[] methodLabels = new Object[labels.length + 2];
+
+            System.arraycopy(labels, 0, methodLabels, 0, labels.length);
+            methodLabels[labels.length] = "method";
+            methodLabels[labels.length + 1] = name;
+
+            this.latency = registry.histogram(MetricsRegistry.name(metric + "_latency_nanos", methodLabels));
+            this.errors = registry.counter(MetricsRegistry.name(metric + "_errors", methodLabels));
+        }
+
+        <T> T time(Call<T> call) throws RemoteException {
+            final long start = System.nanoTime();
+
+            try {
+                return call.call();
+            } catch (RemoteException | RuntimeException e) {
+                errors.increment();
+
+                throw e;
+            } finally {
+                latency.recordSince(start);
+            }
+        }
+    }
+
+    /**
+     * @param metric prefix of the metric names, such as {@code index_rpc}
+     * @param labels alternating label keys and values added to every metric
+     */
+    public InstrumentedNapster(Napster napster, MetricsRegistry registry, String metric, Object... labels) {
+        this.napster = napster;
+        this.join = new Method(registry, metric, "join", labels);
+        this.search = new Method(registry, metric, "search", labels);
+        this.searchQuery = new Method(registry, metric, "search_query", labels);
+        this.searchByHash = new Method(registry, metric, "search_by_hash", labels);
+        this.update = new Method(registry, metric, "update", labels);
+        this.updateBatch = new Method(registry, metric, "update_batch", labels);
+        this.updateHashes = new Method(registry, metric, "update_hashes", labels);
+        this.rejoin = new Method(registry, metric, "rejoin", labels);
+        this.sync = new Method(registry, metric, "sync", labels);
+        this.leave = new Method(registry, metric, "leave", labels);
+        this.heartbeat = new Method(registry, metric, "heartbeat", labels);
+        this.heartbeatSlots = new Method(registry, metric, "heartbeat_slots", labels);
+        this.report = new Method(registry, metric, "report", labels);
+        this.versions = new Method(registry, metric, "versions", labels);
+    }
+
+    @Override
+    public String join(String ip, Integer port, List<String> files) throws RemoteException {
+        return join.time(() -> napster.join(ip, port, files));
+    }
+
+    @Override
+    public List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return search.time(() -> napster.search(ip, port, filenameWithExtension));
+    }
+
+    @Override
+    public SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException {
+        return searchQuery.time(() -> napster.search(ip, port, query));
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException {
+        return searchByHash.time(() -> napster.searchByHash(ip, port, hash));
+    }
+
+    @Override
+    public String update(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return update.time(() -> napster.update(ip, port, filenameWithExtension));
+    }
+
+    @Override
+    public String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException {
+        return updateBatch.time(() -> napster.update(ip, port, added, removed));
+    }
+
+    @Override
+    public String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException {
+        return updateHashes.time(() -> napster.updateHashes(ip, port, hashes));
+    }
+
+    @Override
+    public int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException {
+        return rejoin.time(() -> napster.rejoin(ip, port, digest));
+    }
+
+    @Override
+    public String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException {
+        return sync.time(() -> napster.sync(ip, port, buckets, files));
+    }
+
+    @Override
+    public String leave(String ip, Integer port) throws RemoteException {
+        return leave.time(() -> napster.leave(ip, port));
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port) throws RemoteException {
+        return heartbeat.time(() -> napster.heartbeat(ip, port));
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException {
+        return heartbeatSlots.time(() -> napster.heartbeat(ip, port, freeSlots));
+    }
+
+    @Override
+    public String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException {
+        return report.time(() -> napster.report(ip, port, reports));
+    }
+
+    @Override
+    public long[] versions(String ip, Integer port) throws RemoteException {
+        return versions.time(() -> napster.versions(ip, port));
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtil.closeIfCloseable(napster);
+    }
+}
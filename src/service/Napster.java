@@ -1,12 +1,54 @@
 package service;
 
-import java.rmi.Remote;
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
-public interface Napster extends Remote {
+/**
+ * Index service protocol, independent of how calls reach the server. Transports report
+ * communication failures as {@link RemoteException}; see {@link service.transport.Transport}.
+ */
+public interface Napster {
     String join(String ip, Integer port, List<String> files) throws RemoteException;
     List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException;
+    SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException;
+    List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException;
     String update(String ip, Integer port, String filenameWithExtension) throws RemoteException;
+    String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException;
+    String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException;
+
+    /**
+     * Compares the peer's file set digest with the one the index holds for it. An unknown
+     * peer is not registered here: it gets every bucket back, so the {@link #sync} that
+     * follows registers it.
+     *
+     * @return the buckets whose files the peer has to {@link #sync}
+     */
+    int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException;
+
+    String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException;
     String leave(String ip, Integer port) throws RemoteException;
+    String heartbeat(String ip, Integer port) throws RemoteException;
+
+    /**
+     * Renews the lease like {@link #heartbeat(String, Integer)} and tells the index how many
+     * upload slots the peer has free, negative when requests are waiting for one.
+     */
+    String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException;
+
+    /**
+     * Reports how downloads from other peers went, so the index can rank them as sources.
+     */
+    String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException;
+
+    /**
+     * Version of each digest bucket of the index, increased whenever a name in the bucket
+     * gains or loses a peer. Clients compare them to tell whether cached results are stale.
+     */
+    long[] versions(String ip, Integer port) throws RemoteException;
 }
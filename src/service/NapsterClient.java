@@ -0,0 +1,44 @@
+package service;
+
+import service.transport.BinaryNapster;
+import service.transport.RemoteNapster;
+import service.transport.RmiNapster;
+import service.transport.Transport;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.List;
+
+import static service.config.Config.NAPSTER_ADDRESS;
+import static service.config.Config.REGISTRY_PORT;
+
+public class NapsterClient {
+    public static Napster connect(List<String> addresses) throws RemoteException, NotBoundException {
+        return connect(addresses, Transport.RMI);
+    }
+
+    public static Napster connect(List<String> addresses, Transport transport) throws RemoteException, NotBoundException {
+        if (addresses.size() == 1)
+            return lookup(addresses.get(0), transport);
+
+        final ShardedNapster napster = new ShardedNapster();
+
+        for (String address : addresses) {
+            napster.addNode(address, lookup(address, transport));
+        }
+
+        return napster;
+    }
+
+    private static Napster lookup(String address, Transport transport) throws RemoteException, NotBoundException {
+        final int separator = address.lastIndexOf(':');
+        final String host = separator >= 0 ? address.substring(0, separator) : address;
+        final int port = separator >= 0 ? Integer.parseInt(address.substring(separator + 1)) : REGISTRY_PORT;
+
+        if (transport == Transport.BINARY)
+            return new BinaryNapster(host, port);
+
+        return new RmiNapster((RemoteNapster) LocateRegistry.getRegistry(host, port).lookup(NAPSTER_ADDRESS));
+    }
+}
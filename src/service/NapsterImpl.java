@@ -1,36 +1,47 @@
 package service;
 
+import service.model.repository.CachingPeerRepository;
 import service.model.repository.PeerRepository;
 import service.model.repository.PeerRepositoryImpl;
 import log.ConsoleLog;
 import log.Log;
+import service.model.digest.FileSetDigest;
+import service.model.health.PeerHealthTracker;
+import service.model.health.TransferReport;
+import service.model.response.HeartbeatResponse;
 import service.model.response.JoinResponse;
+import service.model.response.LeaveResponse;
+import service.model.response.UpdateResponse;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
 
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
-public class NapsterImpl extends UnicastRemoteObject implements Napster {
+public class NapsterImpl implements Napster {
     private static final String TAG = "NapsterImpl";
     private final Log log = new ConsoleLog(TAG);
-    private final PeerRepository repository = new PeerRepositoryImpl();
+    private final CachingPeerRepository repository;
+    private final PeerHealthTracker health = new PeerHealthTracker();
 
-    public NapsterImpl(boolean debug) throws RemoteException {
-        super();
+    public NapsterImpl(boolean debug) {
+        this(debug, new PeerRepositoryImpl());
+    }
 
+    public NapsterImpl(boolean debug, PeerRepository repository) {
+        this.repository = repository instanceof CachingPeerRepository
+                ? (CachingPeerRepository) repository
+                : new CachingPeerRepository(repository, 0);
         log.setDebug(debug);
     }
 
     @Override
     public String join(String ip, Integer port, List<String> files) throws RemoteException {
-        log.d(
-                String.format(
-                        "Joining peer with address %s:%d with files %s",
-                        ip,
-                        port,
-                        String.join(", ", files)
-                )
-        );
+        if (log.isDebug())
+            log.d("Joining peer with address %s:%d with files %s", ip, port, String.join(", ", files));
 
         final JoinResponse response = repository.join(ip, port, files);
 
@@ -42,22 +53,110 @@ public class NapsterImpl extends UnicastRemoteObject implements Napster {
 
     @Override
     public List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException {
-        log.d(String.format("peer.Peer asked for file %s", filenameWithExtension));
+        log.d("peer.Peer asked for file %s", filenameWithExtension);
 
         System.out.printf("peer.Peer %s:%d solicitou o arquivo %s\n", ip, port, filenameWithExtension);
 
-        return repository.search(filenameWithExtension);
+        return health.rank(repository.search(filenameWithExtension));
+    }
+
+    @Override
+    public SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException {
+        log.d("peer.Peer searched for %s (%s)", query.getPattern(), query.getMode().getName());
+
+        System.out.printf("peer.Peer %s:%d buscou por %s\n", ip, port, query.getPattern());
+
+        final SearchPage page = repository.search(query);
+
+        return new SearchPage(health.rankHits(page.getHits()), page.getNext());
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException {
+        log.d("peer.Peer asked for content %s", hash);
+
+        return health.rankHits(repository.searchByHash(hash));
     }
 
     @Override
     public String update(String ip, Integer port, String filenameWithExtension) throws RemoteException {
-        log.d(String.format("Updating peer %s:%d with file %s", ip, port, filenameWithExtension));
+        log.d("Updating peer %s:%d with file %s", ip, port, filenameWithExtension);
 
         return repository.update(ip, port, filenameWithExtension).getCode();
     }
 
+    @Override
+    public String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException {
+        log.d("Updating peer %s:%d with %d added and %d removed files", ip, port, added.size(), removed.size());
+
+        return repository.update(ip, port, added, removed).getCode();
+    }
+
+    @Override
+    public String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException {
+        log.d("Updating peer %s:%d with %d file hashes", ip, port, hashes.size());
+
+        return repository.updateHashes(ip, port, hashes).getCode();
+    }
+
+    @Override
+    public int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException {
+        final long[] stored = repository.digest(ip, port);
+        final int[] mismatches = stored != null
+                ? FileSetDigest.mismatches(stored, digest)
+                : IntStream.range(0, FileSetDigest.BUCKETS).toArray();
+
+        log.d("Peer %s:%d rejoined with %d mismatched buckets", ip, port, mismatches.length);
+
+        return mismatches;
+    }
+
+    @Override
+    public String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException {
+        log.d("Syncing %d buckets of peer %s:%d with %d files", buckets.length, ip, port, files.size());
+
+        final JoinResponse response = repository.sync(ip, port, buckets, files);
+
+        if(response == JoinResponse.OK)
+            System.out.printf("peer.Peer %s:%d sincronizado com %d arquivos alterados\n", ip, port, files.size());
+
+        return response.getCode();
+    }
+
+    @Override
+    public long[] versions(String ip, Integer port) {
+        return repository.versions();
+    }
+
     @Override
     public String leave(String ip, Integer port) {
-        return repository.leave(ip, port).getCode();
+        final LeaveResponse response = repository.leave(ip, port);
+
+        if (response == LeaveResponse.OK) health.remove(repository.key(ip, port));
+
+        return response.getCode();
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port) {
+        return repository.heartbeat(ip, port).getCode();
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port, int freeSlots) {
+        final HeartbeatResponse response = repository.heartbeat(ip, port);
+
+        if (response == HeartbeatResponse.OK) health.slots(repository.key(ip, port), freeSlots);
+
+        return response.getCode();
+    }
+
+    @Override
+    public String report(String ip, Integer port, List<TransferReport> reports) {
+        log.d("Peer %s:%d reported transfers from %d sources", ip, port, reports.size());
+
+        health.record(reports);
+
+        return UpdateResponse.OK.getCode();
     }
 }
@@ -0,0 +1,294 @@
+package service;
+
+import service.model.digest.FileSetDigest;
+import service.model.health.TransferReport;
+import service.model.response.HeartbeatResponse;
+import service.model.response.JoinResponse;
+import service.model.response.LeaveResponse;
+import service.model.response.UpdateResponse;
+import service.model.search.FilenameIndex;
+import service.model.search.SearchHit;
+import service.model.search.SearchMode;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+import service.shard.ConsistentHashRing;
+import util.IOUtil;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static service.config.Config.SEARCH_PAGE_LIMIT;
+import static service.config.Config.VIRTUAL_NODES;
+
+public class ShardedNapster implements Napster, AutoCloseable {
+    private final ConsistentHashRing<Napster> ring = new ConsistentHashRing<>(VIRTUAL_NODES);
+
+    public void addNode(String address, Napster node) {
+        ring.add(address, node);
+    }
+
+    public void removeNode(String address) {
+        ring.remove(address);
+    }
+
+    @Override
+    public String join(String ip, Integer port, List<String> files) throws RemoteException {
+        final Map<Napster, List<String>> split = split(files);
+        String result = JoinResponse.OK.getCode();
+
+        for (Napster node : ring.nodes()) {
+            final String nodeResult = node.join(ip, port, split.getOrDefault(node, new ArrayList<>()));
+
+            if (!nodeResult.equals(JoinResponse.OK.getCode()))
+                result = nodeResult;
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return ring.owner(filenameWithExtension).search(ip, port, filenameWithExtension);
+    }
+
+    /**
+     * Exact, case-sensitive queries go to the shard owning the name. Any other query may
+     * match names on every shard, so each shard returns its own page and the pages are
+     * merged in {@link FilenameIndex#ORDER}. Hits past the smallest shard cursor are held
+     * back, since that shard may still have unseen names before them.
+     */
+    @Override
+    public SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException {
+        if (query.getMode() == SearchMode.EXACT && !query.isIgnoreCase())
+            return ring.owner(query.getPattern()).search(ip, port, query);
+
+        final int limit = Math.max(1, Math.min(query.getLimit(), SEARCH_PAGE_LIMIT));
+        final List<SearchHit> merged = new ArrayList<>();
+        String bound = null;
+
+        for (Napster node : ring.nodes()) {
+            final SearchPage page = node.search(ip, port, query);
+
+            merged.addAll(page.getHits());
+
+            if (page.hasNext() && (bound == null || FilenameIndex.ORDER.compare(page.getNext(), bound) < 0))
+                bound = page.getNext();
+        }
+
+        merged.sort(Comparator.comparing(SearchHit::getFilename, FilenameIndex.ORDER));
+
+        final List<SearchHit> hits = new ArrayList<>();
+
+        for (SearchHit hit : merged) {
+            if (bound != null && FilenameIndex.ORDER.compare(hit.getFilename(), bound) > 0) break;
+
+            hits.add(hit);
+        }
+
+        if (hits.size() > limit) {
+            hits.subList(limit, hits.size()).clear();
+
+            return new SearchPage(hits, hits.get(limit - 1).getFilename());
+        }
+
+        return new SearchPage(hits, bound);
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException {
+        final List<SearchHit> hits = new ArrayList<>();
+
+        for (Napster node : ring.nodes()) {
+            hits.addAll(node.searchByHash(ip, port, hash));
+        }
+
+        return hits.size() > SEARCH_PAGE_LIMIT ? new ArrayList<>(hits.subList(0, SEARCH_PAGE_LIMIT)) : hits;
+    }
+
+    @Override
+    public String update(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return ring.owner(filenameWithExtension).update(ip, port, filenameWithExtension);
+    }
+
+    @Override
+    public String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException {
+        final Map<Napster, List<String>> addedSplit = split(added);
+        final Map<Napster, List<String>> removedSplit = split(removed);
+        final Set<Napster> touched = new HashSet<>(addedSplit.keySet());
+        String result = UpdateResponse.OK.getCode();
+
+        touched.addAll(removedSplit.keySet());
+
+        for (Napster node : touched) {
+            final String nodeResult = node.update(
+                    ip,
+                    port,
+                    addedSplit.getOrDefault(node, new ArrayList<>()),
+                    removedSplit.getOrDefault(node, new ArrayList<>())
+            );
+
+            if (!nodeResult.equals(UpdateResponse.OK.getCode()))
+                result = nodeResult;
+        }
+
+        return result;
+    }
+
+    /**
+     * Hashes live next to the file they describe, on the shard owning its name.
+     */
+    @Override
+    public String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException {
+        final Map<Napster, Map<String, String>> split = new HashMap<>();
+        String result = UpdateResponse.OK.getCode();
+
+        hashes.forEach((file, hash) -> split.computeIfAbsent(ring.owner(file), node -> new HashMap<>()).put(file, hash));
+
+        for (Map.Entry<Napster, Map<String, String>> entry : split.entrySet()) {
+            final String nodeResult = entry.getKey().updateHashes(ip, port, entry.getValue());
+
+            if (!nodeResult.equals(UpdateResponse.OK.getCode()))
+                result = nodeResult;
+        }
+
+        return result;
+    }
+
+    @Override
+    public int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException {
+        final Set<Integer> mismatches = new TreeSet<>();
+
+        for (Napster node : ring.nodes()) {
+            final long[] owned = new long[FileSetDigest.BUCKETS];
+
+            for (int bucket = 0; bucket < FileSetDigest.BUCKETS; bucket++) {
+                if (ring.owner(bucket) == node) owned[bucket] = digest[bucket];
+            }
+
+            final int[] nodeMismatches = node.rejoin(ip, port, owned);
+            final int[] stale = IntStream.of(nodeMismatches).filter(bucket -> ring.owner(bucket) != node).toArray();
+
+            if (stale.length > 0)
+                node.sync(ip, port, stale, new ArrayList<>());
+
+            IntStream.of(nodeMismatches).filter(bucket -> ring.owner(bucket) == node).forEach(mismatches::add);
+        }
+
+        return mismatches.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException {
+        final Map<Napster, List<Integer>> bucketSplit = new HashMap<>();
+        final Map<Napster, List<String>> fileSplit = split(files);
+        String result = JoinResponse.OK.getCode();
+
+        for (int bucket : buckets) {
+            bucketSplit.computeIfAbsent(ring.owner(bucket), node -> new ArrayList<>()).add(bucket);
+        }
+
+        for (Map.Entry<Napster, List<Integer>> entry : bucketSplit.entrySet()) {
+            final Napster node = entry.getKey();
+            final String nodeResult = node.sync(
+                    ip,
+                    port,
+                    entry.getValue().stream().mapToInt(Integer::intValue).toArray(),
+                    fileSplit.getOrDefault(node, new ArrayList<>())
+            );
+
+            if (!nodeResult.equals(JoinResponse.OK.getCode()))
+                result = nodeResult;
+        }
+
+        return result;
+    }
+
+    @Override
+    public String leave(String ip, Integer port) throws RemoteException {
+        String result = LeaveResponse.NOT_JOINED.getCode();
+
+        for (Napster node : ring.nodes()) {
+            if (node.leave(ip, port).equals(LeaveResponse.OK.getCode()))
+                result = LeaveResponse.OK.getCode();
+        }
+
+        return result;
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port) throws RemoteException {
+        String result = HeartbeatResponse.OK.getCode();
+
+        for (Napster node : ring.nodes()) {
+            if (!node.heartbeat(ip, port).equals(HeartbeatResponse.OK.getCode()))
+                result = HeartbeatResponse.NOT_JOINED.getCode();
+        }
+
+        return result;
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException {
+        String result = HeartbeatResponse.OK.getCode();
+
+        for (Napster node : ring.nodes()) {
+            if (!node.heartbeat(ip, port, freeSlots).equals(HeartbeatResponse.OK.getCode()))
+                result = HeartbeatResponse.NOT_JOINED.getCode();
+        }
+
+        return result;
+    }
+
+    /**
+     * Every shard ranks the peers of the names it owns, so every shard gets the reports.
+     */
+    @Override
+    public String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException {
+        String result = UpdateResponse.OK.getCode();
+
+        for (Napster node : ring.nodes()) {
+            final String nodeResult = node.report(ip, port, reports);
+
+            if (!nodeResult.equals(UpdateResponse.OK.getCode())) result = nodeResult;
+        }
+
+        return result;
+    }
+
+    /**
+     * Each bucket's version comes from the shard owning it.
+     */
+    @Override
+    public long[] versions(String ip, Integer port) throws RemoteException {
+        final long[] versions = new long[FileSetDigest.BUCKETS];
+
+        for (Napster node : ring.nodes()) {
+            final long[] nodeVersions = node.versions(ip, port);
+
+            for (int bucket = 0; bucket < FileSetDigest.BUCKETS; bucket++) {
+                if (ring.owner(bucket) == node) versions[bucket] = nodeVersions[bucket];
+            }
+        }
+
+        return versions;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Napster node : ring.nodes()) {
+            IOUtil.closeIfCloseable(node);
+        }
+    }
+
+    private Map<Napster, List<String>> split(Collection<String> files) {
+        final Map<Napster, List<String>> split = new HashMap<>();
+
+        for (String file : files) {
+            split.computeIfAbsent(ring.owner(file), node -> new ArrayList<>()).add(file);
+        }
+
+        return split;
+    }
+}
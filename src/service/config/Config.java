@@ -0,0 +1,27 @@
+package service.config;
+
+public class Config {
+    public static final String NAPSTER_ADDRESS = "rmi://localhost/napster";
+    public static final int REGISTRY_PORT = 1099;
+    public static final int VIRTUAL_NODES = 128;
+    public static final int BINARY_MAX_FRAME = 64 * 1024 * 1024;
+    public static final int BINARY_WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    public static final long BINARY_CALL_TIMEOUT = 30_000;
+    public static final long LEASE_DURATION = 30_000;
+    public static final long SWEEP_INTERVAL = 5_000;
+    public static final long SNAPSHOT_INTERVAL = 60_000;
+    public static final long SNAPSHOT_MIN_RECORDS = 10_000;
+    public static final int SEARCH_PAGE_LIMIT = 100;
+    public static final int SEARCH_PEER_LIMIT = 50;
+    public static final int SEARCH_CACHE_SIZE = 10_000;
+    public static final int CLIENT_CACHE_SIZE = 1_000;
+    public static final long CLIENT_CACHE_TTL = 60_000;
+    public static final long CLIENT_CACHE_REFRESH = 2_000;
+    public static final long HEALTH_REFERENCE_SIZE = 4L * 1024 * 1024;
+    public static final double HEALTH_DEFAULT_THROUGHPUT = 1024 * 1024;
+    public static final long HEALTH_DEFAULT_LATENCY = 50;
+    public static final long HEALTH_BUSY_PENALTY = 2_000;
+    public static final double HEALTH_SAMPLE_WEIGHT = 0.3;
+    public static final long HEALTH_SLOTS_TTL = LEASE_DURATION;
+    public static final long HEALTH_TTL = 10 * 60_000;
+}
@@ -0,0 +1,70 @@
+package service.model.digest;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class FileSetDigest {
+    public static final int BUCKETS = 256;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private final long[] buckets = new long[BUCKETS];
+
+    public static FileSetDigest of(Collection<String> files) {
+        final FileSetDigest digest = new FileSetDigest();
+
+        files.forEach(digest::add);
+
+        return digest;
+    }
+
+    public static long hash(String file) {
+        long hash = FNV_OFFSET;
+
+        for (int i = 0; i < file.length(); i++) {
+            hash ^= file.charAt(i);
+            hash *= FNV_PRIME;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    public static int bucket(String file) {
+        return (int) (hash(file) >>> 56);
+    }
+
+    public void add(String file) {
+        buckets[bucket(file)] ^= hash(file);
+    }
+
+    public void remove(String file) {
+        add(file);
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(buckets, BUCKETS);
+    }
+
+    public static int[] mismatches(long[] stored, long[] received) {
+        if (stored.length != BUCKETS || received.length != BUCKETS)
+            throw new IllegalArgumentException(String.format("Digest must have %d buckets", BUCKETS));
+
+        return IntStream.range(0, BUCKETS)
+                .filter(bucket -> stored[bucket] != received[bucket])
+                .toArray();
+    }
+
+    public static List<String> inBuckets(Collection<String> files, int[] buckets) {
+        final boolean[] wanted = new boolean[BUCKETS];
+
+        for (int bucket : buckets) wanted[bucket] = true;
+
+        return files.stream().filter(file -> wanted[bucket(file)]).collect(Collectors.toList());
+    }
+}
@@ -6,6 +6,7 @@ public enum Operation {
     UPDATE(1, "Atualizar"),
     SEARCH(2, "Procurar"),
     DOWNLOAD(3, "Baixar"),
+    COPIES(4, "Procurar cópias"),
     EXIT(0, "Sair");
 
     private final Integer code;
@@ -21,6 +22,7 @@ public enum Operation {
             case 1: return UPDATE;
             case 2: return SEARCH;
             case 3: return DOWNLOAD;
+            case 4: return COPIES;
             case 0: return EXIT;
             default: throw new IllegalArgumentException("Opção inválida selecionada!");
         }
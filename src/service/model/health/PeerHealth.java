@@ -0,0 +1,66 @@
+package service.model.health;
+
+import java.util.concurrent.TimeUnit;
+
+import static service.config.Config.*;
+
+/**
+ * Recent behaviour of one peer as an upload source: throughput, latency and failure rate
+ * as moving averages of what downloaders reported, plus the upload slots it last said it
+ * had free.
+ */
+public class PeerHealth {
+    private static final double WEIGHT = HEALTH_SAMPLE_WEIGHT;
+    private double throughput = -1;
+    private double latencyNanos = -1;
+    private double failureRate = 0;
+    private int freeSlots = Integer.MAX_VALUE;
+    private long slotsReportedAt;
+    private long updatedAt;
+
+    public synchronized void slots(int freeSlots, long now) {
+        this.freeSlots = freeSlots;
+        this.slotsReportedAt = now;
+        this.updatedAt = now;
+    }
+
+    public synchronized void record(TransferReport report, long now) {
+        final int transfers = report.getSuccesses() + report.getFailures();
+
+        if (report.getBytes() > 0 && report.getNanos() > 0)
+            throughput = average(throughput, report.getBytes() * 1e9 / report.getNanos());
+
+        if (report.getLatencyNanos() >= 0)
+            latencyNanos = average(latencyNanos, report.getLatencyNanos());
+
+        if (transfers > 0)
+            failureRate = failureRate * (1 - WEIGHT) + WEIGHT * report.getFailures() / transfers;
+
+        updatedAt = now;
+    }
+
+    /**
+     * Expected nanoseconds to fetch {@code HEALTH_REFERENCE_SIZE} bytes from the peer.
+     * Peers nobody reported on yet are assumed average, so they still get picked and
+     * measured. Every retry a failure rate implies is paid again, and each request
+     * waiting for a slot adds a retry interval.
+     */
+    public synchronized double cost(long now) {
+        final double rate = throughput > 0 ? throughput : HEALTH_DEFAULT_THROUGHPUT;
+        final double latency = latencyNanos >= 0 ? latencyNanos : TimeUnit.MILLISECONDS.toNanos(HEALTH_DEFAULT_LATENCY);
+        double cost = (latency + HEALTH_REFERENCE_SIZE * 1e9 / rate) / Math.max(0.1, 1 - failureRate);
+
+        if (freeSlots <= 0 && now - slotsReportedAt <= HEALTH_SLOTS_TTL)
+            cost += (1 - freeSlots) * (double) TimeUnit.MILLISECONDS.toNanos(HEALTH_BUSY_PENALTY);
+
+        return cost;
+    }
+
+    public synchronized long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    private static double average(double current, double sample) {
+        return current < 0 ? sample : current * (1 - WEIGHT) + sample * WEIGHT;
+    }
+}
@@ -0,0 +1,75 @@
+package service.model.health;
+
+import service.model.search.SearchHit;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static service.config.Config.HEALTH_TTL;
+
+/**
+ * Health of every peer the index heard about, used to put the best sources first in
+ * search results. Peers silent for {@code HEALTH_TTL} are forgotten.
+ */
+public class PeerHealthTracker {
+    private final Map<String, PeerHealth> peers = new ConcurrentHashMap<>();
+    private volatile long prunedAt = System.currentTimeMillis();
+
+    public void slots(String key, int freeSlots) {
+        final long now = System.currentTimeMillis();
+
+        peers.computeIfAbsent(key, ignored -> new PeerHealth()).slots(freeSlots, now);
+        prune(now);
+    }
+
+    public void record(Collection<TransferReport> reports) {
+        final long now = System.currentTimeMillis();
+
+        for (TransferReport report : reports) {
+            peers.computeIfAbsent(report.getSource(), ignored -> new PeerHealth()).record(report, now);
+        }
+
+        prune(now);
+    }
+
+    public void remove(String key) {
+        peers.remove(key);
+    }
+
+    /**
+     * Copy of {@code keys} ordered from the cheapest source to the most expensive. Peers
+     * with equal cost keep their order.
+     */
+    public List<String> rank(List<String> keys) {
+        if (keys.size() < 2 || peers.isEmpty()) return keys;
+
+        final long now = System.currentTimeMillis();
+        final Map<String, Double> costs = new HashMap<>(keys.size() * 2);
+        final PeerHealth unknown = new PeerHealth();
+
+        for (String key : keys) costs.put(key, peers.getOrDefault(key, unknown).cost(now));
+
+        final List<String> ranked = new ArrayList<>(keys);
+
+        ranked.sort(Comparator.comparing(costs::get));
+
+        return ranked;
+    }
+
+    public List<SearchHit> rankHits(List<SearchHit> hits) {
+        if (peers.isEmpty()) return hits;
+
+        final List<SearchHit> ranked = new ArrayList<>(hits.size());
+
+        for (SearchHit hit : hits) ranked.add(new SearchHit(hit.getFilename(), rank(hit.getPeers())));
+
+        return ranked;
+    }
+
+    private void prune(long now) {
+        if (now - prunedAt < HEALTH_TTL) return;
+
+        prunedAt = now;
+        peers.values().removeIf(health -> now - health.getUpdatedAt() > HEALTH_TTL);
+    }
+}
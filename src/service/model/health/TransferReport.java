@@ -0,0 +1,54 @@
+package service.model.health;
+
+import java.io.Serializable;
+
+/**
+ * What a peer measured while downloading from one source since its last report.
+ */
+public class TransferReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String source;
+    private final int successes;
+    private final int failures;
+    private final long bytes;
+    private final long nanos;
+    private final long latencyNanos;
+
+    /**
+     * @param nanos time spent receiving the {@code bytes}
+     * @param latencyNanos average time from a request to its response header, or -1 when
+     *                     not measured
+     */
+    public TransferReport(String source, int successes, int failures, long bytes, long nanos, long latencyNanos) {
+        this.source = source;
+        this.successes = successes;
+        this.failures = failures;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getSuccesses() {
+        return successes;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+}
@@ -0,0 +1,239 @@
+package service.model.repository;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import service.model.digest.FileSetDigest;
+import service.model.response.HeartbeatResponse;
+import service.model.response.JoinResponse;
+import service.model.response.LeaveResponse;
+import service.model.response.UpdateResponse;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+import util.IOUtil;
+import util.collection.LruCache;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the results of hot searches in front of another repository. Every digest bucket has
+ * a version that is increased after a name in it gains or loses a peer; a cached result
+ * remembers the version it was computed under and is recomputed once it no longer matches,
+ * so joins, updates and leaves invalidate exactly the names they touch. Pattern queries can
+ * match names in any bucket and are tied to a single generation bumped by every change.
+ * The versions are kept even when the cache is disabled, since clients poll them to
+ * validate their own caches.
+ */
+public class CachingPeerRepository implements PeerRepository, AutoCloseable {
+    private final PeerRepository delegate;
+    private final Counter hits;
+    private final Counter misses;
+    private final AtomicLongArray versions = new AtomicLongArray(FileSetDigest.BUCKETS);
+    private final AtomicLong generation = new AtomicLong();
+    private final LruCache<String, Versioned<List<String>>> names;
+    private final LruCache<SearchQuery, Versioned<SearchPage>> queries;
+
+    private static class Versioned<T> {
+        private final long version;
+        private final T value;
+
+        private Versioned(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    public CachingPeerRepository(PeerRepository delegate, int capacity, Object... labels) {
+        this.delegate = delegate;
+        this.hits = MetricsRegistry.global().counter(MetricsRegistry.name("index_search_cache_hits", labels));
+        this.misses = MetricsRegistry.global().counter(MetricsRegistry.name("index_search_cache_misses", labels));
+        this.names = new LruCache<>(capacity, 0);
+        this.queries = new LruCache<>(capacity, 0);
+    }
+
+    public long[] versions() {
+        final long[] copy = new long[FileSetDigest.BUCKETS];
+
+        for (int i = 0; i < copy.length; i++) copy[i] = versions.get(i);
+
+        return copy;
+    }
+
+    @Override
+    public String key(String ip, Integer port) {
+        return delegate.key(ip, port);
+    }
+
+    @Override
+    public JoinResponse join(String ip, Integer port, List<String> files) {
+        final long[] previous = delegate.digest(ip, port);
+        final JoinResponse response = delegate.join(ip, port, files);
+
+        if (response == JoinResponse.OK) invalidate(previous, files);
+
+        return response;
+    }
+
+    @Override
+    public List<String> search(String file) {
+        final int bucket = FileSetDigest.bucket(file);
+        final Versioned<List<String>> cached = names.get(file);
+
+        if (cached != null && cached.version == versions.get(bucket)) {
+            hits.increment();
+
+            return cached.value;
+        }
+
+        misses.increment();
+
+        // The version is read first so a change racing with the search leaves a stale stamp
+        final long version = versions.get(bucket);
+        final List<String> peers = Collections.unmodifiableList(delegate.search(file));
+
+        names.put(file, new Versioned<>(version, peers));
+
+        return peers;
+    }
+
+    @Override
+    public SearchPage search(SearchQuery query) {
+        final Versioned<SearchPage> cached = queries.get(query);
+
+        if (cached != null && cached.version == generation.get()) {
+            hits.increment();
+
+            return cached.value;
+        }
+
+        misses.increment();
+
+        final long version = generation.get();
+        final SearchPage page = delegate.search(query);
+
+        queries.put(query, new Versioned<>(version, page));
+
+        return page;
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String hash) {
+        return delegate.searchByHash(hash);
+    }
+
+    @Override
+    public UpdateResponse update(String ip, Integer port, String file) {
+        return update(ip, port, Collections.singletonList(file), Collections.emptyList());
+    }
+
+    @Override
+    public UpdateResponse update(String ip, Integer port, Collection<String> added, Collection<String> removed) {
+        final UpdateResponse response = delegate.update(ip, port, added, removed);
+
+        if (response == UpdateResponse.OK) {
+            invalidate(null, added);
+            invalidate(null, removed);
+        }
+
+        return response;
+    }
+
+    @Override
+    public UpdateResponse updateHashes(String ip, Integer port, Map<String, String> hashes) {
+        // Hashes only feed searchByHash, which is never cached
+        return delegate.updateHashes(ip, port, hashes);
+    }
+
+    @Override
+    public long[] digest(String ip, Integer port) {
+        return delegate.digest(ip, port);
+    }
+
+    @Override
+    public JoinResponse sync(String ip, Integer port, int[] buckets, Collection<String> files) {
+        final JoinResponse response = delegate.sync(ip, port, buckets, files);
+
+        if (response == JoinResponse.OK) {
+            for (int bucket : buckets) versions.incrementAndGet(bucket);
+
+            generation.incrementAndGet();
+        }
+
+        return response;
+    }
+
+    @Override
+    public LeaveResponse leave(String ip, Integer port) {
+        final long[] previous = delegate.digest(ip, port);
+        final LeaveResponse response = delegate.leave(ip, port);
+
+        if (response == LeaveResponse.OK) invalidate(previous, Collections.emptyList());
+
+        return response;
+    }
+
+    @Override
+    public HeartbeatResponse heartbeat(String ip, Integer port) {
+        return delegate.heartbeat(ip, port);
+    }
+
+    @Override
+    public List<String> expire(long now) {
+        final List<String> expired = delegate.expire(now);
+
+        if (!expired.isEmpty()) {
+            for (int i = 0; i < FileSetDigest.BUCKETS; i++) versions.incrementAndGet(i);
+
+            generation.incrementAndGet();
+        }
+
+        return expired;
+    }
+
+    @Override
+    public void forEach(PeerConsumer consumer) {
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public int peerCount() {
+        return delegate.peerCount();
+    }
+
+    @Override
+    public int fileCount() {
+        return delegate.fileCount();
+    }
+
+    @Override
+    public long entryCount() {
+        return delegate.entryCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        names.clear();
+        queries.clear();
+
+        IOUtil.closeIfCloseable(delegate);
+    }
+
+    /**
+     * Bumps the buckets a peer had files in before the change, given as its digest, and the
+     * buckets of the names the change mentions.
+     */
+    private void invalidate(long[] previous, Collection<String> files) {
+        if (previous != null) {
+            for (int i = 0; i < previous.length; i++) {
+                if (previous[i] != 0) versions.incrementAndGet(i);
+            }
+        }
+
+        for (String file : files) versions.incrementAndGet(FileSetDigest.bucket(file));
+
+        generation.incrementAndGet();
+    }
+}
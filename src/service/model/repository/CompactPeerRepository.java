@@ -0,0 +1,499 @@
+package service.model.repository;
+
+import log.ConsoleLog;
+import log.Log;
+import service.model.digest.FileSetDigest;
+import util.collection.*;
+import service.model.response.HeartbeatResponse;
+import service.model.response.JoinResponse;
+import service.model.response.LeaveResponse;
+import service.model.response.UpdateResponse;
+import service.model.search.FilenameIndex;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static service.config.Config.LEASE_DURATION;
+import static service.config.Config.SEARCH_PAGE_LIMIT;
+import static service.config.Config.SEARCH_PEER_LIMIT;
+
+/**
+ * {@link PeerRepository} that stores the index in primitive arrays instead of one
+ * object per (peer, file) pair.
+ *
+ * <p>Peers get dense int ids and filenames and content hashes are interned in
+ * dictionaries, so a pair costs an int in the peer's file set and an int in the
+ * file's sorted posting list. Content hash postings pack the file and peer ids in a
+ * long. Set digests are computed on demand for the rare rejoin instead of being kept
+ * per peer.
+ *
+ * <p>Reads share a lock and writes take it exclusively. Heartbeats only touch the
+ * peer's own lease slot, so they run under the read lock.
+ */
+public class CompactPeerRepository implements PeerRepository {
+    private static final String TAG = "CompactPeerRepository";
+    private static final Log log = new ConsoleLog(TAG);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> peerIds = new HashMap<>();
+    private final StringDictionary names = new StringDictionary();
+    private final StringDictionary hashes = new StringDictionary();
+    private final Postings filePeers = new Postings();
+    private final LongPostings hashPairs = new LongPostings();
+    private final FilenameIndex filenames = new FilenameIndex();
+    private final long leaseDuration;
+    private String[] peerKeys = new String[16];
+    private IntHashSet[] peerFiles = new IntHashSet[16];
+    private IntIntHashMap[] peerHashes = new IntIntHashMap[16];
+    private long[] leases = new long[16];
+    private int[] freePeers = new int[16];
+    private int freePeerCount;
+    private int nextPeer;
+    private long entries;
+
+    public CompactPeerRepository() {
+        this(LEASE_DURATION);
+    }
+
+    public CompactPeerRepository(long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    @Override
+    public String key(String ip, Integer port) {
+        return ip + ":" + port.toString();
+    }
+
+    @Override
+    public JoinResponse join(String ip, Integer port, List<String> files) {
+        lock.writeLock().lock();
+
+        try {
+            final String key = key(ip, port);
+
+            if (peerIds.containsKey(key))
+                return JoinResponse.NOT_AVAILABLE;
+
+            final int peer = allocate(key, files.size());
+
+            for (String file : files) add(peer, file);
+
+            return JoinResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to join peer %s", key(ip, port)));
+
+            return JoinResponse.ERROR;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> search(String file) {
+        lock.readLock().lock();
+
+        try {
+            final int name = names.id(file);
+
+            return name >= 0 ? peers(name, Integer.MAX_VALUE) : new ArrayList<>();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SearchPage search(SearchQuery query) {
+        final int limit = Math.max(1, Math.min(query.getLimit(), SEARCH_PAGE_LIMIT));
+
+        lock.readLock().lock();
+
+        try {
+            final List<String> found = filenames.find(query, limit + 1);
+            final List<SearchHit> hits = new ArrayList<>();
+
+            for (String file : found.subList(0, Math.min(limit, found.size()))) {
+                final int name = names.id(file);
+
+                if (name < 0) continue;
+
+                hits.add(new SearchHit(file, peers(name, SEARCH_PEER_LIMIT)));
+            }
+
+            return new SearchPage(hits, found.size() > limit ? found.get(limit - 1) : null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String hash) {
+        final List<SearchHit> hits = new ArrayList<>();
+
+        lock.readLock().lock();
+
+        try {
+            final int content = hashes.id(hash);
+
+            if (content < 0)
+                return hits;
+
+            final int pairs = hashPairs.size(content);
+            int index = 0;
+
+            // Pairs sort by file id first, so each file's peers are contiguous
+            while (index < pairs && hits.size() < SEARCH_PAGE_LIMIT) {
+                final int name = (int) (hashPairs.get(content, index) >>> 32);
+                final List<String> peers = new ArrayList<>();
+
+                for (; index < pairs && (int) (hashPairs.get(content, index) >>> 32) == name; index++) {
+                    if (peers.size() < SEARCH_PEER_LIMIT)
+                        peers.add(peerKeys[(int) hashPairs.get(content, index)]);
+                }
+
+                hits.add(new SearchHit(names.get(name), peers));
+            }
+
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UpdateResponse update(String ip, Integer port, String file) {
+        return update(ip, port, Collections.singletonList(file), Collections.emptyList());
+    }
+
+    @Override
+    public UpdateResponse update(String ip, Integer port, Collection<String> added, Collection<String> removed) {
+        lock.writeLock().lock();
+
+        try {
+            final Integer peer = peerIds.get(key(ip, port));
+
+            if (peer == null)
+                return UpdateResponse.NOT_JOINED;
+
+            for (String file : removed) {
+                final int name = names.id(file);
+
+                if (name >= 0) remove(peer, name);
+            }
+
+            for (String file : added) add(peer, file);
+
+            leases[peer] = leaseExpiresAt();
+
+            return UpdateResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to update peer %s with %d added and %d removed files", key(ip, port), added.size(), removed.size()));
+
+            return UpdateResponse.ERROR;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public UpdateResponse updateHashes(String ip, Integer port, Map<String, String> hashes) {
+        lock.writeLock().lock();
+
+        try {
+            final Integer peer = peerIds.get(key(ip, port));
+
+            if (peer == null)
+                return UpdateResponse.NOT_JOINED;
+
+            for (Map.Entry<String, String> hash : hashes.entrySet()) {
+                final int name = names.id(hash.getKey());
+
+                if (name < 0 || !peerFiles[peer].contains(name)) continue;
+
+                if (peerHashes[peer] == null) peerHashes[peer] = new IntIntHashMap();
+
+                final int previous = peerHashes[peer].get(name);
+
+                if (previous >= 0 && this.hashes.get(previous).equals(hash.getValue())) continue;
+                if (previous >= 0) unindexHash(previous, name, peer);
+
+                final int content = this.hashes.acquire(hash.getValue());
+
+                peerHashes[peer].put(name, content);
+                hashPairs.add(content, pair(name, peer));
+            }
+
+            leases[peer] = leaseExpiresAt();
+
+            return UpdateResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to update %d hashes of peer %s", hashes.size(), key(ip, port)));
+
+            return UpdateResponse.ERROR;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long[] digest(String ip, Integer port) {
+        lock.readLock().lock();
+
+        try {
+            final Integer peer = peerIds.get(key(ip, port));
+
+            if (peer == null)
+                return null;
+
+            final FileSetDigest digest = new FileSetDigest();
+
+            peerFiles[peer].forEach(name -> digest.add(names.get(name)));
+
+            return digest.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public JoinResponse sync(String ip, Integer port, int[] buckets, Collection<String> files) {
+        lock.writeLock().lock();
+
+        try {
+            final boolean[] replaced = new boolean[FileSetDigest.BUCKETS];
+            final Set<String> wanted = new HashSet<>(files);
+            final String key = key(ip, port);
+            final Integer existing = peerIds.get(key);
+            final int peer = existing != null ? existing : allocate(key, wanted.size());
+
+            for (int bucket : buckets) replaced[bucket] = true;
+
+            for (int name : peerFiles[peer].toArray()) {
+                final String file = names.get(name);
+
+                if (replaced[FileSetDigest.bucket(file)] && !wanted.contains(file))
+                    remove(peer, name);
+            }
+
+            for (String file : wanted) add(peer, file);
+
+            leases[peer] = leaseExpiresAt();
+
+            return JoinResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to sync %d buckets of peer %s", buckets.length, key(ip, port)));
+
+            return JoinResponse.ERROR;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public LeaveResponse leave(String ip, Integer port) {
+        lock.writeLock().lock();
+
+        try {
+            final Integer peer = peerIds.get(key(ip, port));
+
+            if (peer == null)
+                return LeaveResponse.NOT_JOINED;
+
+            release(peer);
+
+            return LeaveResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to release peer %s", key(ip, port)));
+
+            return LeaveResponse.OK;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public HeartbeatResponse heartbeat(String ip, Integer port) {
+        lock.readLock().lock();
+
+        try {
+            final Integer peer = peerIds.get(key(ip, port));
+
+            if (peer == null)
+                return HeartbeatResponse.NOT_JOINED;
+
+            leases[peer] = leaseExpiresAt();
+
+            return HeartbeatResponse.OK;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> expire(long now) {
+        final List<String> expired = new ArrayList<>();
+
+        lock.writeLock().lock();
+
+        try {
+            for (int peer = 0; peer < nextPeer; peer++) {
+                if (peerKeys[peer] == null || leases[peer] >= now) continue;
+
+                expired.add(peerKeys[peer]);
+                release(peer);
+            }
+
+            return expired;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEach(PeerConsumer consumer) {
+        lock.readLock().lock();
+
+        try {
+            for (int peer = 0; peer < nextPeer; peer++) {
+                if (peerKeys[peer] == null) continue;
+
+                final List<String> files = new ArrayList<>(peerFiles[peer].size());
+                final Map<String, String> fileHashes = new HashMap<>();
+
+                peerFiles[peer].forEach(name -> files.add(names.get(name)));
+
+                if (peerHashes[peer] != null)
+                    peerHashes[peer].forEach((name, content) -> fileHashes.put(names.get(name), hashes.get(content)));
+
+                consumer.accept(peerKeys[peer], files, fileHashes);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int peerCount() {
+        lock.readLock().lock();
+
+        try {
+            return peerIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int fileCount() {
+        lock.readLock().lock();
+
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long entryCount() {
+        lock.readLock().lock();
+
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long leaseExpiresAt() {
+        return System.currentTimeMillis() + leaseDuration;
+    }
+
+    private int allocate(String key, int files) {
+        final int peer = freePeerCount > 0 ? freePeers[--freePeerCount] : nextPeer++;
+
+        if (peer >= peerKeys.length) {
+            final int capacity = peerKeys.length * 2;
+
+            peerKeys = Arrays.copyOf(peerKeys, capacity);
+            peerFiles = Arrays.copyOf(peerFiles, capacity);
+            peerHashes = Arrays.copyOf(peerHashes, capacity);
+            leases = Arrays.copyOf(leases, capacity);
+        }
+
+        peerKeys[peer] = key;
+        peerFiles[peer] = new IntHashSet(files);
+        leases[peer] = leaseExpiresAt();
+        peerIds.put(key, peer);
+
+        return peer;
+    }
+
+    private void release(int peer) {
+        for (int name : peerFiles[peer].toArray()) remove(peer, name);
+
+        peerIds.remove(peerKeys[peer]);
+        peerKeys[peer] = null;
+        peerFiles[peer] = null;
+        peerHashes[peer] = null;
+
+        if (freePeerCount == freePeers.length) freePeers = Arrays.copyOf(freePeers, freePeers.length * 2);
+
+        freePeers[freePeerCount++] = peer;
+    }
+
+    private void add(int peer, String file) {
+        final int existing = names.id(file);
+
+        if (existing >= 0 && peerFiles[peer].contains(existing)) return;
+
+        final int name = names.acquire(file);
+
+        if (names.count(name) == 1) filenames.add(file);
+
+        peerFiles[peer].add(name);
+        filePeers.add(name, peer);
+        entries++;
+    }
+
+    private void remove(int peer, int name) {
+        if (!peerFiles[peer].remove(name)) return;
+
+        if (peerHashes[peer] != null) {
+            final int content = peerHashes[peer].remove(name);
+
+            if (content >= 0) unindexHash(content, name, peer);
+        }
+
+        filePeers.remove(name, peer);
+        entries--;
+
+        final String file = names.get(name);
+
+        if (names.release(name)) {
+            filePeers.clear(name);
+            filenames.remove(file);
+        }
+    }
+
+    private void unindexHash(int content, int name, int peer) {
+        hashPairs.remove(content, pair(name, peer));
+
+        if (hashes.release(content)) hashPairs.clear(content);
+    }
+
+    private List<String> peers(int name, int limit) {
+        final int count = Math.min(filePeers.size(name), limit);
+        final List<String> peers = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) peers.add(peerKeys[filePeers.get(name, i)]);
+
+        return peers;
+    }
+
+    private static long pair(int name, int peer) {
+        return (long) name << 32 | peer;
+    }
+}
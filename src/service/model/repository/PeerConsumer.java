@@ -0,0 +1,8 @@
+package service.model.repository;
+
+import java.util.Collection;
+import java.util.Map;
+
+public interface PeerConsumer {
+    void accept(String key, Collection<String> files, Map<String, String> hashes);
+}
@@ -0,0 +1,69 @@
+package service.model.repository;
+
+import service.model.digest.FileSetDigest;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+class PeerEntry {
+    private final Set<String> files = new ConcurrentSkipListSet<>();
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    private final FileSetDigest digest = new FileSetDigest();
+    private volatile long leaseExpiresAt;
+
+    PeerEntry(Collection<String> files, long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+        files.forEach(this::add);
+    }
+
+    boolean add(String file) {
+        if (!files.add(file)) return false;
+
+        digest.add(file);
+
+        return true;
+    }
+
+    boolean remove(String file) {
+        if (!files.remove(file)) return false;
+
+        hashes.remove(file);
+        digest.remove(file);
+
+        return true;
+    }
+
+    /**
+     * Sets the content hash of a file the peer shares, returning the previous one.
+     */
+    String setHash(String file, String hash) {
+        return hashes.put(file, hash);
+    }
+
+    String getHash(String file) {
+        return hashes.get(file);
+    }
+
+    void renew(long leaseExpiresAt) {
+        this.leaseExpiresAt = leaseExpiresAt;
+    }
+
+    boolean isExpired(long now) {
+        return leaseExpiresAt < now;
+    }
+
+    Set<String> getFiles() {
+        return files;
+    }
+
+    Map<String, String> getHashes() {
+        return hashes;
+    }
+
+    FileSetDigest getDigest() {
+        return digest;
+    }
+}
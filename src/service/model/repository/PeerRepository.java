@@ -1,15 +1,33 @@
 package service.model.repository;
 
+import service.model.response.HeartbeatResponse;
 import service.model.response.JoinResponse;
 import service.model.response.LeaveResponse;
 import service.model.response.UpdateResponse;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface PeerRepository {
     String key(String ip, Integer port);
     JoinResponse join(String ip, Integer port, List<String> files);
     List<String> search(String file);
+    SearchPage search(SearchQuery query);
+    List<SearchHit> searchByHash(String hash);
     UpdateResponse update(String ip, Integer port, String file);
+    UpdateResponse update(String ip, Integer port, Collection<String> added, Collection<String> removed);
+    UpdateResponse updateHashes(String ip, Integer port, Map<String, String> hashes);
+    long[] digest(String ip, Integer port);
+    JoinResponse sync(String ip, Integer port, int[] buckets, Collection<String> files);
     LeaveResponse leave(String ip, Integer port);
+    HeartbeatResponse heartbeat(String ip, Integer port);
+    List<String> expire(long now);
+    void forEach(PeerConsumer consumer);
+    int peerCount();
+    int fileCount();
+    long entryCount();
 }
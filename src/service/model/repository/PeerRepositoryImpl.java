@@ -1,20 +1,44 @@
 package service.model.repository;
 
+import service.model.digest.FileSetDigest;
+import service.model.response.HeartbeatResponse;
 import service.model.response.JoinResponse;
 import service.model.response.LeaveResponse;
 import service.model.response.UpdateResponse;
+import service.model.search.FilenameIndex;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
 import log.ConsoleLog;
 import log.Log;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static service.config.Config.LEASE_DURATION;
+import static service.config.Config.SEARCH_PAGE_LIMIT;
+import static service.config.Config.SEARCH_PEER_LIMIT;
 
 public class PeerRepositoryImpl implements PeerRepository {
     private static final String TAG = "PeerRepositoryImpl";
     private static final Log log = new ConsoleLog(TAG);
-    private final ConcurrentMap<String, Set<String>> peerMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PeerEntry> peerMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> fileMap = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Set<String>>> hashMap = new ConcurrentHashMap<>();
+    private final FilenameIndex filenames = new FilenameIndex();
+    private final LongAdder entries = new LongAdder();
+    private final long leaseDuration;
+
+    public PeerRepositoryImpl() {
+        this(LEASE_DURATION);
+    }
+
+    public PeerRepositoryImpl(long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
 
     @Override
     public String key(String ip, Integer port) {
@@ -24,14 +48,15 @@ public class PeerRepositoryImpl implements PeerRepository {
     @Override
     public JoinResponse join(String ip, Integer port, List<String> files) {
         try {
-            if (peerMap.containsKey(key(ip, port)))
-                return JoinResponse.NOT_AVAILABLE;
-
-            Set<String> hostFiles = peerMap.getOrDefault(key(ip, port), new ConcurrentSkipListSet<>());
+            final PeerEntry entry = new PeerEntry(files, leaseExpiresAt());
+            final PeerEntry current = peerMap.computeIfAbsent(key(ip, port), key -> {
+                entry.getFiles().forEach(file -> index(file, key));
 
-            hostFiles.addAll(files);
+                return entry;
+            });
 
-            peerMap.put(key(ip, port), hostFiles);
+            if (current != entry)
+                return JoinResponse.NOT_AVAILABLE;
 
             return JoinResponse.OK;
         } catch (Exception e) {
@@ -43,28 +68,62 @@ public class PeerRepositoryImpl implements PeerRepository {
 
     @Override
     public List<String> search(String file) {
-        List<String> foundOn = new ArrayList<>();
+        final Set<String> foundOn = fileMap.get(file);
+
+        if (foundOn == null)
+            return new ArrayList<>();
+
+        return new ArrayList<>(foundOn);
+    }
+
+    @Override
+    public SearchPage search(SearchQuery query) {
+        final int limit = Math.max(1, Math.min(query.getLimit(), SEARCH_PAGE_LIMIT));
+        final List<String> names = filenames.find(query, limit + 1);
+        final List<SearchHit> hits = new ArrayList<>();
+
+        for (String name : names.subList(0, Math.min(limit, names.size()))) {
+            final Set<String> foundOn = fileMap.get(name);
+
+            if (foundOn == null) continue;
+
+            hits.add(new SearchHit(name, limitPeers(foundOn)));
+        }
+
+        return new SearchPage(hits, names.size() > limit ? names.get(limit - 1) : null);
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String hash) {
+        final Map<String, Set<String>> names = hashMap.get(hash);
+        final List<SearchHit> hits = new ArrayList<>();
+
+        if (names == null)
+            return hits;
+
+        for (Map.Entry<String, Set<String>> name : names.entrySet()) {
+            if (hits.size() >= SEARCH_PAGE_LIMIT) break;
 
-        for (Map.Entry<String, Set<String>> entry : peerMap.entrySet()) {
-            if(entry.getValue().stream().anyMatch(peerFile -> peerFile.equals(file))) {
-                foundOn.add(entry.getKey());
-            }
+            hits.add(new SearchHit(name.getKey(), limitPeers(name.getValue())));
         }
 
-        return foundOn;
+        return hits;
     }
 
     @Override
     public UpdateResponse update(String ip, Integer port, String file) {
         try {
-            if(!peerMap.containsKey(key(ip, port)))
-                return UpdateResponse.NOT_JOINED;
+            final PeerEntry entry = peerMap.computeIfPresent(key(ip, port), (key, current) -> {
+                if (current.add(file))
+                    index(file, key);
 
-            Set<String> hostFiles = peerMap.getOrDefault(key(ip, port), new ConcurrentSkipListSet<>());
+                current.renew(leaseExpiresAt());
 
-            hostFiles.add(file);
+                return current;
+            });
 
-            peerMap.put(key(ip, port), hostFiles);
+            if (entry == null)
+                return UpdateResponse.NOT_JOINED;
 
             return UpdateResponse.OK;
         } catch (Exception e) {
@@ -74,13 +133,129 @@ public class PeerRepositoryImpl implements PeerRepository {
         }
     }
 
+    @Override
+    public UpdateResponse update(String ip, Integer port, Collection<String> added, Collection<String> removed) {
+        try {
+            final PeerEntry entry = peerMap.computeIfPresent(key(ip, port), (key, current) -> {
+                for (String file : removed) {
+                    remove(current, file, key);
+                }
+
+                for (String file : added) {
+                    if (current.add(file))
+                        index(file, key);
+                }
+
+                current.renew(leaseExpiresAt());
+
+                return current;
+            });
+
+            if (entry == null)
+                return UpdateResponse.NOT_JOINED;
+
+            return UpdateResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to update peer %s with %d added and %d removed files", key(ip, port), added.size(), removed.size()));
+
+            return UpdateResponse.ERROR;
+        }
+    }
+
+    @Override
+    public UpdateResponse updateHashes(String ip, Integer port, Map<String, String> hashes) {
+        try {
+            final PeerEntry entry = peerMap.computeIfPresent(key(ip, port), (key, current) -> {
+                for (Map.Entry<String, String> hash : hashes.entrySet()) {
+                    final String file = hash.getKey();
+
+                    if (!current.getFiles().contains(file)) continue;
+
+                    final String previous = current.setHash(file, hash.getValue());
+
+                    if (hash.getValue().equals(previous)) continue;
+                    if (previous != null) unindexHash(previous, file, key);
+
+                    indexHash(hash.getValue(), file, key);
+                }
+
+                current.renew(leaseExpiresAt());
+
+                return current;
+            });
+
+            if (entry == null)
+                return UpdateResponse.NOT_JOINED;
+
+            return UpdateResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to update %d hashes of peer %s", hashes.size(), key(ip, port)));
+
+            return UpdateResponse.ERROR;
+        }
+    }
+
+    @Override
+    public long[] digest(String ip, Integer port) {
+        final long[][] digest = new long[1][];
+
+        peerMap.computeIfPresent(key(ip, port), (key, current) -> {
+            digest[0] = current.getDigest().toArray();
+
+            return current;
+        });
+
+        return digest[0];
+    }
+
+    @Override
+    public JoinResponse sync(String ip, Integer port, int[] buckets, Collection<String> files) {
+        try {
+            final boolean[] replaced = new boolean[FileSetDigest.BUCKETS];
+            final Set<String> wanted = new HashSet<>(files);
+
+            for (int bucket : buckets) replaced[bucket] = true;
+
+            peerMap.compute(key(ip, port), (key, current) -> {
+                final PeerEntry entry = current != null ? current : new PeerEntry(Collections.emptyList(), leaseExpiresAt());
+
+                for (String file : new ArrayList<>(entry.getFiles())) {
+                    if (replaced[FileSetDigest.bucket(file)] && !wanted.contains(file))
+                        remove(entry, file, key);
+                }
+
+                for (String file : wanted) {
+                    if (entry.add(file))
+                        index(file, key);
+                }
+
+                entry.renew(leaseExpiresAt());
+
+                return entry;
+            });
+
+            return JoinResponse.OK;
+        } catch (Exception e) {
+            log.e(String.format("Failed to sync %d buckets of peer %s", buckets.length, key(ip, port)));
+
+            return JoinResponse.ERROR;
+        }
+    }
+
     @Override
     public LeaveResponse leave(String ip, Integer port) {
         try {
-            if (!peerMap.containsKey(key(ip, port)))
-                return LeaveResponse.NOT_JOINED;
+            final AtomicBoolean removed = new AtomicBoolean(false);
 
-            peerMap.remove(key(ip, port));
+            peerMap.computeIfPresent(key(ip, port), (key, current) -> {
+                release(current, key);
+                removed.set(true);
+
+                return null;
+            });
+
+            if (!removed.get())
+                return LeaveResponse.NOT_JOINED;
 
             return LeaveResponse.OK;
         } catch (Exception e) {
@@ -89,4 +264,136 @@ public class PeerRepositoryImpl implements PeerRepository {
             return LeaveResponse.OK;
         }
     }
+
+    @Override
+    public HeartbeatResponse heartbeat(String ip, Integer port) {
+        final PeerEntry entry = peerMap.computeIfPresent(key(ip, port), (key, current) -> {
+            current.renew(leaseExpiresAt());
+
+            return current;
+        });
+
+        return entry != null ? HeartbeatResponse.OK : HeartbeatResponse.NOT_JOINED;
+    }
+
+    @Override
+    public List<String> expire(long now) {
+        final List<String> expired = new ArrayList<>();
+
+        for (Map.Entry<String, PeerEntry> entry : peerMap.entrySet()) {
+            if (!entry.getValue().isExpired(now)) continue;
+
+            peerMap.computeIfPresent(entry.getKey(), (key, current) -> {
+                if (!current.isExpired(now)) return current;
+
+                release(current, key);
+                expired.add(key);
+
+                return null;
+            });
+        }
+
+        return expired;
+    }
+
+    @Override
+    public void forEach(PeerConsumer consumer) {
+        peerMap.forEach((key, entry) -> consumer.accept(key, entry.getFiles(), entry.getHashes()));
+    }
+
+    @Override
+    public int peerCount() {
+        return peerMap.size();
+    }
+
+    @Override
+    public int fileCount() {
+        return fileMap.size();
+    }
+
+    @Override
+    public long entryCount() {
+        return entries.sum();
+    }
+
+    private long leaseExpiresAt() {
+        return System.currentTimeMillis() + leaseDuration;
+    }
+
+    private void remove(PeerEntry entry, String file, String key) {
+        final String hash = entry.getHash(file);
+
+        if (!entry.remove(file)) return;
+
+        unindex(file, key);
+
+        if (hash != null) unindexHash(hash, file, key);
+    }
+
+    private void release(PeerEntry entry, String key) {
+        entry.getFiles().forEach(file -> unindex(file, key));
+        entry.getHashes().forEach((file, hash) -> unindexHash(hash, file, key));
+    }
+
+    private List<String> limitPeers(Set<String> foundOn) {
+        final List<String> peers = new ArrayList<>(Math.min(foundOn.size(), SEARCH_PEER_LIMIT));
+
+        for (String peer : foundOn) {
+            if (peers.size() >= SEARCH_PEER_LIMIT) break;
+
+            peers.add(peer);
+        }
+
+        return peers;
+    }
+
+    private void indexHash(String hash, String file, String key) {
+        hashMap.compute(hash, (content, names) -> {
+            final ConcurrentMap<String, Set<String>> hashNames = names != null ? names : new ConcurrentHashMap<>();
+
+            hashNames.computeIfAbsent(file, name -> ConcurrentHashMap.newKeySet()).add(key);
+
+            return hashNames;
+        });
+    }
+
+    private void unindexHash(String hash, String file, String key) {
+        hashMap.computeIfPresent(hash, (content, names) -> {
+            names.computeIfPresent(file, (name, peers) -> {
+                peers.remove(key);
+
+                return peers.isEmpty() ? null : peers;
+            });
+
+            return names.isEmpty() ? null : names;
+        });
+    }
+
+    private void index(String file, String key) {
+        fileMap.compute(file, (name, peers) -> {
+            final Set<String> filePeers = peers != null ? peers : ConcurrentHashMap.newKeySet();
+
+            if (peers == null)
+                filenames.add(name);
+
+            if (filePeers.add(key))
+                entries.increment();
+
+            return filePeers;
+        });
+    }
+
+    private void unindex(String file, String key) {
+        fileMap.computeIfPresent(file, (name, peers) -> {
+            if (peers.remove(key))
+                entries.decrement();
+
+            if (!peers.isEmpty())
+                return peers;
+
+            filenames.remove(name);
+
+            return null;
+        });
+    }
 }
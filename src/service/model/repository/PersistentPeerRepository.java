@@ -0,0 +1,489 @@
+package service.model.repository;
+
+import log.ConsoleLog;
+import log.Log;
+import service.model.repository.persistence.WriteAheadLog;
+import service.model.response.HeartbeatResponse;
+import service.model.response.JoinResponse;
+import service.model.response.LeaveResponse;
+import service.model.response.UpdateResponse;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static service.config.Config.SNAPSHOT_INTERVAL;
+import static service.config.Config.SNAPSHOT_MIN_RECORDS;
+
+public class PersistentPeerRepository implements PeerRepository, AutoCloseable {
+    private static final String TAG = "PersistentPeerRepository";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final String SNAPSHOT_FORMAT = "snapshot-%020d.bin";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x4e415053;
+    private static final int SNAPSHOT_MAGIC_HASHES = 0x4e415348;
+    private static final byte JOIN = 1;
+    private static final byte UPDATE = 2;
+    private static final byte SYNC = 3;
+    private static final byte LEAVE = 4;
+    private static final byte HASHES = 5;
+    private static final int STRIPES = 64;
+    private final PeerRepository delegate;
+    private final File folder;
+    private final WriteAheadLog wal;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object[] stripes = new Object[STRIPES];
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, TAG);
+
+        thread.setDaemon(true);
+
+        return thread;
+    });
+    private long segment;
+
+    public PersistentPeerRepository(PeerRepository delegate, File folder) throws IOException {
+        this.delegate = delegate;
+        this.folder = folder;
+
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Object();
+
+        if (!folder.exists() && !folder.mkdirs())
+            throw new IOException(String.format("Failed to create folder %s", folder.getPath()));
+
+        final long start = System.nanoTime();
+        final long snapshot = latestSnapshot();
+
+        if (snapshot > 0) loadSnapshot(snapshot);
+
+        final long replayed = WriteAheadLog.replay(folder, snapshot, this::apply);
+        final List<Long> segments = WriteAheadLog.segments(folder);
+
+        this.segment = Math.max(snapshot, segments.isEmpty() ? 0 : segments.get(segments.size() - 1)) + 1;
+        this.wal = new WriteAheadLog(folder, segment);
+        this.recordsSinceSnapshot.set(replayed);
+
+        log.d(
+                "Recovered index from snapshot %d and %d log records in %d ms",
+                snapshot,
+                replayed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        );
+
+        scheduler.scheduleWithFixedDelay(this::snapshotIfNeeded, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String key(String ip, Integer port) {
+        return delegate.key(ip, port);
+    }
+
+    @Override
+    public JoinResponse join(String ip, Integer port, List<String> files) {
+        final String key = key(ip, port);
+
+        return mutate(key, () -> delegate.join(ip, port, files), response -> response == JoinResponse.OK ? record(JOIN, key, output -> {
+            writeStrings(output, files);
+        }) : null);
+    }
+
+    @Override
+    public List<String> search(String file) {
+        return delegate.search(file);
+    }
+
+    @Override
+    public SearchPage search(SearchQuery query) {
+        return delegate.search(query);
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String hash) {
+        return delegate.searchByHash(hash);
+    }
+
+    @Override
+    public UpdateResponse update(String ip, Integer port, String file) {
+        return update(ip, port, Collections.singletonList(file), Collections.emptyList());
+    }
+
+    @Override
+    public UpdateResponse update(String ip, Integer port, Collection<String> added, Collection<String> removed) {
+        final String key = key(ip, port);
+
+        return mutate(key, () -> delegate.update(ip, port, added, removed), response -> response == UpdateResponse.OK ? record(UPDATE, key, output -> {
+            writeStrings(output, added);
+            writeStrings(output, removed);
+        }) : null);
+    }
+
+    @Override
+    public UpdateResponse updateHashes(String ip, Integer port, Map<String, String> hashes) {
+        final String key = key(ip, port);
+
+        return mutate(key, () -> delegate.updateHashes(ip, port, hashes), response -> response == UpdateResponse.OK ? record(HASHES, key, output -> {
+            writeHashes(output, hashes);
+        }) : null);
+    }
+
+    @Override
+    public long[] digest(String ip, Integer port) {
+        return delegate.digest(ip, port);
+    }
+
+    @Override
+    public JoinResponse sync(String ip, Integer port, int[] buckets, Collection<String> files) {
+        final String key = key(ip, port);
+
+        return mutate(key, () -> delegate.sync(ip, port, buckets, files), response -> response == JoinResponse.OK ? record(SYNC, key, output -> {
+            output.writeInt(buckets.length);
+
+            for (int bucket : buckets) output.writeInt(bucket);
+
+            writeStrings(output, files);
+        }) : null);
+    }
+
+    @Override
+    public LeaveResponse leave(String ip, Integer port) {
+        final String key = key(ip, port);
+
+        return mutate(key, () -> delegate.leave(ip, port), response -> response == LeaveResponse.OK ? record(LEAVE, key, output -> {}) : null);
+    }
+
+    @Override
+    public HeartbeatResponse heartbeat(String ip, Integer port) {
+        return delegate.heartbeat(ip, port);
+    }
+
+    @Override
+    public List<String> expire(long now) {
+        final List<String> expired;
+        CompletableFuture<Void> durable = null;
+
+        lock.writeLock().lock();
+
+        try {
+            expired = delegate.expire(now);
+
+            for (String key : expired) {
+                durable = wal.append(record(LEAVE, key, output -> {}));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (durable != null) {
+            recordsSinceSnapshot.addAndGet(expired.size());
+            durable.join();
+        }
+
+        return expired;
+    }
+
+    @Override
+    public void forEach(PeerConsumer consumer) {
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public int peerCount() {
+        return delegate.peerCount();
+    }
+
+    @Override
+    public int fileCount() {
+        return delegate.fileCount();
+    }
+
+    @Override
+    public long entryCount() {
+        return delegate.entryCount();
+    }
+
+    public void snapshot() throws IOException {
+        final long snapshotSegment;
+        final List<PeerSnapshot> peers = new ArrayList<>();
+        final CompletableFuture<Void> rotated;
+
+        lock.writeLock().lock();
+
+        try {
+            snapshotSegment = ++segment;
+            rotated = wal.rotate(snapshotSegment);
+            recordsSinceSnapshot.set(0);
+            delegate.forEach((key, files, hashes) -> peers.add(new PeerSnapshot(key, new ArrayList<>(files), new HashMap<>(hashes))));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        rotated.join();
+
+        final File snapshot = snapshotFile(snapshotSegment);
+        final File temporary = new File(folder, snapshot.getName() + ".tmp");
+
+        try (final FileOutputStream fileOutput = new FileOutputStream(temporary)) {
+            final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOutput), new CRC32());
+            final DataOutputStream output = new DataOutputStream(checked);
+
+            output.writeInt(SNAPSHOT_MAGIC_HASHES);
+            output.writeInt(peers.size());
+
+            for (PeerSnapshot peer : peers) {
+                output.writeUTF(peer.key);
+                writeStrings(output, peer.files);
+                writeHashes(output, peer.hashes);
+            }
+
+            output.flush();
+            new DataOutputStream(fileOutput).writeLong(checked.getChecksum().getValue());
+            fileOutput.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (long existing : snapshots()) {
+            if (existing < snapshotSegment && !snapshotFile(existing).delete())
+                log.w(String.format("Failed to delete old snapshot %d", existing));
+        }
+
+        WriteAheadLog.deleteBefore(folder, snapshotSegment);
+
+        log.d("Wrote snapshot %d with %d peers", snapshotSegment, peers.size());
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+
+        try {
+            snapshot();
+        } catch (IOException e) {
+            log.e("Failed to write snapshot on close", e);
+        }
+
+        wal.close();
+    }
+
+    private void snapshotIfNeeded() {
+        try {
+            if (recordsSinceSnapshot.get() >= SNAPSHOT_MIN_RECORDS)
+                snapshot();
+        } catch (Exception e) {
+            log.e("Failed to write snapshot", e);
+        }
+    }
+
+    private <T> T mutate(String key, Supplier<T> operation, RecordFactory<T> factory) {
+        final T result;
+        final CompletableFuture<Void> durable;
+
+        lock.readLock().lock();
+
+        try {
+            synchronized (stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPES]) {
+                result = operation.get();
+
+                final byte[] record = factory.create(result);
+
+                durable = record != null ? wal.append(record) : null;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (durable != null) {
+            recordsSinceSnapshot.incrementAndGet();
+            durable.join();
+        }
+
+        return result;
+    }
+
+    private static class PeerSnapshot {
+        private final String key;
+        private final List<String> files;
+        private final Map<String, String> hashes;
+
+        private PeerSnapshot(String key, List<String> files, Map<String, String> hashes) {
+            this.key = key;
+            this.files = files;
+            this.hashes = hashes;
+        }
+    }
+
+    private interface RecordFactory<T> {
+        byte[] create(T result);
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private static byte[] record(byte type, String key, RecordWriter writer) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+
+            output.writeByte(type);
+            output.writeUTF(key);
+            writer.write(output);
+            output.flush();
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void apply(byte[] record) {
+        try {
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+            final byte type = input.readByte();
+            final String key = input.readUTF();
+            final int separator = key.lastIndexOf(':');
+            final String ip = key.substring(0, separator);
+            final Integer port = Integer.valueOf(key.substring(separator + 1));
+
+            switch (type) {
+                case JOIN:
+                    delegate.join(ip, port, readStrings(input));
+                    break;
+                case UPDATE:
+                    delegate.update(ip, port, readStrings(input), readStrings(input));
+                    break;
+                case SYNC:
+                    final int[] buckets = new int[input.readInt()];
+
+                    for (int i = 0; i < buckets.length; i++) buckets[i] = input.readInt();
+
+                    delegate.sync(ip, port, buckets, readStrings(input));
+                    break;
+                case LEAVE:
+                    delegate.leave(ip, port);
+                    break;
+                case HASHES:
+                    delegate.updateHashes(ip, port, readHashes(input));
+                    break;
+                default:
+                    throw new IOException(String.format("Unknown record type %d", type));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void loadSnapshot(long snapshot) throws IOException {
+        final File file = snapshotFile(snapshot);
+
+        try (final FileInputStream fileInput = new FileInputStream(file)) {
+            final CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileInput, 1 << 16), new CRC32());
+            final DataInputStream input = new DataInputStream(checked);
+
+            final int magic = input.readInt();
+
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_HASHES)
+                throw new IOException(String.format("Invalid snapshot %s", file.getName()));
+
+            final int peers = input.readInt();
+
+            for (int i = 0; i < peers; i++) {
+                final String key = input.readUTF();
+                final int separator = key.lastIndexOf(':');
+                final String ip = key.substring(0, separator);
+                final Integer port = Integer.valueOf(key.substring(separator + 1));
+
+                delegate.join(ip, port, readStrings(input));
+
+                if (magic == SNAPSHOT_MAGIC_HASHES)
+                    delegate.updateHashes(ip, port, readHashes(input));
+            }
+
+            final long checksum = checked.getChecksum().getValue();
+
+            if (new DataInputStream(checked).readLong() != checksum)
+                throw new IOException(String.format("Checksum mismatch in snapshot %s", file.getName()));
+        }
+    }
+
+    private long latestSnapshot() {
+        final List<Long> snapshots = snapshots();
+
+        return snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+    }
+
+    private List<Long> snapshots() {
+        final List<Long> snapshots = new ArrayList<>();
+        final File[] files = folder.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX));
+
+        if (files == null) return snapshots;
+
+        for (File file : files) {
+            final String name = file.getName();
+
+            try {
+                snapshots.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                log.w(String.format("Ignoring unexpected snapshot file %s", name));
+            }
+        }
+
+        snapshots.sort(Long::compare);
+
+        return snapshots;
+    }
+
+    private File snapshotFile(long segment) {
+        return new File(folder, String.format(SNAPSHOT_FORMAT, segment));
+    }
+
+    private static void writeStrings(DataOutputStream output, Collection<String> strings) throws IOException {
+        output.writeInt(strings.size());
+
+        for (String string : strings) output.writeUTF(string);
+    }
+
+    private static void writeHashes(DataOutputStream output, Map<String, String> hashes) throws IOException {
+        output.writeInt(hashes.size());
+
+        for (Map.Entry<String, String> hash : hashes.entrySet()) {
+            output.writeUTF(hash.getKey());
+            output.writeUTF(hash.getValue());
+        }
+    }
+
+    private static Map<String, String> readHashes(DataInputStream input) throws IOException {
+        final int size = input.readInt();
+        final Map<String, String> hashes = new HashMap<>(size * 2);
+
+        for (int i = 0; i < size; i++) hashes.put(input.readUTF(), input.readUTF());
+
+        return hashes;
+    }
+
+    private static List<String> readStrings(DataInputStream input) throws IOException {
+        final int size = input.readInt();
+        final List<String> strings = new ArrayList<>(size);
+
+        for (int i = 0; i < size; i++) strings.add(input.readUTF());
+
+        return strings;
+    }
+}
@@ -0,0 +1,266 @@
+package service.model.repository.persistence;
+
+import log.ConsoleLog;
+import log.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+public class WriteAheadLog implements AutoCloseable {
+    private static final String TAG = "WriteAheadLog";
+    private static final Log log = new ConsoleLog(TAG);
+    private static final String SEGMENT_FORMAT = "wal-%020d.log";
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int MAX_GROUP_SIZE = 4096;
+    private static final Entry CLOSE = new Entry(null, -1);
+    private final File folder;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private long segment;
+
+    private static class Entry {
+        private final byte[] record;
+        private final long nextSegment;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private Entry(byte[] record, long nextSegment) {
+            this.record = record;
+            this.nextSegment = nextSegment;
+        }
+    }
+
+    public WriteAheadLog(File folder, long segment) throws IOException {
+        this.folder = folder;
+        this.segment = segment;
+        this.channel = open(segment);
+        this.writer = new Thread(this::write, TAG);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static List<Long> segments(File folder) {
+        final List<Long> segments = new ArrayList<>();
+        final File[] files = folder.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+
+        if (files == null) return segments;
+
+        for (File file : files) {
+            final String name = file.getName();
+
+            try {
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                log.w(String.format("Ignoring unexpected log file %s", name));
+            }
+        }
+
+        segments.sort(Long::compare);
+
+        return segments;
+    }
+
+    /**
+     * Applies the records of the segments from {@code fromSegment} on, in order. Only the
+     * last segment may end in a record torn by a crash, which is truncated away; corruption
+     * in an earlier segment, or a record {@code consumer} fails to apply, fails the replay
+     * rather than drop the acknowledged records after it.
+     */
+    public static long replay(File folder, long fromSegment, Consumer<byte[]> consumer) throws IOException {
+        final List<Long> segments = segments(folder);
+        long replayed = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            if (segments.get(i) < fromSegment) continue;
+
+            final File file = segmentFile(folder, segments.get(i));
+            final long fileLength = file.length();
+            long validLength = 0;
+            String torn = null;
+
+            try (final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (validLength < fileLength) {
+                    // A zero-filled or garbled tail left by a crash shows up as a header
+                    // cut short or a length no record can have
+                    if (fileLength - validLength < HEADER_SIZE) {
+                        torn = "partial record header";
+                        break;
+                    }
+
+                    final int length = input.readInt();
+                    final int checksum = input.readInt();
+
+                    if (length <= 0 || length > fileLength - validLength - HEADER_SIZE) {
+                        torn = String.format("invalid record length %d", length);
+                        break;
+                    }
+
+                    final byte[] record = new byte[length];
+
+                    input.readFully(record);
+
+                    if (checksum(record) != checksum) {
+                        torn = "checksum mismatch";
+                        break;
+                    }
+
+                    try {
+                        consumer.accept(record);
+                    } catch (RuntimeException e) {
+                        throw new IOException(String.format("Failed to apply record at %d in %s", validLength, file.getName()), e);
+                    }
+
+                    validLength += HEADER_SIZE + length;
+                    replayed++;
+                }
+            }
+
+            if (torn == null) continue;
+
+            if (i < segments.size() - 1)
+                throw new IOException(String.format("Corrupt log segment %s at byte %d: %s", file.getName(), validLength, torn));
+
+            log.w(String.format("Truncating torn tail of %s at byte %d: %s", file.getName(), validLength, torn));
+
+            try (final FileChannel truncate = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                truncate.truncate(validLength);
+            }
+        }
+
+        return replayed;
+    }
+
+    public static void deleteBefore(File folder, long segment) {
+        for (long existing : segments(folder)) {
+            if (existing < segment && !segmentFile(folder, existing).delete())
+                log.w(String.format("Failed to delete old log segment %d", existing));
+        }
+    }
+
+    public CompletableFuture<Void> append(byte[] record) {
+        final Entry entry = new Entry(record, -1);
+
+        queue.add(entry);
+
+        return entry.durable;
+    }
+
+    public CompletableFuture<Void> rotate(long nextSegment) {
+        final Entry entry = new Entry(null, nextSegment);
+
+        queue.add(entry);
+
+        return entry.durable;
+    }
+
+    @Override
+    public void close() {
+        queue.add(CLOSE);
+
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        final List<Entry> group = new ArrayList<>();
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        final DataOutputStream batchWriter = new DataOutputStream(batch);
+        boolean running = true;
+
+        while (running) {
+            try {
+                group.add(queue.take());
+                queue.drainTo(group, MAX_GROUP_SIZE);
+
+                for (Entry entry : group) {
+                    if (entry == CLOSE) {
+                        running = false;
+                    } else if (entry.record != null) {
+                        batchWriter.writeInt(entry.record.length);
+                        batchWriter.writeInt(checksum(entry.record));
+                        batchWriter.write(entry.record);
+                    } else {
+                        writeBatch(batch);
+                        channel.force(false);
+                        channel.close();
+                        segment = entry.nextSegment;
+                        channel = open(segment);
+                    }
+                }
+
+                writeBatch(batch);
+                channel.force(false);
+
+                for (Entry entry : group) {
+                    entry.durable.complete(null);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+                fail(group, e);
+            } catch (IOException e) {
+                log.e("Failed to write log segment", e);
+                fail(group, e);
+            } finally {
+                group.clear();
+                batch.reset();
+            }
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+    private void writeBatch(ByteArrayOutputStream batch) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        batch.reset();
+    }
+
+    private void fail(List<Entry> group, Exception e) {
+        for (Entry entry : group) {
+            entry.durable.completeExceptionally(e);
+        }
+    }
+
+    private FileChannel open(long segment) throws IOException {
+        return FileChannel.open(
+                segmentFile(folder, segment).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND
+        );
+    }
+
+    private static File segmentFile(File folder, long segment) {
+        return new File(folder, String.format(SEGMENT_FORMAT, segment));
+    }
+
+    private static int checksum(byte[] record) {
+        final CRC32 crc = new CRC32();
+
+        crc.update(record, 0, record.length);
+
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,16 @@
+package service.model.response;
+
+public enum HeartbeatResponse {
+    OK("HEARTBEAT_OK"),
+    NOT_JOINED("HEARTBEAT_NOT_JOINED");
+
+    private final String code;
+
+    HeartbeatResponse(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,319 @@
+package service.model.search;
+
+import util.collection.Postings;
+import util.collection.StringDictionary;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Secondary index over the distinct filenames known to a repository, serving prefix,
+ * substring and glob queries without scanning every name.
+ *
+ * <p>Names are keyed by their case-folded form. A sorted set of folded names answers
+ * prefix ranges, and trigram posting lists narrow substring and glob queries down to
+ * the names sharing every trigram of the query. Candidates are always re-checked
+ * against the original name, so case-sensitive queries go through the same paths.
+ * Results come out in {@link #ORDER}, which makes the last filename of a page a stable
+ * cursor for the next one.
+ *
+ * <p>Folded names and trigrams are interned as int ids and the posting lists are
+ * primitive arrays of name ids, so a name costs a couple of hundred bytes whatever its
+ * length. Writers take a lock exclusively and queries share it.
+ */
+public class FilenameIndex {
+    public static final Comparator<String> ORDER = Comparator.comparing(FilenameIndex::fold).thenComparing(Comparator.naturalOrder());
+    private static final int GRAM = 3;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StringDictionary names = new StringDictionary();
+    private final StringDictionary grams = new StringDictionary();
+    private final Postings postings = new Postings();
+    private final NavigableSet<String> sorted = new TreeSet<>();
+    private Object[] variants = new Object[16];
+
+    public void add(String name) {
+        final String folded = fold(name);
+
+        lock.writeLock().lock();
+
+        try {
+            final int existing = names.id(folded);
+
+            if (existing >= 0) {
+                final Object current = variants[existing];
+
+                if (current.equals(name) || current instanceof String[] && Arrays.binarySearch((String[]) current, name) >= 0)
+                    return;
+            }
+
+            final int id = names.acquire(folded);
+
+            if (id >= variants.length) variants = Arrays.copyOf(variants, Math.max(id + 1, variants.length * 2));
+
+            if (existing < 0) {
+                variants[id] = name;
+                sorted.add(folded);
+
+                for (String gram : grams(folded)) postings.add(grams.acquire(gram), id);
+            } else {
+                variants[id] = withVariant(variants[id], name);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String name) {
+        final String folded = fold(name);
+
+        lock.writeLock().lock();
+
+        try {
+            final int id = names.id(folded);
+
+            if (id < 0) return;
+
+            final Object current = variants[id];
+
+            if (current instanceof String[]) {
+                final Object remaining = withoutVariant((String[]) current, name);
+
+                if (remaining == current) return;
+
+                variants[id] = remaining;
+                names.release(id);
+
+                return;
+            }
+
+            if (!current.equals(name)) return;
+
+            variants[id] = null;
+            sorted.remove(folded);
+
+            for (String gram : grams(folded)) {
+                final int gramId = grams.id(gram);
+
+                postings.remove(gramId, id);
+
+                if (grams.release(gramId)) postings.clear(gramId);
+            }
+
+            names.release(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} filenames matching the query that sort after its cursor.
+     */
+    public List<String> find(SearchQuery query, int limit) {
+        final List<String> found = new ArrayList<>();
+        final String after = query.getAfter();
+        final Predicate<String> matcher = matcher(query);
+
+        lock.readLock().lock();
+
+        try {
+            for (String folded : candidates(query, after != null ? fold(after) : "")) {
+                final int id = names.id(folded);
+
+                if (id < 0) continue;
+
+                for (String name : variants(id)) {
+                    if (after != null && ORDER.compare(name, after) <= 0) continue;
+                    if (!matcher.test(name)) continue;
+
+                    found.add(name);
+
+                    if (found.size() >= limit) return found;
+                }
+            }
+
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private Iterable<String> candidates(SearchQuery query, String from) {
+        final String pattern = fold(query.getPattern());
+
+        switch (query.getMode()) {
+            case EXACT:
+                return pattern.compareTo(from) >= 0 ? Collections.singletonList(pattern) : Collections.emptyList();
+            case PREFIX:
+                return range(pattern, from);
+            case SUBSTRING:
+                return pattern.length() >= GRAM ? postings(pattern, from) : sorted.tailSet(from, true);
+            case GLOB:
+                final String prefix = literalPrefix(pattern);
+
+                if (!prefix.isEmpty())
+                    return range(prefix, from);
+
+                final String literal = longestLiteral(pattern);
+
+                return literal.length() >= GRAM ? postings(literal, from) : sorted.tailSet(from, true);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    private Iterable<String> range(String prefix, String from) {
+        final String low = prefix.compareTo(from) >= 0 ? prefix : from;
+        final String high = prefix + Character.MAX_VALUE;
+
+        if (low.compareTo(high) >= 0)
+            return Collections.emptyList();
+
+        return sorted.subSet(low, true, high, false);
+    }
+
+    private Iterable<String> postings(String literal, String from) {
+        final List<Integer> lists = new ArrayList<>();
+
+        for (String gram : grams(literal)) {
+            final int gramId = grams.id(gram);
+
+            if (gramId < 0)
+                return Collections.emptyList();
+
+            lists.add(gramId);
+        }
+
+        lists.sort(Comparator.comparingInt(postings::size));
+
+        final TreeSet<String> intersection = new TreeSet<>();
+        final int shortest = lists.get(0);
+        final int[] cursors = new int[lists.size()];
+
+        // Lists are sorted by name id, so each one is walked once alongside the shortest
+        for (int i = 0; i < postings.size(shortest); i++) {
+            final int id = postings.get(shortest, i);
+            boolean everywhere = true;
+
+            for (int l = 1; l < lists.size() && everywhere; l++) {
+                final int list = lists.get(l);
+
+                while (cursors[l] < postings.size(list) && postings.get(list, cursors[l]) < id) cursors[l]++;
+
+                everywhere = cursors[l] < postings.size(list) && postings.get(list, cursors[l]) == id;
+            }
+
+            if (!everywhere) continue;
+
+            final String folded = names.get(id);
+
+            if (folded.compareTo(from) >= 0) intersection.add(folded);
+        }
+
+        return intersection;
+    }
+
+    private List<String> variants(int id) {
+        final Object current = variants[id];
+
+        return current instanceof String[] ? Arrays.asList((String[]) current) : Collections.singletonList((String) current);
+    }
+
+    private static Object withVariant(Object current, String name) {
+        final String[] existing = current instanceof String[] ? (String[]) current : new String[]{(String) current};
+        final String[] updated = Arrays.copyOf(existing, existing.length + 1);
+
+        updated[existing.length] = name;
+        Arrays.sort(updated);
+
+        return updated;
+    }
+
+    private static Object withoutVariant(String[] current, String name) {
+        final int index = Arrays.binarySearch(current, name);
+
+        if (index < 0) return current;
+        if (current.length == 2) return current[1 - index];
+
+        final String[] updated = new String[current.length - 1];
+
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, updated.length - index);
+
+        return updated;
+    }
+
+    private static Predicate<String> matcher(SearchQuery query) {
+        final String pattern = query.getPattern();
+        final boolean ignoreCase = query.isIgnoreCase();
+
+        switch (query.getMode()) {
+            case EXACT:
+                return ignoreCase ? name -> fold(name).equals(fold(pattern)) : pattern::equals;
+            case PREFIX:
+                return ignoreCase ? name -> fold(name).startsWith(fold(pattern)) : name -> name.startsWith(pattern);
+            case SUBSTRING:
+                return ignoreCase ? name -> fold(name).contains(fold(pattern)) : name -> name.contains(pattern);
+            case GLOB:
+                final Pattern regex = glob(pattern, ignoreCase);
+
+                return name -> regex.matcher(name).matches();
+            default:
+                return name -> false;
+        }
+    }
+
+    private static Pattern glob(String pattern, boolean ignoreCase) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+
+        for (char c : pattern.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+
+                literal.setLength(0);
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+
+        if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+
+        return Pattern.compile(regex.toString(), ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL : Pattern.DOTALL);
+    }
+
+    private static String literalPrefix(String glob) {
+        int end = 0;
+
+        while (end < glob.length() && glob.charAt(end) != '*' && glob.charAt(end) != '?') end++;
+
+        return glob.substring(0, end);
+    }
+
+    private static String longestLiteral(String glob) {
+        String longest = "";
+
+        for (String literal : glob.split("[*?]")) {
+            if (literal.length() > longest.length()) longest = literal;
+        }
+
+        return longest;
+    }
+
+    private static Set<String> grams(String folded) {
+        final Set<String> grams = new HashSet<>();
+
+        for (int i = 0; i + GRAM <= folded.length(); i++) {
+            grams.add(folded.substring(i, i + GRAM));
+        }
+
+        return grams;
+    }
+}
@@ -0,0 +1,23 @@
+package service.model.search;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class SearchHit implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String filename;
+    private final List<String> peers;
+
+    public SearchHit(String filename, List<String> peers) {
+        this.filename = filename;
+        this.peers = peers;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+}
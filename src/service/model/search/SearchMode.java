@@ -0,0 +1,26 @@
+package service.model.search;
+
+public enum SearchMode {
+    EXACT("exact"),
+    PREFIX("prefix"),
+    SUBSTRING("substring"),
+    GLOB("glob");
+
+    private final String name;
+
+    SearchMode(String name) {
+        this.name = name;
+    }
+
+    public static SearchMode from(String name) {
+        for (SearchMode mode : values()) {
+            if (mode.getName().equalsIgnoreCase(name)) return mode;
+        }
+
+        return EXACT;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,30 @@
+package service.model.search;
+
+import java.io.Serializable;
+import java.util.List;
+
+public class SearchPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final List<SearchHit> hits;
+    private final String next;
+
+    public SearchPage(List<SearchHit> hits, String next) {
+        this.hits = hits;
+        this.next = next;
+    }
+
+    public List<SearchHit> getHits() {
+        return hits;
+    }
+
+    /**
+     * Cursor for the following page, or {@code null} when this is the last one.
+     */
+    public String getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+}
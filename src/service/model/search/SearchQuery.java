@@ -0,0 +1,71 @@
+package service.model.search;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class SearchQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String pattern;
+    private final SearchMode mode;
+    private final boolean ignoreCase;
+    private final String after;
+    private final int limit;
+
+    public SearchQuery(String pattern, SearchMode mode, boolean ignoreCase, String after, int limit) {
+        this.pattern = pattern;
+        this.mode = mode;
+        this.ignoreCase = ignoreCase;
+        this.after = after;
+        this.limit = limit;
+    }
+
+    /**
+     * Query for the page that follows the given one, resuming after its last filename.
+     */
+    public SearchQuery next(SearchPage page) {
+        return new SearchQuery(pattern, mode, ignoreCase, page.getNext(), limit);
+    }
+
+    public SearchQuery withLimit(int limit) {
+        return new SearchQuery(pattern, mode, ignoreCase, after, limit);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public SearchMode getMode() {
+        return mode;
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof SearchQuery)) return false;
+
+        final SearchQuery query = (SearchQuery) other;
+
+        return ignoreCase == query.ignoreCase
+                && limit == query.limit
+                && mode == query.mode
+                && pattern.equals(query.pattern)
+                && Objects.equals(after, query.after);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pattern, mode, ignoreCase, after, limit);
+    }
+}
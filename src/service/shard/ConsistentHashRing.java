@@ -0,0 +1,56 @@
+package service.shard;
+
+import service.model.digest.FileSetDigest;
+
+import java.util.*;
+
+public class ConsistentHashRing<T> {
+    private final int virtualNodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, T> nodes = new LinkedHashMap<>();
+    private final List<T> owners = new ArrayList<>();
+
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public synchronized void add(String id, T node) {
+        nodes.put(id, node);
+
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(FileSetDigest.hash(id + "#" + i), id);
+        }
+
+        assign();
+    }
+
+    public synchronized void remove(String id) {
+        nodes.remove(id);
+        ring.values().removeIf(id::equals);
+        assign();
+    }
+
+    public synchronized T owner(int bucket) {
+        return owners.get(bucket);
+    }
+
+    public T owner(String file) {
+        return owner(FileSetDigest.bucket(file));
+    }
+
+    public synchronized Collection<T> nodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    private void assign() {
+        owners.clear();
+
+        if (ring.isEmpty()) return;
+
+        for (int bucket = 0; bucket < FileSetDigest.BUCKETS; bucket++) {
+            final Map.Entry<Long, String> entry = ring.ceilingEntry(FileSetDigest.hash("bucket#" + bucket));
+
+            owners.add(nodes.get(entry != null ? entry.getValue() : ring.firstEntry().getValue()));
+        }
+    }
+}
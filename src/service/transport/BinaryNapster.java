@@ -0,0 +1,228 @@
+package service.transport;
+
+import service.Napster;
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static service.config.Config.BINARY_CALL_TIMEOUT;
+import static service.config.Config.BINARY_MAX_FRAME;
+import static service.transport.BinaryProtocol.*;
+
+/**
+ * Client side of the {@link BinaryProtocol}. All calls share one connection: each one
+ * writes its request frame and waits for the response with the same request id, which
+ * a reader thread hands over as responses arrive.
+ */
+public class BinaryNapster implements Napster, AutoCloseable {
+    private final String address;
+    private final Socket socket;
+    private final DataOutputStream output;
+    private final DataInputStream input;
+    private final ConcurrentMap<Integer, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Thread reader;
+    private volatile IOException failure;
+
+    private interface Request {
+        void write(DataOutput output) throws IOException;
+    }
+
+    private interface Reply<T> {
+        T read(DataInputStream input) throws IOException;
+    }
+
+    private static class Response {
+        private final byte status;
+        private final byte[] payload;
+
+        Response(byte status, byte[] payload) {
+            this.status = status;
+            this.payload = payload;
+        }
+    }
+
+    public BinaryNapster(String host, int port) throws RemoteException {
+        this.address = host + ":" + port;
+
+        try {
+            this.socket = new Socket();
+            this.socket.connect(new InetSocketAddress(host, port));
+            this.socket.setTcpNoDelay(true);
+            this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        } catch (IOException e) {
+            throw new ConnectException(String.format("Failed to connect to index %s", address), e);
+        }
+
+        this.reader = new Thread(this::read, "BinaryNapster-" + address);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    @Override
+    public String join(String ip, Integer port, List<String> files) throws RemoteException {
+        return call(JOIN, ip, port, output -> writeStrings(output, files), BinaryProtocol::readString);
+    }
+
+    @Override
+    public List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return call(SEARCH, ip, port, output -> writeString(output, filenameWithExtension), BinaryProtocol::readStrings);
+    }
+
+    @Override
+    public SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException {
+        return call(SEARCH_QUERY, ip, port, output -> writeQuery(output, query), BinaryProtocol::readPage);
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException {
+        return call(SEARCH_BY_HASH, ip, port, output -> writeString(output, hash), BinaryProtocol::readHits);
+    }
+
+    @Override
+    public String update(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return call(UPDATE, ip, port, output -> writeString(output, filenameWithExtension), BinaryProtocol::readString);
+    }
+
+    @Override
+    public String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException {
+        return call(UPDATE_BATCH, ip, port, output -> {
+            writeStrings(output, added);
+            writeStrings(output, removed);
+        }, BinaryProtocol::readString);
+    }
+
+    @Override
+    public String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException {
+        return call(UPDATE_HASHES, ip, port, output -> writeStringMap(output, hashes), BinaryProtocol::readString);
+    }
+
+    @Override
+    public int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException {
+        return call(REJOIN, ip, port, output -> writeLongs(output, digest), BinaryProtocol::readInts);
+    }
+
+    @Override
+    public String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException {
+        return call(SYNC, ip, port, output -> {
+            writeInts(output, buckets);
+            writeStrings(output, files);
+        }, BinaryProtocol::readString);
+    }
+
+    @Override
+    public String leave(String ip, Integer port) throws RemoteException {
+        return call(LEAVE, ip, port, output -> {
+        }, BinaryProtocol::readString);
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port) throws RemoteException {
+        return call(HEARTBEAT, ip, port, output -> {
+        }, BinaryProtocol::readString);
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException {
+        return call(HEARTBEAT_SLOTS, ip, port, output -> output.writeInt(freeSlots), BinaryProtocol::readString);
+    }
+
+    @Override
+    public String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException {
+        return call(REPORT, ip, port, output -> writeReports(output, reports), BinaryProtocol::readString);
+    }
+
+    @Override
+    public long[] versions(String ip, Integer port) throws RemoteException {
+        return call(VERSIONS, ip, port, output -> {
+        }, BinaryProtocol::readLongs);
+    }
+
+    private <T> T call(byte opcode, String ip, Integer port, Request request, Reply<T> reply) throws RemoteException {
+        final int requestId = ids.incrementAndGet();
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream payload = new DataOutputStream(bytes);
+
+        try {
+            writeString(payload, ip);
+            payload.writeInt(port);
+            request.write(payload);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to encode request", e);
+        }
+
+        pending.put(requestId, future);
+
+        try {
+            if (failure != null) throw failure;
+
+            synchronized (output) {
+                output.write(frame(requestId, opcode, bytes.toByteArray()));
+                output.flush();
+            }
+
+            final Response response = future.get(BINARY_CALL_TIMEOUT, TimeUnit.MILLISECONDS);
+            final DataInputStream result = new DataInputStream(new ByteArrayInputStream(response.payload));
+
+            if (response.status != OK)
+                throw new RemoteException(String.format("Index %s failed: %s", address, readString(result)));
+
+            return reply.read(result);
+        } catch (IOException e) {
+            throw new RemoteException(String.format("Call to index %s failed", address), e);
+        } catch (ExecutionException e) {
+            throw new RemoteException(String.format("Call to index %s failed", address), e.getCause());
+        } catch (TimeoutException e) {
+            throw new RemoteException(String.format("Call to index %s timed out", address), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new RemoteException("Interrupted while waiting for the index", e);
+        } finally {
+            pending.remove(requestId);
+        }
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                final int length = input.readInt();
+
+                if (length < HEADER_SIZE || length > BINARY_MAX_FRAME)
+                    throw new IOException(String.format("Invalid frame length %d", length));
+
+                final int requestId = input.readInt();
+                final byte status = input.readByte();
+                final byte[] payload = new byte[length - HEADER_SIZE];
+
+                input.readFully(payload);
+
+                final CompletableFuture<Response> future = pending.remove(requestId);
+
+                if (future != null) future.complete(new Response(status, payload));
+            }
+        } catch (IOException e) {
+            failure = e;
+
+            for (CompletableFuture<Response> future : pending.values()) future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
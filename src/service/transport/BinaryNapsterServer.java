@@ -0,0 +1,326 @@
+package service.transport;
+
+import log.ConsoleLog;
+import log.Log;
+import service.Napster;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static service.config.Config.BINARY_MAX_FRAME;
+import static service.config.Config.BINARY_WORKER_COUNT;
+import static service.transport.BinaryProtocol.*;
+
+/**
+ * Serves a {@link Napster} over the {@link BinaryProtocol}.
+ *
+ * <p>One selector thread accepts connections, splits incoming bytes into frames and
+ * writes responses back; the calls themselves run on a worker pool, so a slow call does
+ * not hold up other requests on the same connection.
+ */
+public class BinaryNapsterServer implements AutoCloseable {
+    private static final String TAG = "BinaryNapsterServer";
+    private final Log log = new ConsoleLog(TAG);
+    private final Napster napster;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private static class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        private ByteBuffer input = ByteBuffer.allocate(8192);
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+    }
+
+    public BinaryNapsterServer(Napster napster, int port, boolean debug) throws IOException {
+        this.napster = napster;
+        this.log.setDebug(debug);
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        final AtomicInteger counter = new AtomicInteger();
+
+        this.workers = Executors.newFixedThreadPool(BINARY_WORKER_COUNT, runnable -> {
+            final Thread worker = new Thread(runnable, TAG + "-worker-" + counter.incrementAndGet());
+
+            worker.setDaemon(true);
+
+            return worker;
+        });
+        this.thread = new Thread(this::loop, TAG + "-" + port);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Number of decoded calls waiting for a worker.
+     */
+    public int getPendingCalls() {
+        return pending.get();
+    }
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+
+                Connection connection;
+
+                while ((connection = writable.poll()) != null) {
+                    if (connection.key.isValid())
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid()) continue;
+
+                        if (key.isAcceptable()) accept();
+                        if (key.isValid() && key.isReadable()) read((Connection) key.attachment());
+                        if (key.isValid() && key.isWritable()) write((Connection) key.attachment());
+                    } catch (IOException e) {
+                        log.d("Closing connection: %s", e.getMessage());
+                        close((Connection) key.attachment());
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed
+        } catch (IOException e) {
+            log.e("Binary transport stopped!", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = serverChannel.accept();
+
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+
+        key.attach(new Connection(channel, key));
+        log.d("Accepted connection from %s", channel.socket().getRemoteSocketAddress());
+    }
+
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.input) < 0) {
+            close(connection);
+            return;
+        }
+
+        final ByteBuffer input = connection.input;
+
+        input.flip();
+
+        while (input.remaining() >= 4) {
+            final int length = input.getInt(input.position());
+
+            if (length < HEADER_SIZE || length > BINARY_MAX_FRAME)
+                throw new IOException(String.format("Invalid frame length %d", length));
+
+            if (input.remaining() < 4 + length) {
+                // Make room for the whole frame before reading more
+                if (input.capacity() < 4 + length) {
+                    final ByteBuffer larger = ByteBuffer.allocate(4 + length);
+
+                    larger.put(input);
+                    connection.input = larger;
+
+                    return;
+                }
+
+                break;
+            }
+
+            input.getInt();
+
+            final int requestId = input.getInt();
+            final byte opcode = input.get();
+            final byte[] payload = new byte[length - HEADER_SIZE];
+
+            input.get(payload);
+            submit(connection, requestId, opcode, payload);
+        }
+
+        input.compact();
+    }
+
+    private void submit(Connection connection, int requestId, byte opcode, byte[] payload) {
+        pending.incrementAndGet();
+
+        try {
+            workers.execute(() -> {
+                pending.decrementAndGet();
+                connection.output.add(ByteBuffer.wrap(handle(requestId, opcode, payload)));
+                writable.add(connection);
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) {
+            // Closing
+            pending.decrementAndGet();
+        }
+    }
+
+    private void write(Connection connection) throws IOException {
+        ByteBuffer buffer;
+
+        while ((buffer = connection.output.peek()) != null) {
+            connection.channel.write(buffer);
+
+            if (buffer.hasRemaining()) return;
+
+            connection.output.poll();
+        }
+
+        connection.key.interestOps(SelectionKey.OP_READ);
+
+        // A worker may have queued a response after the loop above gave up
+        if (!connection.output.isEmpty()) connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private byte[] handle(int requestId, byte opcode, byte[] payload) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+
+        try {
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+
+            dispatch(opcode, input, output);
+
+            return frame(requestId, OK, bytes.toByteArray());
+        } catch (Exception e) {
+            log.e(String.format("Failed to handle request %d with opcode %d", requestId, opcode), e);
+
+            bytes.reset();
+
+            try {
+                writeString(output, String.valueOf(e.getMessage()));
+            } catch (IOException ignored) {
+                // Writing to memory
+            }
+
+            return frame(requestId, ERROR, bytes.toByteArray());
+        }
+    }
+
+    private void dispatch(byte opcode, DataInputStream input, DataOutputStream output) throws IOException {
+        final String ip = readString(input);
+        final int port = input.readInt();
+
+        switch (opcode) {
+            case JOIN:
+                writeString(output, napster.join(ip, port, readStrings(input)));
+                break;
+            case SEARCH:
+                writeStrings(output, napster.search(ip, port, readString(input)));
+                break;
+            case SEARCH_QUERY:
+                writePage(output, napster.search(ip, port, readQuery(input)));
+                break;
+            case SEARCH_BY_HASH:
+                writeHits(output, napster.searchByHash(ip, port, readString(input)));
+                break;
+            case UPDATE:
+                writeString(output, napster.update(ip, port, readString(input)));
+                break;
+            case UPDATE_BATCH:
+                writeString(output, napster.update(ip, port, readStrings(input), readStrings(input)));
+                break;
+            case UPDATE_HASHES:
+                writeString(output, napster.updateHashes(ip, port, readStringMap(input)));
+                break;
+            case REJOIN:
+                writeInts(output, napster.rejoin(ip, port, readLongs(input)));
+                break;
+            case SYNC:
+                writeString(output, napster.sync(ip, port, readInts(input), readStrings(input)));
+                break;
+            case LEAVE:
+                writeString(output, napster.leave(ip, port));
+                break;
+            case HEARTBEAT:
+                writeString(output, napster.heartbeat(ip, port));
+                break;
+            case HEARTBEAT_SLOTS:
+                writeString(output, napster.heartbeat(ip, port, input.readInt()));
+                break;
+            case REPORT:
+                writeString(output, napster.report(ip, port, readReports(input)));
+                break;
+            case VERSIONS:
+                writeLongs(output, napster.versions(ip, port));
+                break;
+            default:
+                throw new IOException(String.format("Unknown opcode %d", opcode));
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection == null) return;
+
+        connection.key.cancel();
+
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        workers.shutdown();
+        selector.wakeup();
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) close((Connection) key.attachment());
+        }
+
+        serverChannel.close();
+        selector.close();
+    }
+}
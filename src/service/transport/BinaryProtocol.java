@@ -0,0 +1,247 @@
+package service.transport;
+
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchMode;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Wire format of the binary index transport.
+ *
+ * <p>Every message is a frame: an {@code int} length counting the bytes after it, an
+ * {@code int} request id, a {@code byte} code and the payload. Requests carry an opcode
+ * as the code and responses carry {@link #OK} or {@link #ERROR}, echoing the id of the
+ * request they answer, so one connection can have many calls in flight and answers may
+ * arrive in any order. An error payload is the exception message.
+ *
+ * <p>Strings are an {@code int} byte count followed by UTF-8, lists and arrays an
+ * {@code int} element count followed by the elements; a count of -1 stands for null.
+ * Payloads are read from memory, so counts that do not fit the bytes left are rejected.
+ */
+public final class BinaryProtocol {
+    public static final byte JOIN = 1;
+    public static final byte SEARCH = 2;
+    public static final byte SEARCH_QUERY = 3;
+    public static final byte SEARCH_BY_HASH = 4;
+    public static final byte UPDATE = 5;
+    public static final byte UPDATE_BATCH = 6;
+    public static final byte UPDATE_HASHES = 7;
+    public static final byte REJOIN = 8;
+    public static final byte SYNC = 9;
+    public static final byte LEAVE = 10;
+    public static final byte HEARTBEAT = 11;
+    public static final byte VERSIONS = 12;
+    public static final byte HEARTBEAT_SLOTS = 13;
+    public static final byte REPORT = 14;
+
+    public static final byte OK = 0;
+    public static final byte ERROR = 1;
+
+    /**
+     * Bytes of the request id and code that follow the length.
+     */
+    public static final int HEADER_SIZE = 5;
+
+    /**
+     * Fewest bytes a transfer report takes: an empty source, two ints and three longs.
+     */
+    private static final int REPORT_SIZE = Integer.BYTES + 2 * Integer.BYTES + 3 * Long.BYTES;
+
+    private BinaryProtocol() {
+    }
+
+    public static byte[] frame(int requestId, byte code, byte[] payload) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + HEADER_SIZE + payload.length);
+        final DataOutputStream output = new DataOutputStream(bytes);
+
+        try {
+            output.writeInt(HEADER_SIZE + payload.length);
+            output.writeInt(requestId);
+            output.writeByte(code);
+            output.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    public static String readString(DataInputStream input) throws IOException {
+        final int length = count(input, 1, true);
+
+        if (length < 0) return null;
+
+        final byte[] bytes = new byte[length];
+
+        input.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void writeStrings(DataOutput output, Collection<String> values) throws IOException {
+        if (values == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        output.writeInt(values.size());
+
+        for (String value : values) writeString(output, value);
+    }
+
+    public static List<String> readStrings(DataInputStream input) throws IOException {
+        final int count = count(input, Integer.BYTES, true);
+
+        if (count < 0) return null;
+
+        final List<String> values = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) values.add(readString(input));
+
+        return values;
+    }
+
+    public static void writeStringMap(DataOutput output, Map<String, String> values) throws IOException {
+        output.writeInt(values.size());
+
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeString(output, entry.getKey());
+            writeString(output, entry.getValue());
+        }
+    }
+
+    public static Map<String, String> readStringMap(DataInputStream input) throws IOException {
+        final int count = count(input, 2 * Integer.BYTES, false);
+        final Map<String, String> values = new HashMap<>(Math.max(16, count * 2));
+
+        for (int i = 0; i < count; i++) values.put(readString(input), readString(input));
+
+        return values;
+    }
+
+    public static void writeInts(DataOutput output, int[] values) throws IOException {
+        output.writeInt(values.length);
+
+        for (int value : values) output.writeInt(value);
+    }
+
+    public static int[] readInts(DataInputStream input) throws IOException {
+        final int[] values = new int[count(input, Integer.BYTES, false)];
+
+        for (int i = 0; i < values.length; i++) values[i] = input.readInt();
+
+        return values;
+    }
+
+    public static void writeLongs(DataOutput output, long[] values) throws IOException {
+        output.writeInt(values.length);
+
+        for (long value : values) output.writeLong(value);
+    }
+
+    public static long[] readLongs(DataInputStream input) throws IOException {
+        final long[] values = new long[count(input, Long.BYTES, false)];
+
+        for (int i = 0; i < values.length; i++) values[i] = input.readLong();
+
+        return values;
+    }
+
+    public static void writeReports(DataOutput output, List<TransferReport> reports) throws IOException {
+        output.writeInt(reports.size());
+
+        for (TransferReport report : reports) {
+            writeString(output, report.getSource());
+            output.writeInt(report.getSuccesses());
+            output.writeInt(report.getFailures());
+            output.writeLong(report.getBytes());
+            output.writeLong(report.getNanos());
+            output.writeLong(report.getLatencyNanos());
+        }
+    }
+
+    public static List<TransferReport> readReports(DataInputStream input) throws IOException {
+        final int count = count(input, REPORT_SIZE, false);
+        final List<TransferReport> reports = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            reports.add(new TransferReport(readString(input), input.readInt(), input.readInt(), input.readLong(), input.readLong(), input.readLong()));
+        }
+
+        return reports;
+    }
+
+    public static void writeQuery(DataOutput output, SearchQuery query) throws IOException {
+        writeString(output, query.getPattern());
+        writeString(output, query.getMode().getName());
+        output.writeBoolean(query.isIgnoreCase());
+        writeString(output, query.getAfter());
+        output.writeInt(query.getLimit());
+    }
+
+    public static SearchQuery readQuery(DataInputStream input) throws IOException {
+        return new SearchQuery(readString(input), SearchMode.from(readString(input)), input.readBoolean(), readString(input), input.readInt());
+    }
+
+    public static void writeHits(DataOutput output, List<SearchHit> hits) throws IOException {
+        output.writeInt(hits.size());
+
+        for (SearchHit hit : hits) {
+            writeString(output, hit.getFilename());
+            writeStrings(output, hit.getPeers());
+        }
+    }
+
+    public static List<SearchHit> readHits(DataInputStream input) throws IOException {
+        final int count = count(input, 2 * Integer.BYTES, false);
+        final List<SearchHit> hits = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) hits.add(new SearchHit(readString(input), readStrings(input)));
+
+        return hits;
+    }
+
+    public static void writePage(DataOutput output, SearchPage page) throws IOException {
+        writeHits(output, page.getHits());
+        writeString(output, page.getNext());
+    }
+
+    public static SearchPage readPage(DataInputStream input) throws IOException {
+        return new SearchPage(readHits(input), readString(input));
+    }
+
+    /**
+     * Reads an element count and checks it against the bytes left in the payload, before
+     * anything is sized by it.
+     *
+     * @param elementBytes fewest bytes one element takes
+     * @param nullable     whether a count of -1, for null, is allowed
+     */
+    private static int count(DataInputStream input, int elementBytes, boolean nullable) throws IOException {
+        final int count = input.readInt();
+
+        if (count == -1 && nullable) return count;
+
+        if (count < 0 || (long) count * elementBytes > input.available())
+            throw new IOException(String.format("Invalid count %d with %d bytes left", count, input.available()));
+
+        return count;
+    }
+}
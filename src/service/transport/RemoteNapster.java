@@ -0,0 +1,32 @@
+package service.transport;
+
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The index protocol as an RMI remote interface. It mirrors {@link service.Napster}
+ * method for method, since RMI only dispatches methods declared by a remote interface.
+ */
+public interface RemoteNapster extends Remote {
+    String join(String ip, Integer port, List<String> files) throws RemoteException;
+    List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException;
+    SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException;
+    List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException;
+    String update(String ip, Integer port, String filenameWithExtension) throws RemoteException;
+    String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException;
+    String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException;
+    int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException;
+    String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException;
+    String leave(String ip, Integer port) throws RemoteException;
+    String heartbeat(String ip, Integer port) throws RemoteException;
+    String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException;
+    String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException;
+    long[] versions(String ip, Integer port) throws RemoteException;
+}
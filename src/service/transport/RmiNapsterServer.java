@@ -0,0 +1,96 @@
+package service.transport;
+
+import service.Napster;
+import service.model.health.TransferReport;
+import service.model.search.SearchHit;
+import service.model.search.SearchPage;
+import service.model.search.SearchQuery;
+
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports a {@link Napster} over RMI.
+ */
+public class RmiNapsterServer extends UnicastRemoteObject implements RemoteNapster {
+    private static final long serialVersionUID = 1L;
+    private final Napster napster;
+
+    public RmiNapsterServer(Napster napster) throws RemoteException {
+        super();
+
+        this.napster = napster;
+    }
+
+    @Override
+    public String join(String ip, Integer port, List<String> files) throws RemoteException {
+        return napster.join(ip, port, files);
+    }
+
+    @Override
+    public List<String> search(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return napster.search(ip, port, filenameWithExtension);
+    }
+
+    @Override
+    public SearchPage search(String ip, Integer port, SearchQuery query) throws RemoteException {
+        return napster.search(ip, port, query);
+    }
+
+    @Override
+    public List<SearchHit> searchByHash(String ip, Integer port, String hash) throws RemoteException {
+        return napster.searchByHash(ip, port, hash);
+    }
+
+    @Override
+    public String update(String ip, Integer port, String filenameWithExtension) throws RemoteException {
+        return napster.update(ip, port, filenameWithExtension);
+    }
+
+    @Override
+    public String update(String ip, Integer port, List<String> added, List<String> removed) throws RemoteException {
+        return napster.update(ip, port, added, removed);
+    }
+
+    @Override
+    public String updateHashes(String ip, Integer port, Map<String, String> hashes) throws RemoteException {
+        return napster.updateHashes(ip, port, hashes);
+    }
+
+    @Override
+    public int[] rejoin(String ip, Integer port, long[] digest) throws RemoteException {
+        return napster.rejoin(ip, port, digest);
+    }
+
+    @Override
+    public String sync(String ip, Integer port, int[] buckets, List<String> files) throws RemoteException {
+        return napster.sync(ip, port, buckets, files);
+    }
+
+    @Override
+    public String leave(String ip, Integer port) throws RemoteException {
+        return napster.leave(ip, port);
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port) throws RemoteException {
+        return napster.heartbeat(ip, port);
+    }
+
+    @Override
+    public String heartbeat(String ip, Integer port, int freeSlots) throws RemoteException {
+        return napster.heartbeat(ip, port, freeSlots);
+    }
+
+    @Override
+    public String report(String ip, Integer port, List<TransferReport> reports) throws RemoteException {
+        return napster.report(ip, port, reports);
+    }
+
+    @Override
+    public long[] versions(String ip, Integer port) throws RemoteException {
+        return napster.versions(ip, port);
+    }
+}
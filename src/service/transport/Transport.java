@@ -0,0 +1,35 @@
+package service.transport;
+
+import java.util.List;
+
+public enum Transport {
+    RMI("rmi"),
+    BINARY("binary");
+
+    private static final String FLAG = "--transport=";
+    private final String name;
+
+    Transport(String name) {
+        this.name = name;
+    }
+
+    public static Transport from(String name) {
+        for (Transport transport : values()) {
+            if (transport.name.equalsIgnoreCase(name)) return transport;
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown transport %s", name));
+    }
+
+    public static Transport from(List<String> args) {
+        for (String arg : args) {
+            if (arg.startsWith(FLAG)) return from(arg.substring(FLAG.length()));
+        }
+
+        return RMI;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -1,5 +1,7 @@
 package util;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Scanner;
 
 public class IOUtil {
@@ -14,4 +16,23 @@ public class IOUtil {
 
         return readInput();
     }
+
+    /**
+     * Closes {@code resource} if it is {@link AutoCloseable}, so a wrapper can close what
+     * it wraps without declaring {@code close() throws Exception}.
+     */
+    public static void closeIfCloseable(Object resource) throws IOException {
+        if (!(resource instanceof AutoCloseable)) return;
+
+        try {
+            ((AutoCloseable) resource).close();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while closing %s", resource));
+        } catch (Exception e) {
+            throw new IOException(String.format("Failed to close %s", resource), e);
+        }
+    }
 }
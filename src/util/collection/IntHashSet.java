@@ -0,0 +1,118 @@
+package util.collection;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Set of non-negative ints in a single open-addressing array, a few bytes per element.
+ * Not thread-safe.
+ */
+public class IntHashSet {
+    private static final int EMPTY = -1;
+    private int[] table;
+    private int size;
+
+    public IntHashSet() {
+        this(4);
+    }
+
+    public IntHashSet(int expected) {
+        int capacity = 4;
+
+        while (capacity * 3 < expected * 4) capacity *= 2;
+
+        this.table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+    }
+
+    public boolean contains(int value) {
+        final int mask = table.length - 1;
+
+        for (int slot = StringDictionary.mix(value) & mask; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (table[slot] == value) return true;
+        }
+
+        return false;
+    }
+
+    public boolean add(int value) {
+        final int mask = table.length - 1;
+        int slot = StringDictionary.mix(value) & mask;
+
+        for (; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (table[slot] == value) return false;
+        }
+
+        table[slot] = value;
+
+        if (++size * 4 > table.length * 3) resize(table.length * 2);
+
+        return true;
+    }
+
+    public boolean remove(int value) {
+        final int mask = table.length - 1;
+        int hole = StringDictionary.mix(value) & mask;
+
+        while (table[hole] != value) {
+            if (table[hole] == EMPTY) return false;
+
+            hole = (hole + 1) & mask;
+        }
+
+        for (int slot = (hole + 1) & mask; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            final int home = StringDictionary.mix(table[slot]) & mask;
+
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+
+        table[hole] = EMPTY;
+
+        if (--size * 8 < table.length && table.length > 4) resize(table.length / 2);
+
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(IntConsumer consumer) {
+        for (int value : table) {
+            if (value != EMPTY) consumer.accept(value);
+        }
+    }
+
+    public int[] toArray() {
+        final int[] values = new int[size];
+        int count = 0;
+
+        for (int value : table) {
+            if (value != EMPTY) values[count++] = value;
+        }
+
+        return values;
+    }
+
+    private void resize(int capacity) {
+        final int[] old = table;
+
+        table = new int[capacity];
+        Arrays.fill(table, EMPTY);
+
+        final int mask = capacity - 1;
+
+        for (int value : old) {
+            if (value == EMPTY) continue;
+
+            int slot = StringDictionary.mix(value) & mask;
+
+            while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+
+            table[slot] = value;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package util.collection;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys to int values in two open-addressing arrays.
+ * Not thread-safe.
+ */
+public class IntIntHashMap {
+    private static final int EMPTY = -1;
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public interface Consumer {
+        void accept(int key, int value);
+    }
+
+    public IntIntHashMap() {
+        this.keys = new int[4];
+        this.values = new int[4];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Returns the value of a key, or -1 when it is absent.
+     */
+    public int get(int key) {
+        final int mask = keys.length - 1;
+
+        for (int slot = StringDictionary.mix(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return values[slot];
+        }
+
+        return -1;
+    }
+
+    /**
+     * Sets the value of a key, returning the previous one or -1.
+     */
+    public int put(int key, int value) {
+        final int mask = keys.length - 1;
+        int slot = StringDictionary.mix(key) & mask;
+
+        for (; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                final int previous = values[slot];
+
+                values[slot] = value;
+
+                return previous;
+            }
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        if (++size * 4 > keys.length * 3) resize(keys.length * 2);
+
+        return -1;
+    }
+
+    /**
+     * Removes a key, returning its value or -1.
+     */
+    public int remove(int key) {
+        final int mask = keys.length - 1;
+        int hole = StringDictionary.mix(key) & mask;
+
+        while (keys[hole] != key) {
+            if (keys[hole] == EMPTY) return -1;
+
+            hole = (hole + 1) & mask;
+        }
+
+        final int previous = values[hole];
+
+        for (int slot = (hole + 1) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            final int home = StringDictionary.mix(keys[slot]) & mask;
+
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+
+        keys[hole] = EMPTY;
+
+        if (--size * 8 < keys.length && keys.length > 4) resize(keys.length / 2);
+
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(Consumer consumer) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) consumer.accept(keys[slot], values[slot]);
+        }
+    }
+
+    private void resize(int capacity) {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        final int mask = capacity - 1;
+
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+
+            int slot = StringDictionary.mix(oldKeys[i]) & mask;
+
+            while (keys[slot] != EMPTY) slot = (slot + 1) & mask;
+
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package util.collection;
+
+import java.util.Arrays;
+
+/**
+ * {@link Postings} of longs, for entries that pack two int ids in one value.
+ * Not thread-safe.
+ */
+public class LongPostings {
+    private long[][] lists = new long[16][];
+    private int[] sizes = new int[16];
+
+    public boolean add(int list, long value) {
+        ensure(list);
+
+        long[] values = lists[list];
+        final int size = sizes[list];
+
+        if (values == null) values = lists[list] = new long[1];
+
+        int index = Arrays.binarySearch(values, 0, size, value);
+
+        if (index >= 0) return false;
+
+        index = -index - 1;
+
+        if (size == values.length) values = lists[list] = Arrays.copyOf(values, size + (size >> 1) + 1);
+
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        sizes[list] = size + 1;
+
+        return true;
+    }
+
+    public boolean remove(int list, long value) {
+        if (list >= lists.length || lists[list] == null) return false;
+
+        final long[] values = lists[list];
+        final int size = sizes[list];
+        final int index = Arrays.binarySearch(values, 0, size, value);
+
+        if (index < 0) return false;
+
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        sizes[list] = size - 1;
+
+        if (size == 1) {
+            lists[list] = null;
+        } else if (size * 4 < values.length) {
+            lists[list] = Arrays.copyOf(values, size * 2);
+        }
+
+        return true;
+    }
+
+    public int size(int list) {
+        return list < sizes.length ? sizes[list] : 0;
+    }
+
+    public long get(int list, int index) {
+        return lists[list][index];
+    }
+
+    public void clear(int list) {
+        if (list >= lists.length) return;
+
+        lists[list] = null;
+        sizes[list] = 0;
+    }
+
+    private void ensure(int list) {
+        if (list < lists.length) return;
+
+        final int capacity = Math.max(list + 1, lists.length * 2);
+
+        lists = Arrays.copyOf(lists, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+}
@@ -0,0 +1,124 @@
+package util.collection;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded map that evicts the least recently used entry and forgets entries older than a
+ * time to live. It is split into segments with a lock each, so concurrent lookups of
+ * different keys rarely wait on each other; eviction is per segment and so only
+ * approximately LRU across the whole cache. A capacity of 0 disables it.
+ */
+public class LruCache<K, V> {
+    private static final int SEGMENTS = 16;
+    private final Segment<K, V>[] segments;
+    private final long ttlNanos;
+
+    private static class Timed<V> {
+        private final V value;
+        private final long createdAt;
+
+        Timed(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, Timed<V>> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Timed<V>> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * @param ttl milliseconds an entry stays valid, or 0 to keep it until evicted
+     */
+    public LruCache(int capacity, long ttl) {
+        final int count = Math.max(0, Math.min(SEGMENTS, capacity));
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Segment<K, V>[] segments = (Segment<K, V>[]) new Segment[count];
+
+        this.segments = segments;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<>((capacity + count - 1) / count);
+        }
+    }
+
+    public V get(K key) {
+        if (segments.length == 0) return null;
+
+        final Segment<K, V> segment = segment(key);
+
+        synchronized (segment) {
+            final Timed<V> entry = segment.get(key);
+
+            if (entry == null) return null;
+
+            if (ttlNanos > 0 && System.nanoTime() - entry.createdAt > ttlNanos) {
+                segment.remove(key);
+
+                return null;
+            }
+
+            return entry.value;
+        }
+    }
+
+    public void put(K key, V value) {
+        if (segments.length == 0) return;
+
+        final Segment<K, V> segment = segment(key);
+
+        synchronized (segment) {
+            segment.put(key, new Timed<>(value, System.nanoTime()));
+        }
+    }
+
+    public void remove(K key) {
+        if (segments.length == 0) return;
+
+        final Segment<K, V> segment = segment(key);
+
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    private Segment<K, V> segment(K key) {
+        final int hash = key.hashCode();
+
+        return segments[((hash ^ (hash >>> 16)) & 0x7fffffff) % segments.length];
+    }
+}
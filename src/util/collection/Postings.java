@@ -0,0 +1,81 @@
+package util.collection;
+
+import java.util.Arrays;
+
+/**
+ * Posting lists of ints, one per list id, each kept as a sorted primitive array that
+ * grows and shrinks with its contents. A one-element list costs a small array; there is
+ * no per-element object. Not thread-safe.
+ */
+public class Postings {
+    private int[][] lists = new int[16][];
+    private int[] sizes = new int[16];
+
+    public boolean add(int list, int value) {
+        ensure(list);
+
+        int[] values = lists[list];
+        final int size = sizes[list];
+
+        if (values == null) values = lists[list] = new int[1];
+
+        int index = Arrays.binarySearch(values, 0, size, value);
+
+        if (index >= 0) return false;
+
+        index = -index - 1;
+
+        if (size == values.length) values = lists[list] = Arrays.copyOf(values, size + (size >> 1) + 1);
+
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        sizes[list] = size + 1;
+
+        return true;
+    }
+
+    public boolean remove(int list, int value) {
+        if (list >= lists.length || lists[list] == null) return false;
+
+        final int[] values = lists[list];
+        final int size = sizes[list];
+        final int index = Arrays.binarySearch(values, 0, size, value);
+
+        if (index < 0) return false;
+
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        sizes[list] = size - 1;
+
+        if (size == 1) {
+            lists[list] = null;
+        } else if (size * 4 < values.length) {
+            lists[list] = Arrays.copyOf(values, size * 2);
+        }
+
+        return true;
+    }
+
+    public int size(int list) {
+        return list < sizes.length ? sizes[list] : 0;
+    }
+
+    public int get(int list, int index) {
+        return lists[list][index];
+    }
+
+    public void clear(int list) {
+        if (list >= lists.length) return;
+
+        lists[list] = null;
+        sizes[list] = 0;
+    }
+
+    private void ensure(int list) {
+        if (list < lists.length) return;
+
+        final int capacity = Math.max(list + 1, lists.length * 2);
+
+        lists = Arrays.copyOf(lists, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+}
@@ -0,0 +1,144 @@
+package util.collection;
+
+import java.util.Arrays;
+
+/**
+ * Interns strings as dense int ids, counting how many holders each one has.
+ *
+ * <p>Ids index plain arrays and are recycled once their count drops to zero. Lookups go
+ * through an open-addressing table of ids with linear probing, so the dictionary costs a
+ * few words per distinct string on top of the string itself. Not thread-safe.
+ */
+public class StringDictionary {
+    private static final int EMPTY = -1;
+    private String[] values = new String[16];
+    private int[] counts = new int[16];
+    private int[] table = empty(32);
+    private int[] free = new int[16];
+    private int freeCount;
+    private int next;
+    private int size;
+
+    /**
+     * Returns the id of a string, or -1 when it is not in the dictionary.
+     */
+    public int id(String value) {
+        final int mask = table.length - 1;
+
+        for (int slot = mix(value.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            final int id = table[slot];
+
+            if (id == EMPTY) return -1;
+            if (values[id].equals(value)) return id;
+        }
+    }
+
+    /**
+     * Adds a holder to a string, interning it if needed, and returns its id.
+     */
+    public int acquire(String value) {
+        int id = id(value);
+
+        if (id >= 0) {
+            counts[id]++;
+
+            return id;
+        }
+
+        id = freeCount > 0 ? free[--freeCount] : next++;
+
+        if (id >= values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+
+        values[id] = value;
+        counts[id] = 1;
+
+        insert(id);
+
+        if (++size * 4 > table.length * 3) rehash(table.length * 2);
+
+        return id;
+    }
+
+    /**
+     * Removes a holder from a string, returning whether it was the last one and the id
+     * was released.
+     */
+    public boolean release(int id) {
+        if (--counts[id] > 0) return false;
+
+        delete(id);
+        values[id] = null;
+        size--;
+
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+
+        free[freeCount++] = id;
+
+        return true;
+    }
+
+    public String get(int id) {
+        return values[id];
+    }
+
+    public int count(int id) {
+        return counts[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void insert(int id) {
+        final int mask = table.length - 1;
+        int slot = mix(values[id].hashCode()) & mask;
+
+        while (table[slot] != EMPTY) slot = (slot + 1) & mask;
+
+        table[slot] = id;
+    }
+
+    private void delete(int id) {
+        final int mask = table.length - 1;
+        int hole = mix(values[id].hashCode()) & mask;
+
+        while (table[hole] != id) hole = (hole + 1) & mask;
+
+        // Shift later entries of the probe run back so lookups never stop at the hole
+        for (int slot = (hole + 1) & mask; table[slot] != EMPTY; slot = (slot + 1) & mask) {
+            final int home = mix(values[table[slot]].hashCode()) & mask;
+
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+
+        table[hole] = EMPTY;
+    }
+
+    private void rehash(int capacity) {
+        table = empty(capacity);
+
+        for (int id = 0; id < next; id++) {
+            if (values[id] != null) insert(id);
+        }
+    }
+
+    private static int[] empty(int capacity) {
+        final int[] table = new int[capacity];
+
+        Arrays.fill(table, EMPTY);
+
+        return table;
+    }
+
+    static int mix(int hash) {
+        hash *= 0x9e3779b9;
+
+        return hash ^ (hash >>> 16);
+    }
+}